@@ -0,0 +1,90 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.referencing.FactoryException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the metadata stage: loading the catalog of a tgis sqlite db and initializing readers of a single map and of
+ * a time series. The raster headers are served from the shared header cache after the first invocation, as they are
+ * in GeoServer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dgrass.gdal.engine=java"})
+public class MetadataBenchmark {
+
+  @Param({"100", "10000"})
+  public int maps;
+
+  private File mapset;
+
+  private File db;
+
+  private File raster;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, SQLException {
+    mapset = SyntheticData.createMapset();
+    // only the first map is needed to initialize the reader
+    db = SyntheticData.createTimeSeries(mapset, "series", maps, "Int16", 256, false);
+    raster = new File(new File(mapset, "cellhd"), "series_0");
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    SyntheticData.delete(mapset);
+  }
+
+  @Benchmark
+  public Map<String, String> loadCatalog() throws SQLException {
+    // the catalog itself is package private, the generated benchmark code can't refer to it
+    return StrdsCatalog.load(db).getFileNames();
+  }
+
+  @Benchmark
+  public GrassGdalReader openTimeSeries() throws IOException, FactoryException {
+    return new GrassGdalReader(db);
+  }
+
+  @Benchmark
+  public GrassGdalReader openRaster() throws IOException, FactoryException {
+    return new GrassGdalReader(raster);
+  }
+
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.parameter.GeneralParameterValue;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the copy stage of the read path: reading all pixels of a full extent request with either engine into the
+ * tiles of the returned image. The tile cache is disabled, so every invocation reads from the map.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dgrass.gdal.cache.size=0"})
+public class ReadBenchmark {
+
+  @Param({"Byte", "Int16", "Float32", "Float64"})
+  public String dataType;
+
+  @Param({"1024", "4096"})
+  public int size;
+
+  /**
+   * The engine to read the map with, the gdal engine needs the GDAL GRASS driver. Every parameter combination runs in
+   * a new fork, so the engine is selected before the datastore reads it.
+   */
+  @Param({"gdal", "java"})
+  public String engine;
+
+  private File mapset;
+
+  private GrassGdalReader reader;
+
+  private GeneralParameterValue[] parameters;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, FactoryException {
+    System.setProperty(RasterSources.ENGINE_PROPERTY, engine);
+    mapset = SyntheticData.createMapset();
+    File raster = SyntheticData.createRaster(mapset, "benchmark", dataType, size);
+    reader = new GrassGdalReader(raster);
+    // a typical WMS tile request, downsampled for the larger rasters
+    parameters = SyntheticData.readParameters(reader, 768, 768);
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.dispose();
+    SyntheticData.delete(mapset);
+  }
+
+  @Benchmark
+  public Raster read() throws IOException {
+    return readAll();
+  }
+
+  @Benchmark
+  @Threads(4)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public Raster readConcurrently() throws IOException {
+    return readAll();
+  }
+
+  private Raster readAll() throws IOException {
+    GridCoverage2D coverage = reader.read(parameters);
+    // the image is lazy, requesting the data reads all tiles
+    Raster data = coverage.getRenderedImage().getData();
+    coverage.dispose(true);
+    return data;
+  }
+
+}
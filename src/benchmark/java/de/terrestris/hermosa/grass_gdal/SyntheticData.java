@@ -0,0 +1,289 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.parameter.GeneralParameterValue;
+import org.geotools.api.parameter.ParameterValue;
+import org.geotools.coverage.grid.GridEnvelope2D;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.stream.Stream;
+
+/**
+ * Creates synthetic GRASS rasters and time series in a temporary location (location/PERMANENT with the cellhd, cell,
+ * fcell and cell_misc elements of the maps and tgis/sqlite.db). The maps are written uncompressed by the benchmark
+ * itself, so no GRASS installation is needed to create them. Reading them with the GDAL engine needs the GDAL GRASS
+ * driver, the java engine reads them without it.
+ */
+final class SyntheticData {
+
+  static final Instant FIRST_TIME = Instant.parse("2020-01-01T00:00:00Z");
+
+  private static final DateTimeFormatter DB_TIME = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss")
+    .withZone(ZoneOffset.UTC);
+
+  /**
+   * The region of the maps: NAD83 / North Carolina, the default CRS of the reader, with 10m cells.
+   */
+  private static final double WEST = 630000;
+
+  private static final double NORTH = 228500;
+
+  private static final double RESOLUTION = 10;
+
+  private SyntheticData() {
+  }
+
+  /**
+   * @return the PERMANENT mapset of a new temporary location
+   * @throws IOException if the location could not be created
+   */
+  static File createMapset() throws IOException {
+    File location = Files.createTempDirectory("grass-gdal-benchmark").toFile();
+    File mapset = new File(location, "PERMANENT");
+    for (String element : new String[]{"cellhd", "cell", "fcell", "cell_misc", "tgis"}) {
+      Files.createDirectories(new File(mapset, element).toPath());
+    }
+    // the region of the location, GRASS (and thus the GDAL driver) refuses to open a mapset without it
+    byte[] region = header(1, 1).getBytes(StandardCharsets.US_ASCII);
+    Files.write(new File(mapset, "DEFAULT_WIND").toPath(), region);
+    Files.write(new File(mapset, "WIND").toPath(), region);
+    return mapset;
+  }
+
+  /**
+   * Write an uncompressed map with a deterministic gradient pattern and no nulls.
+   *
+   * @param mapset   the mapset directory
+   * @param name     the map name
+   * @param dataType the GDAL data type name the map is read as, Byte, Int16, Float32 or Float64
+   * @param size     the width and height
+   * @return the cellhd file of the map
+   * @throws IOException if the map could not be written
+   */
+  static File createRaster(File mapset, String name, String dataType, int size) throws IOException {
+    boolean floatingPoint = dataType.startsWith("Float");
+    int nbytes;
+    switch (dataType) {
+      case "Byte":
+        nbytes = 1;
+        break;
+      case "Int16":
+        nbytes = 2;
+        break;
+      case "Float32":
+        nbytes = 4;
+        break;
+      case "Float64":
+        nbytes = 8;
+        break;
+      default:
+        throw new IllegalArgumentException("Unsupported data type " + dataType);
+    }
+    File misc = new File(new File(mapset, "cell_misc"), name);
+    Files.createDirectories(misc.toPath());
+    File data = new File(new File(mapset, floatingPoint ? "fcell" : "cell"), name);
+    // the values are big endian, as GRASS stores them
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(data.toPath())))) {
+      for (int y = 0; y < size; ++y) {
+        for (int x = 0; x < size; ++x) {
+          int value = (x + y) % 100;
+          if (nbytes == 1) {
+            out.writeByte(value);
+          } else if (nbytes == 2) {
+            out.writeShort(value);
+          } else if (nbytes == 4) {
+            out.writeFloat(value);
+          } else {
+            out.writeDouble(value);
+          }
+        }
+      }
+    }
+    if (floatingPoint) {
+      // floating point maps have an empty cell file next to their fcell file
+      Files.write(new File(new File(mapset, "cell"), name).toPath(), new byte[0]);
+      Files.write(new File(misc, "f_format").toPath(), ("type: " + (nbytes == 8 ? "double" : "float")
+        + "\nbyte_order: xdr\n").getBytes(StandardCharsets.US_ASCII));
+    } else {
+      Files.write(new File(misc, "range").toPath(), "0 99\n".getBytes(StandardCharsets.US_ASCII));
+    }
+    // one bit per cell, set for nulls
+    Files.write(new File(misc, "null").toPath(), new byte[size * ((size + 7) / 8)]);
+    File cellhd = new File(new File(mapset, "cellhd"), name);
+    // the format is the number of bytes per value minus one of integer maps, -1 for floating point maps
+    Files.write(cellhd.toPath(), ("format:     " + (floatingPoint ? -1 : nbytes - 1) + "\n" + header(size, size))
+      .getBytes(StandardCharsets.US_ASCII));
+    return cellhd;
+  }
+
+  /**
+   * Copy all elements of a map.
+   *
+   * @param mapset the mapset directory
+   * @param name   the name of the map to copy
+   * @param copy   the name of the copy
+   * @throws IOException if the map could not be copied
+   */
+  private static void copyRaster(File mapset, String name, String copy) throws IOException {
+    for (String element : new String[]{"cellhd", "cell", "fcell"}) {
+      File file = new File(new File(mapset, element), name);
+      if (file.isFile()) {
+        Files.copy(file.toPath(), new File(file.getParentFile(), copy).toPath(), StandardCopyOption.REPLACE_EXISTING);
+      }
+    }
+    File misc = new File(new File(mapset, "cell_misc"), name);
+    File miscCopy = new File(misc.getParentFile(), copy);
+    Files.createDirectories(miscCopy.toPath());
+    for (File file : misc.listFiles()) {
+      Files.copy(file.toPath(), new File(miscCopy, file.getName()).toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * @param rows the number of rows
+   * @param cols the number of columns
+   * @return the keys of a cellhd or region file of an uncompressed map with the given size, except for the format
+   */
+  private static String header(int rows, int cols) {
+    return "compressed: 0\nproj:       99\nzone:       0\n"
+      + "north:      " + NORTH + "\n"
+      + "south:      " + (NORTH - rows * RESOLUTION) + "\n"
+      + "east:       " + (WEST + cols * RESOLUTION) + "\n"
+      + "west:       " + WEST + "\n"
+      + "cols:       " + cols + "\n"
+      + "rows:       " + rows + "\n"
+      + "e-w resol:  " + RESOLUTION + "\n"
+      + "n-s resol:  " + RESOLUTION + "\n";
+  }
+
+  /**
+   * Register a time series of daily maps in a new tgis/sqlite.db. Only the first map is written, the other maps are
+   * copies of it if requested.
+   *
+   * @param mapset     the mapset directory
+   * @param strds      the name of the time series
+   * @param count      the number of maps
+   * @param dataType   the GDAL data type name
+   * @param size       the width and height of the rasters
+   * @param copyMaps   true to create all rasters, false to only register them
+   * @return the sqlite db
+   * @throws IOException  if the rasters could not be written
+   * @throws SQLException if the db could not be written
+   */
+  static File createTimeSeries(File mapset, String strds, int count, String dataType, int size, boolean copyMaps)
+    throws IOException, SQLException {
+    createRaster(mapset, strds + "_0", dataType, size);
+    File db = new File(new File(mapset, "tgis"), "sqlite.db");
+    StringBuilder maps = new StringBuilder();
+    try (Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath())) {
+      conn.setAutoCommit(false);
+      try (Statement stmt = conn.createStatement()) {
+        stmt.execute("create table strds_metadata (id text primary key, command text)");
+        stmt.execute("create table raster_base (id text primary key, name text, mapset text, temporal_type text)");
+        stmt.execute("create table raster_absolute_time (id text primary key, start_time timestamp, "
+          + "end_time timestamp)");
+      }
+      try (PreparedStatement base = conn.prepareStatement("insert into raster_base values (?, ?, ?, 'absolute')");
+           PreparedStatement time = conn.prepareStatement("insert into raster_absolute_time values (?, ?, ?)")) {
+        for (int i = 0; i < count; ++i) {
+          String name = strds + "_" + i;
+          String id = name + "@" + mapset.getName();
+          if (copyMaps && i > 0) {
+            copyRaster(mapset, strds + "_0", name);
+          }
+          base.setString(1, id);
+          base.setString(2, name);
+          base.setString(3, mapset.getName());
+          base.addBatch();
+          Instant start = FIRST_TIME.plus(i, ChronoUnit.DAYS);
+          time.setString(1, id);
+          time.setString(2, DB_TIME.format(start));
+          time.setString(3, DB_TIME.format(start.plus(1, ChronoUnit.DAYS)));
+          time.addBatch();
+          maps.append(i == 0 ? "" : ",").append(name);
+        }
+        base.executeBatch();
+        time.executeBatch();
+      }
+      try (PreparedStatement stmt = conn.prepareStatement("insert into strds_metadata values (?, ?)")) {
+        stmt.setString(1, strds + "@" + mapset.getName());
+        stmt.setString(2, "t.register input=" + strds + " maps=\"" + maps + "\"");
+        stmt.executeUpdate();
+      }
+      conn.commit();
+    }
+    return db;
+  }
+
+  /**
+   * @param reader the reader
+   * @param width  the requested width
+   * @param height the requested height
+   * @return the parameters of a GetMap like request of the full extent
+   */
+  static GeneralParameterValue[] readParameters(GrassGdalReader reader, int width, int height) {
+    ParameterValue<GridGeometry2D> geometry = AbstractGridFormat.READ_GRIDGEOMETRY2D.createValue();
+    geometry.setValue(new GridGeometry2D(new GridEnvelope2D(0, 0, width, height), reader.getOriginalEnvelope()));
+    return new GeneralParameterValue[]{geometry};
+  }
+
+  /**
+   * @param reader the reader
+   * @param width  the requested width
+   * @param height the requested height
+   * @param time   the requested time
+   * @return the parameters of a GetMap like request of the full extent at a time
+   */
+  static GeneralParameterValue[] readParameters(GrassGdalReader reader, int width, int height, Instant time) {
+    ParameterValue<java.util.List> value = AbstractGridFormat.TIME.createValue();
+    value.setValue(Collections.singletonList(Date.from(time)));
+    return new GeneralParameterValue[]{readParameters(reader, width, height)[0], value};
+  }
+
+  /**
+   * Delete a directory created by {@link #createMapset()}.
+   *
+   * @param mapset the mapset directory
+   * @throws IOException if the files could not be deleted
+   */
+  static void delete(File mapset) throws IOException {
+    try (Stream<java.nio.file.Path> paths = Files.walk(mapset.getParentFile().toPath())) {
+      paths.sorted(Comparator.reverseOrder()).map(java.nio.file.Path::toFile).forEach(File::delete);
+    }
+  }
+
+}
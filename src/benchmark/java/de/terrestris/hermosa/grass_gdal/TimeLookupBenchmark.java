@@ -0,0 +1,118 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.parameter.GeneralParameterValue;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.coverage.grid.GridCoverage2D;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.SQLException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the time lookup stage of the read path: finding the map of a requested time in the temporal index and
+ * creating the (lazy) coverage of it, without reading any pixels.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Dgrass.gdal.engine=java", "-Dgrass.gdal.catalog.refreshMillis=-1"})
+public class TimeLookupBenchmark {
+
+  private static final String STRDS = "series";
+
+  /**
+   * The number of maps in the index. The reader benchmark uses at most 1000 maps, as each of them is a file.
+   */
+  @Param({"365", "20000"})
+  public int maps;
+
+  private File mapset;
+
+  private TemporalIndex<String> index;
+
+  private GrassGdalReader reader;
+
+  private String coverageName;
+
+  @Setup(Level.Trial)
+  public void setUp() throws IOException, SQLException, FactoryException {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    for (int i = 0; i < maps; ++i) {
+      Instant start = SyntheticData.FIRST_TIME.plus(i, ChronoUnit.DAYS);
+      builder.add(start, start.plus(1, ChronoUnit.DAYS), "map_" + i);
+    }
+    index = builder.build();
+    mapset = SyntheticData.createMapset();
+    File db = SyntheticData.createTimeSeries(mapset, STRDS, Math.min(maps, 1000), "Float32", 64, true);
+    reader = new GrassGdalReader(db);
+    coverageName = STRDS + "@" + mapset.getName();
+  }
+
+  @TearDown(Level.Trial)
+  public void tearDown() throws IOException {
+    reader.dispose();
+    SyntheticData.delete(mapset);
+  }
+
+  @Benchmark
+  public String findInIndex() {
+    return index.find(randomTime(maps));
+  }
+
+  @Benchmark
+  public GridCoverage2D readAtTime() throws IOException {
+    return reader.read(coverageName, parameters());
+  }
+
+  @Benchmark
+  @Threads(4)
+  @BenchmarkMode(Mode.Throughput)
+  @OutputTimeUnit(TimeUnit.SECONDS)
+  public GridCoverage2D readAtTimeConcurrently() throws IOException {
+    return reader.read(coverageName, parameters());
+  }
+
+  private GeneralParameterValue[] parameters() {
+    return SyntheticData.readParameters(reader, 256, 256, randomTime(Math.min(maps, 1000)));
+  }
+
+  private static Instant randomTime(int days) {
+    return SyntheticData.FIRST_TIME.plus(ThreadLocalRandom.current().nextLong(days * 24L), ChronoUnit.HOURS);
+  }
+
+}
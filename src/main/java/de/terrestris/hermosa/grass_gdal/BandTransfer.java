@@ -0,0 +1,309 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdalconst.gdalconstConstants;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.nio.ByteBuffer;
+
+/**
+ * Transfers raster windows from GDAL bands directly into the backing arrays of a {@link DataBuffer}, keeping the
+ * native sample type of the band. The images use single bank data buffers holding the bands one after the other, so
+ * all bands of a window can be read with one GDAL call.
+ */
+final class BandTransfer {
+
+  private BandTransfer() {
+  }
+
+  /**
+   * Determine the data buffer type that holds the values of a GDAL data type without loss. UInt32 (and any other type
+   * without a java counterpart) is promoted to double, as java has no unsigned int data buffer.
+   *
+   * @param gdalType the GDAL data type
+   * @return the matching DataBuffer type
+   */
+  static int dataBufferType(int gdalType) {
+    if (gdalType == gdalconstConstants.GDT_Byte) {
+      return DataBuffer.TYPE_BYTE;
+    }
+    if (gdalType == gdalconstConstants.GDT_UInt16) {
+      return DataBuffer.TYPE_USHORT;
+    }
+    if (gdalType == gdalconstConstants.GDT_Int16) {
+      return DataBuffer.TYPE_SHORT;
+    }
+    if (gdalType == gdalconstConstants.GDT_Int32) {
+      return DataBuffer.TYPE_INT;
+    }
+    if (gdalType == gdalconstConstants.GDT_Float32) {
+      return DataBuffer.TYPE_FLOAT;
+    }
+    return DataBuffer.TYPE_DOUBLE;
+  }
+
+  /**
+   * Determine the GDAL buffer type to request from GDAL so the values can be written into a buffer of the given type.
+   *
+   * @param gdalType the GDAL data type of the band
+   * @return the GDAL type of the target buffer
+   */
+  static int bufferGdalType(int gdalType) {
+    return dataBufferType(gdalType) == DataBuffer.TYPE_DOUBLE ? gdalconstConstants.GDT_Float64 : gdalType;
+  }
+
+  /**
+   * @param dataBufferType the DataBuffer type
+   * @return the number of bytes used per sample
+   */
+  static int bytesPerSample(int dataBufferType) {
+    return DataBuffer.getDataTypeSize(dataBufferType) / 8;
+  }
+
+  /**
+   * Create a banded data buffer of the given type.
+   *
+   * @param dataBufferType the DataBuffer type
+   * @param size           the number of samples per bank
+   * @param banks          the number of banks
+   * @return the new data buffer
+   */
+  static DataBuffer createDataBuffer(int dataBufferType, int size, int banks) {
+    switch (dataBufferType) {
+      case DataBuffer.TYPE_BYTE:
+        return new DataBufferByte(size, banks);
+      case DataBuffer.TYPE_USHORT:
+        return new DataBufferUShort(size, banks);
+      case DataBuffer.TYPE_SHORT:
+        return new DataBufferShort(size, banks);
+      case DataBuffer.TYPE_INT:
+        return new DataBufferInt(size, banks);
+      case DataBuffer.TYPE_FLOAT:
+        return new DataBufferFloat(size, banks);
+      case DataBuffer.TYPE_DOUBLE:
+        return new DataBufferDouble(size, banks);
+      default:
+        throw new IllegalStateException("Unexpected value: " + dataBufferType);
+    }
+  }
+
+  /**
+   * Read a window of a band into a data buffer. GDAL writes the values straight into the backing array if the window
+   * starts at the beginning of the array, else the window is read into a temporary array first.
+   *
+   * @param band       the GDAL band
+   * @param window     the source window as x, y, width and height
+   * @param bufWidth   the width of the target window
+   * @param bufHeight  the height of the target window
+   * @param buffer     the single bank data buffer
+   * @param offset     the offset of the first sample of the target window in the bank
+   * @param lineStride the number of samples per line in the target bank
+   * @return the GDAL error code, 0 on success
+   */
+  static int read(Band band, int[] window, int bufWidth, int bufHeight, DataBuffer buffer, int offset,
+                  int lineStride) {
+    int type = bufferGdalType(band.getDataType());
+    int pixelSpace = bytesPerSample(buffer.getDataType());
+    int lineSpace = lineStride * pixelSpace;
+    Object target = offset == 0 ? bankData(buffer, 0)
+      : createArray(buffer.getDataType(), lineStride * (bufHeight - 1) + bufWidth);
+    int result;
+    if (target instanceof byte[]) {
+      result = band.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (byte[]) target, pixelSpace, lineSpace);
+    } else if (target instanceof short[]) {
+      result = band.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (short[]) target, pixelSpace, lineSpace);
+    } else if (target instanceof int[]) {
+      result = band.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (int[]) target, pixelSpace, lineSpace);
+    } else if (target instanceof float[]) {
+      result = band.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (float[]) target, pixelSpace, lineSpace);
+    } else {
+      result = band.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (double[]) target, pixelSpace, lineSpace);
+    }
+    if (result == 0 && offset != 0) {
+      System.arraycopy(target, 0, bankData(buffer, 0), offset, lineStride * (bufHeight - 1) + bufWidth);
+    }
+    return result;
+  }
+
+  /**
+   * Read a window of several bands of a dataset with a single GDAL call into a band sequential data buffer. GDAL
+   * writes the values straight into the backing array.
+   *
+   * @param dataset    the GDAL dataset
+   * @param window     the source window as x, y, width and height
+   * @param bufWidth   the width of the target window
+   * @param bufHeight  the height of the target window
+   * @param gdalType   the GDAL data type of the bands
+   * @param buffer     the single bank data buffer, holding the bands one after the other
+   * @param bandList   the one based numbers of the bands to read
+   * @param lineStride the number of samples per line in the target bank
+   * @param bandStride the number of samples between the first samples of two bands in the target bank
+   * @return the GDAL error code, 0 on success
+   */
+  static int readBands(Dataset dataset, int[] window, int bufWidth, int bufHeight, int gdalType, DataBuffer buffer,
+                       int[] bandList, int lineStride, int bandStride) {
+    int type = bufferGdalType(gdalType);
+    int pixelSpace = bytesPerSample(buffer.getDataType());
+    int lineSpace = lineStride * pixelSpace;
+    int bandSpace = bandStride * pixelSpace;
+    Object target = bankData(buffer, 0);
+    if (target instanceof byte[]) {
+      return dataset.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (byte[]) target, bandList, pixelSpace, lineSpace, bandSpace);
+    } else if (target instanceof short[]) {
+      return dataset.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (short[]) target, bandList, pixelSpace, lineSpace, bandSpace);
+    } else if (target instanceof int[]) {
+      return dataset.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (int[]) target, bandList, pixelSpace, lineSpace, bandSpace);
+    } else if (target instanceof float[]) {
+      return dataset.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+        (float[]) target, bandList, pixelSpace, lineSpace, bandSpace);
+    }
+    return dataset.ReadRaster(window[0], window[1], window[2], window[3], bufWidth, bufHeight, type,
+      (double[]) target, bandList, pixelSpace, lineSpace, bandSpace);
+  }
+
+  /**
+   * @param buffer the data buffer
+   * @param bank   the bank
+   * @return the java array backing the bank
+   */
+  static Object bankData(DataBuffer buffer, int bank) {
+    switch (buffer.getDataType()) {
+      case DataBuffer.TYPE_BYTE:
+        return ((DataBufferByte) buffer).getData(bank);
+      case DataBuffer.TYPE_USHORT:
+        return ((DataBufferUShort) buffer).getData(bank);
+      case DataBuffer.TYPE_SHORT:
+        return ((DataBufferShort) buffer).getData(bank);
+      case DataBuffer.TYPE_INT:
+        return ((DataBufferInt) buffer).getData(bank);
+      case DataBuffer.TYPE_FLOAT:
+        return ((DataBufferFloat) buffer).getData(bank);
+      case DataBuffer.TYPE_DOUBLE:
+        return ((DataBufferDouble) buffer).getData(bank);
+      default:
+        throw new IllegalStateException("Unexpected value: " + buffer.getDataType());
+    }
+  }
+
+  /**
+   * @param dataBufferType the DataBuffer type
+   * @param size           the number of samples
+   * @return a new java array holding samples of the given type
+   */
+  static Object createArray(int dataBufferType, int size) {
+    switch (dataBufferType) {
+      case DataBuffer.TYPE_BYTE:
+        return new byte[size];
+      case DataBuffer.TYPE_USHORT:
+      case DataBuffer.TYPE_SHORT:
+        return new short[size];
+      case DataBuffer.TYPE_INT:
+        return new int[size];
+      case DataBuffer.TYPE_FLOAT:
+        return new float[size];
+      case DataBuffer.TYPE_DOUBLE:
+        return new double[size];
+      default:
+        throw new IllegalStateException("Unexpected value: " + dataBufferType);
+    }
+  }
+
+  /**
+   * Copy lines from a java array with the given line stride into a byte buffer, packed and starting at the buffer's
+   * position.
+   *
+   * @param source     the java array
+   * @param offset     the offset of the first sample in the source array
+   * @param width      the number of samples per line
+   * @param height     the number of lines
+   * @param lineStride the number of samples per line in the source array
+   * @param target     the byte buffer
+   */
+  static void copy(Object source, int offset, int width, int height, int lineStride, ByteBuffer target) {
+    ByteBuffer buffer = target.duplicate().order(target.order());
+    for (int y = 0; y < height; ++y) {
+      int start = offset + y * lineStride;
+      if (source instanceof byte[]) {
+        buffer.put((byte[]) source, start, width);
+      } else if (source instanceof short[]) {
+        buffer.asShortBuffer().put((short[]) source, start, width);
+        buffer.position(buffer.position() + width * 2);
+      } else if (source instanceof int[]) {
+        buffer.asIntBuffer().put((int[]) source, start, width);
+        buffer.position(buffer.position() + width * 4);
+      } else if (source instanceof float[]) {
+        buffer.asFloatBuffer().put((float[]) source, start, width);
+        buffer.position(buffer.position() + width * 4);
+      } else if (source instanceof double[]) {
+        buffer.asDoubleBuffer().put((double[]) source, start, width);
+        buffer.position(buffer.position() + width * 8);
+      } else {
+        throw new IllegalStateException("Unexpected value: " + source);
+      }
+    }
+  }
+
+  /**
+   * Copy packed lines from a byte buffer into a java array with the given line stride.
+   *
+   * @param source     the byte buffer, positioned at the first sample
+   * @param target     the java array
+   * @param offset     the offset of the first sample in the target array
+   * @param width      the number of samples per line
+   * @param height     the number of lines
+   * @param lineStride the number of samples per line in the target array
+   */
+  static void copy(ByteBuffer source, Object target, int offset, int width, int height, int lineStride) {
+    for (int y = 0; y < height; ++y) {
+      int start = offset + y * lineStride;
+      if (target instanceof byte[]) {
+        source.get((byte[]) target, start, width);
+      } else if (target instanceof short[]) {
+        source.asShortBuffer().get((short[]) target, start, width);
+        source.position(source.position() + width * 2);
+      } else if (target instanceof int[]) {
+        source.asIntBuffer().get((int[]) target, start, width);
+        source.position(source.position() + width * 4);
+      } else if (target instanceof float[]) {
+        source.asFloatBuffer().get((float[]) target, start, width);
+        source.position(source.position() + width * 4);
+      } else if (target instanceof double[]) {
+        source.asDoubleBuffer().get((double[]) target, start, width);
+        source.position(source.position() + width * 8);
+      } else {
+        throw new IllegalStateException("Unexpected value: " + target);
+      }
+    }
+  }
+
+}
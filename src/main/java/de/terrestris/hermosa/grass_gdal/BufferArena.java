@@ -0,0 +1,190 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.util.logging.Logging;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.ref.Cleaner;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Global memory budget of the datastore. Requests reserve the memory of all their tiles when they are admitted, before
+ * the tiles are created, and keep it until their image is disposed or garbage collected. When the budget is
+ * exhausted, requests wait for memory to be released and are rejected if none becomes available in time, while the
+ * error still reaches the caller. The tiles themselves are computed without waiting. The direct buffers of the
+ * off-heap tile cache are taken from the budget as long as it has room. The usage is registered as MBean
+ * {@code de.terrestris.hermosa.grass_gdal:type=BufferArena}.
+ */
+class BufferArena implements BufferArenaMXBean {
+
+  private static final Logger LOGGER = Logging.getLogger(BufferArena.class);
+
+  /**
+   * System property with the budget in megabytes, 0 for no limit.
+   */
+  static final String MAX_PROPERTY = "grass.gdal.memory.maxMB";
+
+  /**
+   * System property with the maximum number of milliseconds a request waits for memory.
+   */
+  static final String WAIT_PROPERTY = "grass.gdal.memory.waitMillis";
+
+  private static final Cleaner CLEANER = Cleaner.create();
+
+  private static final BufferArena INSTANCE = createInstance();
+
+  private final long budget;
+
+  private final long waitNanos;
+
+  private long used;
+
+  private long waits;
+
+  private long rejections;
+
+  BufferArena(long budget, long waitMillis) {
+    this.budget = budget;
+    this.waitNanos = TimeUnit.MILLISECONDS.toNanos(waitMillis);
+  }
+
+  private static BufferArena createInstance() {
+    BufferArena arena = new BufferArena(Long.getLong(MAX_PROPERTY, 256L) * 1024 * 1024,
+      Long.getLong(WAIT_PROPERTY, 5000L));
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(arena,
+        new ObjectName("de.terrestris.hermosa.grass_gdal:type=BufferArena"));
+    } catch (JMException e) {
+      LOGGER.log(Level.FINE, "Unable to register the buffer arena via JMX", e);
+    }
+    try {
+      Class.forName("io.micrometer.core.instrument.Metrics", false, BufferArena.class.getClassLoader());
+      MicrometerMetrics.bind(arena);
+    } catch (ClassNotFoundException e) {
+      // Micrometer is optional
+    }
+    return arena;
+  }
+
+  /**
+   * @return the JVM wide arena
+   */
+  static BufferArena getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Admit a request before its tiles are created and reserve the memory of all its tiles, waiting for other requests
+   * to release memory if the budget is exhausted. A request is always admitted if no other memory is in use, even if
+   * its tiles exceed the budget on their own. The memory is released by cleaning the returned reservation, e.g. when
+   * the image is disposed, or else once the image is garbage collected.
+   *
+   * @param image the image of the request
+   * @param bytes the number of bytes of all tiles of the image
+   * @return the reservation
+   * @throws IOException if no memory became available in time
+   */
+  Cleaner.Cleanable admit(Object image, long bytes) throws IOException {
+    synchronized (this) {
+      if (!awaitRoom(bytes)) {
+        ++rejections;
+        throw new IOException("No memory available to read " + bytes + " bytes, " + used + " of " + budget
+          + " bytes are in use, see " + MAX_PROPERTY);
+      }
+      used += bytes;
+    }
+    return CLEANER.register(image, () -> unreserve(bytes));
+  }
+
+  /**
+   * Reserve memory without waiting, e.g. for a direct buffer of the off-heap tile cache.
+   *
+   * @param bytes the number of bytes
+   * @return true, if the bytes fit into the budget and were reserved
+   */
+  synchronized boolean tryReserve(long bytes) {
+    if (budget > 0 && used + bytes > budget) {
+      return false;
+    }
+    used += bytes;
+    return true;
+  }
+
+  /**
+   * @param bytes the number of bytes reserved with {@link #tryReserve(long)} or admitted
+   */
+  synchronized void unreserve(long bytes) {
+    used -= bytes;
+    notifyAll();
+  }
+
+  /**
+   * Wait until the bytes fit into the budget or no other memory is in use.
+   *
+   * @return false, if the bytes didn't fit in time or the thread was interrupted
+   */
+  private boolean awaitRoom(long bytes) {
+    if (fits(bytes)) {
+      return true;
+    }
+    ++waits;
+    long deadline = System.nanoTime() + waitNanos;
+    while (!fits(bytes)) {
+      long remaining = deadline - System.nanoTime();
+      if (remaining <= 0) {
+        return false;
+      }
+      try {
+        TimeUnit.NANOSECONDS.timedWait(this, remaining);
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        return false;
+      }
+    }
+    return true;
+  }
+
+  private boolean fits(long bytes) {
+    return budget <= 0 || used == 0 || used + bytes <= budget;
+  }
+
+  @Override
+  public long getBudgetBytes() {
+    return Math.max(budget, 0);
+  }
+
+  @Override
+  public synchronized long getUsedBytes() {
+    return used;
+  }
+
+  @Override
+  public synchronized long getWaits() {
+    return waits;
+  }
+
+  @Override
+  public synchronized long getRejections() {
+    return rejections;
+  }
+
+}
@@ -0,0 +1,43 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+/**
+ * The memory usage of the buffer arena as exposed via JMX.
+ */
+public interface BufferArenaMXBean {
+
+  /**
+   * @return the maximum number of bytes in use, 0 if unlimited
+   */
+  long getBudgetBytes();
+
+  /**
+   * @return the number of bytes reserved by admitted requests and the off-heap tile cache
+   */
+  long getUsedBytes();
+
+  /**
+   * @return the number of times a request had to wait for memory
+   */
+  long getWaits();
+
+  /**
+   * @return the number of requests rejected as no memory became available in time
+   */
+  long getRejections();
+
+}
@@ -0,0 +1,382 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.geotools.api.data.DataSourceException;
+import org.geotools.util.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Pool of read only GDAL dataset handles per raster file. A GDAL dataset handle must only be used by one thread at a
+ * time, but distinct handles on the same file can be read concurrently. Readers borrow a handle for the duration of a
+ * read instead of serializing all reads on a global lock. The handles of a file are dropped when the file changes, so
+ * rewritten maps are never read through handles opened on their previous contents.
+ * <p>
+ * The GDAL GRASS driver is built on libgrass, which is not thread safe. Calls into handles opened by the GRASS driver,
+ * e.g. reading a window, are therefore made by one thread at a time across all files unless
+ * {@link #SERIALIZE_GRASS_PROPERTY} is disabled. Only the calls are serialized, not the whole borrow, so long jobs that
+ * read in chunks let other reads in between. The java engine reads GRASS maps concurrently without this restriction.
+ */
+class DatasetPool {
+
+  private static final Logger LOGGER = Logging.getLogger(DatasetPool.class);
+
+  /**
+   * System property with the maximum number of concurrently open handles per raster file.
+   */
+  static final String POOL_SIZE_PROPERTY = "grass.gdal.pool.size";
+
+  /**
+   * System property with the number of seconds after which an unused handle is closed.
+   */
+  static final String IDLE_TIMEOUT_PROPERTY = "grass.gdal.pool.idleSeconds";
+
+  /**
+   * System property to serialize the calls into the GDAL GRASS driver, as libgrass is not thread safe.
+   */
+  static final String SERIALIZE_GRASS_PROPERTY = "grass.gdal.pool.serializeGrass";
+
+  private static final boolean SERIALIZE_GRASS = Boolean.parseBoolean(
+    System.getProperty(SERIALIZE_GRASS_PROPERTY, "true"));
+
+  /**
+   * The short name of the GDAL driver built on libgrass.
+   */
+  static final String GRASS_DRIVER = "GRASS";
+
+  /**
+   * Held during each call into the GRASS driver.
+   */
+  private static final ReentrantLock GRASS_LOCK = new ReentrantLock(true);
+
+  private static final Call UNSERIALIZED = new Call(null);
+
+  private static final DatasetPool INSTANCE = new DatasetPool(
+    Integer.getInteger(POOL_SIZE_PROPERTY, Runtime.getRuntime().availableProcessors() * 2),
+    Long.getLong(IDLE_TIMEOUT_PROPERTY, 60L)
+  );
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final int poolSize;
+
+  private final long idleTimeoutMillis;
+
+  DatasetPool(int poolSize, long idleTimeoutSeconds) {
+    this.poolSize = Math.max(poolSize, 1);
+    this.idleTimeoutMillis = TimeUnit.SECONDS.toMillis(Math.max(idleTimeoutSeconds, 1));
+    ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "grass-gdal-dataset-evictor");
+      thread.setDaemon(true);
+      return thread;
+    });
+    long period = Math.max(idleTimeoutMillis / 2, 1000);
+    evictor.scheduleWithFixedDelay(this::evictIdle, period, period, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return the JVM wide pool shared by all readers
+   */
+  static DatasetPool getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Borrow a dataset handle for the given file. Blocks if all handles of the file are in use. The handle must be
+   * returned by closing the returned object, preferably using try-with-resources.
+   *
+   * @param file the raster file
+   * @return the borrowed handle
+   * @throws IOException if the file cannot be opened or the thread was interrupted while waiting
+   */
+  PooledDataset borrow(File file) throws IOException {
+    return borrow(file, null);
+  }
+
+  /**
+   * Borrow a dataset handle for the given file and record the time spent waiting for and opening it.
+   *
+   * @param file    the raster file
+   * @param metrics the metrics to record to, may be null
+   * @return the borrowed handle
+   * @throws IOException if the file cannot be opened or the thread was interrupted while waiting
+   */
+  PooledDataset borrow(File file, ReadMetrics metrics) throws IOException {
+    String path = file.getAbsolutePath();
+    long version = GrassFiles.lastModified(file);
+    long start = System.nanoTime();
+    Entry entry = acquire(path, version);
+    ReadMetrics.record(metrics, ReadMetrics.Stage.POOL_WAIT, start);
+    Handle handle = entry.idle.pollFirst();
+    if (handle != null) {
+      return new PooledDataset(entry, handle.dataset, metrics);
+    }
+    Dataset dataset;
+    // the driver is only known once the file is opened, and probing the drivers may call into libgrass
+    try (Call call = entry.driver == null ? callGrass(metrics) : entry.call(metrics)) {
+      start = System.nanoTime();
+      dataset = gdal.Open(path, gdalconstConstants.GA_ReadOnly);
+    } catch (RuntimeException e) {
+      entry.permits.release();
+      throw new DataSourceException("Unable to open " + path, e);
+    }
+    ReadMetrics.record(metrics, ReadMetrics.Stage.OPEN, start);
+    if (dataset == null) {
+      entry.permits.release();
+      throw new DataSourceException("Unable to open " + path + ": " + gdal.GetLastErrorMsg());
+    }
+    entry.driver = dataset.GetDriver().getShortName();
+    return new PooledDataset(entry, dataset, metrics);
+  }
+
+  /**
+   * Enter a call that may end up in the GRASS driver without a handle, e.g. identifying the driver of a file. The
+   * call must be left by closing the returned object, preferably using try-with-resources.
+   *
+   * @param metrics the metrics to record the time spent waiting to the pool wait of, may be null
+   * @return the entered call
+   */
+  static Call callGrass(ReadMetrics metrics) {
+    if (!SERIALIZE_GRASS) {
+      return UNSERIALIZED;
+    }
+    long start = System.nanoTime();
+    GRASS_LOCK.lock();
+    ReadMetrics.record(metrics, ReadMetrics.Stage.POOL_WAIT, start);
+    return new Call(GRASS_LOCK);
+  }
+
+  /**
+   * Take a permit of the entry of the current version of a file. Entries of previous versions are retired, their idle
+   * handles are closed and their borrowed handles are closed when they are returned.
+   */
+  private Entry acquire(String path, long version) throws IOException {
+    while (true) {
+      Entry entry = entries.compute(path, (key, current) -> {
+        if (current != null && current.version == version && !current.retired) {
+          return current;
+        }
+        if (current != null) {
+          current.retire();
+        }
+        return new Entry(poolSize, version);
+      });
+      try {
+        entry.permits.acquire();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while waiting for a dataset handle of " + path);
+      }
+      if (!entry.retired) {
+        return entry;
+      }
+      // the entry was retired while waiting
+      entry.permits.release();
+    }
+  }
+
+  private void evictIdle() {
+    long threshold = System.currentTimeMillis() - idleTimeoutMillis;
+    try {
+      for (Map.Entry<String, Entry> mapping : entries.entrySet()) {
+        Entry entry = mapping.getValue();
+        Iterator<Handle> iterator = entry.idle.descendingIterator();
+        while (iterator.hasNext()) {
+          Handle handle = iterator.next();
+          // only the thread that actually removes the handle may close it
+          if (handle.lastUsed < threshold && entry.idle.remove(handle)) {
+            entry.delete(handle.dataset);
+          }
+        }
+        // drop entries of files that are no longer read
+        entries.computeIfPresent(mapping.getKey(), (key, current) -> {
+          if (current == entry && entry.idle.isEmpty() && entry.permits.availablePermits() == poolSize) {
+            entry.retire();
+            return null;
+          }
+          return current;
+        });
+      }
+    } catch (RuntimeException e) {
+      LOGGER.log(Level.WARNING, "Unable to evict idle GDAL datasets: " + e.getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+    }
+  }
+
+  /**
+   * @return the number of files with pooled handles
+   */
+  int size() {
+    return entries.size();
+  }
+
+  private static class Entry {
+
+    private final Semaphore permits;
+
+    private final long version;
+
+    private final ConcurrentLinkedDeque<Handle> idle = new ConcurrentLinkedDeque<>();
+
+    private volatile boolean retired;
+
+    /**
+     * The short name of the driver that opened the handles of the entry, null until the first one is opened.
+     */
+    private volatile String driver;
+
+    Entry(int poolSize, long version) {
+      permits = new Semaphore(poolSize, true);
+      this.version = version;
+    }
+
+    /**
+     * @return the entered call into the driver of the handles, serialized for the GRASS driver
+     */
+    Call call(ReadMetrics metrics) {
+      return GRASS_DRIVER.equals(driver) ? callGrass(metrics) : UNSERIALIZED;
+    }
+
+    /**
+     * Close a handle of the entry, closing a GRASS map calls into libgrass as well.
+     */
+    void delete(Dataset dataset) {
+      try (Call call = call(null)) {
+        dataset.delete();
+      }
+    }
+
+    /**
+     * Stop handing out handles of this entry and close its idle handles.
+     */
+    void retire() {
+      retired = true;
+      Handle handle;
+      while ((handle = idle.pollFirst()) != null) {
+        delete(handle.dataset);
+      }
+    }
+
+  }
+
+  private static class Handle {
+
+    private final Dataset dataset;
+
+    private final long lastUsed;
+
+    Handle(Dataset dataset) {
+      this.dataset = dataset;
+      this.lastUsed = System.currentTimeMillis();
+    }
+
+  }
+
+  /**
+   * A dataset handle borrowed from the pool. Closing it hands the dataset back to the pool.
+   */
+  static class PooledDataset implements AutoCloseable {
+
+    private final Entry entry;
+
+    private final ReadMetrics metrics;
+
+    private Dataset dataset;
+
+    private PooledDataset(Entry entry, Dataset dataset, ReadMetrics metrics) {
+      this.entry = entry;
+      this.dataset = dataset;
+      this.metrics = metrics;
+    }
+
+    Dataset getDataset() {
+      return dataset;
+    }
+
+    /**
+     * @return the short name of the driver that opened the handle
+     */
+    String getDriver() {
+      return entry.driver;
+    }
+
+    /**
+     * Enter a call into the handle, e.g. reading a window. Calls into handles of the GRASS driver are made by one
+     * thread at a time, so a call should not read more than a bounded chunk. The call must be left by closing the
+     * returned object, preferably using try-with-resources.
+     *
+     * @return the entered call
+     */
+    Call call() {
+      return entry.call(metrics);
+    }
+
+    @Override
+    public void close() {
+      if (dataset == null) {
+        return;
+      }
+      // most recently used handles go first, so the ones at the tail age out
+      entry.idle.offerFirst(new Handle(dataset));
+      if (entry.retired) {
+        // the file changed or the entry was dropped meanwhile, close the handle along with all idle ones
+        entry.retire();
+      }
+      dataset = null;
+      entry.permits.release();
+    }
+
+  }
+
+  /**
+   * A call into GDAL entered with {@link PooledDataset#call()} or {@link #callGrass(ReadMetrics)}. Closing it lets
+   * the next call in.
+   */
+  static final class Call implements AutoCloseable {
+
+    private final ReentrantLock lock;
+
+    private Call(ReentrantLock lock) {
+      this.lock = lock;
+    }
+
+    @Override
+    public void close() {
+      if (lock != null) {
+        lock.unlock();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.Driver;
+import org.gdal.gdal.gdal;
+import org.geotools.util.logging.Logging;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Decides cheaply whether the datastore can read a file. GRASS cellhd files and sqlite dbs are recognized by their
+ * location and first bytes, other files are identified with GDAL without opening them. Verdicts are cached by path
+ * and modification time, as GeoServer asks every format about every file it probes.
+ */
+final class FileProbe {
+
+  private static final Logger LOGGER = Logging.getLogger(FileProbe.class);
+
+  private static final int MAX_ENTRIES = 10000;
+
+  private static final byte[] SQLITE_MAGIC = "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII);
+
+  /**
+   * The cellhd keys every GRASS raster header has.
+   */
+  private static final Set<String> CELLHD_KEYS = new HashSet<>(Arrays.asList("north", "south", "east", "west", "rows",
+    "cols"));
+
+  private static final int CELLHD_MAX_BYTES = 4096;
+
+  private static final Map<String, Verdict> VERDICTS = new LinkedHashMap<String, Verdict>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Verdict> eldest) {
+      return size() > MAX_ENTRIES;
+    }
+  };
+
+  private FileProbe() {
+  }
+
+  /**
+   * @param file the file to check
+   * @return true, if the file is a GRASS raster or a sqlite db
+   */
+  static boolean accepts(File file) {
+    String path = file.getAbsolutePath();
+    long version = GrassFiles.lastModified(file);
+    synchronized (VERDICTS) {
+      Verdict verdict = VERDICTS.get(path);
+      if (verdict != null && verdict.version == version) {
+        return verdict.accepted;
+      }
+    }
+    boolean accepted = probe(file);
+    synchronized (VERDICTS) {
+      VERDICTS.put(path, new Verdict(version, accepted));
+    }
+    return accepted;
+  }
+
+  private static boolean probe(File file) {
+    if (!file.isFile()) {
+      return false;
+    }
+    try {
+      if (file.getName().endsWith(".db")) {
+        byte[] magic = readStart(file, SQLITE_MAGIC.length);
+        return Arrays.equals(magic, SQLITE_MAGIC);
+      }
+      if (isGrassRaster(file)) {
+        return true;
+      }
+    } catch (IOException e) {
+      LOGGER.log(Level.FINE, "Unable to read " + file + ", asking GDAL", e);
+    }
+    Driver driver;
+    // GDAL may ask the GRASS driver to open the file
+    try (DatasetPool.Call call = DatasetPool.callGrass(null)) {
+      driver = gdal.IdentifyDriver(file.getAbsolutePath());
+    }
+    return driver != null && DatasetPool.GRASS_DRIVER.equals(driver.getShortName());
+  }
+
+  /**
+   * @return true, if the file is a cellhd file with the header keys of a raster map that has a data file
+   */
+  static boolean isGrassRaster(File file) throws IOException {
+    if (!GrassFiles.isCellhd(file)) {
+      return false;
+    }
+    String header = new String(readStart(file, CELLHD_MAX_BYTES), StandardCharsets.US_ASCII);
+    Set<String> keys = new HashSet<>();
+    for (String line : header.split("\n")) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        keys.add(line.substring(0, colon).trim());
+      }
+    }
+    if (!keys.containsAll(CELLHD_KEYS)) {
+      return false;
+    }
+    return GrassFiles.element(file, "cell").isFile() || GrassFiles.element(file, "fcell").isFile();
+  }
+
+  private static byte[] readStart(File file, int length) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return in.readNBytes(length);
+    }
+  }
+
+  private static final class Verdict {
+
+    private final long version;
+
+    private final boolean accepted;
+
+    Verdict(long version, boolean accepted) {
+      this.version = version;
+      this.accepted = accepted;
+    }
+
+  }
+
+}
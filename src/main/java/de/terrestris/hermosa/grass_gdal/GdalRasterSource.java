@@ -0,0 +1,168 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.geotools.api.data.DataSourceException;
+import org.geotools.util.logging.Logging;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.util.logging.Logger;
+
+/**
+ * A raster read with GDAL through the {@link DatasetPool}. Only GRASS rasters are accepted, except for the pyramids
+ * the datastore builds itself.
+ */
+final class GdalRasterSource implements RasterSource {
+
+  private static final Logger LOGGER = Logging.getLogger(GdalRasterSource.class);
+
+  private final File file;
+
+  private final boolean anyDriver;
+
+  /**
+   * @param file      the raster file, e.g. the cellhd file of a GRASS map
+   * @param anyDriver true to accept the raster regardless of its driver, only for files written by the datastore
+   */
+  GdalRasterSource(File file, boolean anyDriver) {
+    this.file = file;
+    this.anyDriver = anyDriver;
+  }
+
+  /**
+   * @return whether reads with GDAL are resampled to the buffer size
+   */
+  static boolean resamples() {
+    return Resampling.SUPPORTED;
+  }
+
+  @Override
+  public String getId() {
+    return file.getAbsolutePath();
+  }
+
+  @Override
+  public long getVersion() {
+    return GrassFiles.lastModified(file);
+  }
+
+  @Override
+  public RasterHeader readHeader() throws IOException {
+    RasterHeader header;
+    try (DatasetPool.PooledDataset pooled = DatasetPool.getInstance().borrow(file);
+         DatasetPool.Call call = pooled.call()) {
+      header = RasterHeader.read(pooled.getDataset());
+    }
+    if (!accepts(header)) {
+      throw new DataSourceException("Rasters of the GDAL driver " + header.getDriver() + " are not accepted: " + file);
+    }
+    return header;
+  }
+
+  /**
+   * @return true, if rasters of the driver of the header may be read
+   */
+  boolean accepts(RasterHeader header) {
+    return anyDriver || DatasetPool.GRASS_DRIVER.equals(header.getDriver());
+  }
+
+  @Override
+  public boolean read(int level, int[] window, int bufWidth, int bufHeight, int[] bands, DataBuffer buffer,
+                      int lineStride, int bandStride, ReadMetrics metrics) throws IOException {
+    int result = 0;
+    try (DatasetPool.PooledDataset pooled = DatasetPool.getInstance().borrow(file, metrics)) {
+      Dataset dataset = pooled.getDataset();
+      if (level == 0) {
+        int[] bandList = new int[bands.length];
+        for (int i = 0; i < bands.length; ++i) {
+          bandList[i] = bands[i] + 1;
+        }
+        try (DatasetPool.Call call = pooled.call()) {
+          result = BandTransfer.readBands(dataset, window, bufWidth, bufHeight,
+            dataset.GetRasterBand(bandList[0]).getDataType(), buffer, bandList, lineStride, bandStride);
+        }
+      } else {
+        // overviews are only accessible per band
+        for (int i = 0; i < bands.length && result == 0; ++i) {
+          try (DatasetPool.Call call = pooled.call()) {
+            Band overview = dataset.GetRasterBand(bands[i] + 1).GetOverview(level - 1);
+            result = BandTransfer.read(overview, window, bufWidth, bufHeight, buffer, i * bandStride, lineStride);
+          }
+        }
+      }
+    }
+    if (result != 0) {
+      LOGGER.warning("Unable to read tile of " + file + ": " + gdal.GetLastErrorMsg());
+    }
+    return result == 0;
+  }
+
+  @Override
+  public NullIndex buildNullIndex() throws IOException {
+    try (DatasetPool.PooledDataset pooled = DatasetPool.getInstance().borrow(file)) {
+      Dataset dataset = pooled.getDataset();
+      Band mask;
+      try (DatasetPool.Call call = pooled.call()) {
+        Band band = dataset.GetRasterBand(1);
+        int flags = band.GetMaskFlags();
+        if ((flags & gdalconstConstants.GMF_ALL_VALID) != 0
+          || (dataset.getRasterCount() > 1 && (flags & gdalconstConstants.GMF_PER_DATASET) == 0)) {
+          return null;
+        }
+        mask = band.GetMaskBand();
+      }
+      int width = dataset.getRasterXSize();
+      int height = dataset.getRasterYSize();
+      NullIndex.Builder builder = NullIndex.builder(width, height);
+      // read one row of index cells at a time, letting other reads of GRASS maps in between
+      byte[] rows = new byte[width * NullIndex.CELL_SIZE];
+      for (int y = 0; y < height; y += NullIndex.CELL_SIZE) {
+        int count = Math.min(NullIndex.CELL_SIZE, height - y);
+        int result;
+        try (DatasetPool.Call call = pooled.call()) {
+          result = mask.ReadRaster(0, y, width, count, width, count, gdalconstConstants.GDT_Byte, rows);
+        }
+        if (result != 0) {
+          throw new DataSourceException("Unable to read the mask of " + file + ": " + gdal.GetLastErrorMsg());
+        }
+        builder.addRows(y, count, rows);
+      }
+      return builder.build();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return file.toString();
+  }
+
+  /**
+   * Whether GDAL resamples reads to the buffer size, older versions only read at full resolution. Only queried once
+   * the first raster is read with GDAL.
+   */
+  private static final class Resampling {
+
+    static final boolean SUPPORTED = gdal.VersionInfo().compareTo("3050000") >= 0;
+
+  }
+
+}
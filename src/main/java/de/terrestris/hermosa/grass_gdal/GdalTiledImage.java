@@ -0,0 +1,379 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.coverage.grid.io.OverviewPolicy;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RasterFactory;
+import javax.media.jai.SourcelessOpImage;
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+
+/**
+ * A tiled image that reads its tiles from a raster source only when they are requested. The image covers a window of
+ * the source raster, resampled to the image size. Downsampled tiles are read from the overview level chosen by the
+ * overview policy. The tiles hold the bands one after the other in a single bank, so all requested bands of a tile
+ * are read with one call. Tiles are shared across images through the {@link RasterWindowCache}, identical tiles read
+ * at the same time are read once through {@link InFlightReads}, tiles in null regions of the {@link NullIndex} are
+ * filled with the nodata value without reading them.
+ */
+class GdalTiledImage extends SourcelessOpImage {
+
+  /**
+   * Tolerance when comparing decimation factors, as the overview sizes are rounded.
+   */
+  private static final double LEVEL_TOLERANCE = 1.01;
+
+  private final RasterSource source;
+
+  private final RasterHeader header;
+
+  private final int[] window;
+
+  private final int[] bands;
+
+  private final OverviewPolicy overviewPolicy;
+
+  private final long version;
+
+  private final ReadMetrics metrics;
+
+  private Cleaner.Cleanable reservation;
+
+  /**
+   * Create a new lazily read image.
+   *
+   * @param source         the raster source
+   * @param header         the header of the raster
+   * @param window         the source window as x, y, width and height
+   * @param size           the width and height of the image
+   * @param bands          the zero based indices of the raster bands to read
+   * @param dataBufferType the DataBuffer type of the image
+   * @param tileSize       the tile width and height
+   * @param overviewPolicy the policy to select overview levels with
+   * @param version        the version of the raster, used to tie cached tiles to the raster version
+   * @param metrics        the metrics to record the reads of the tiles to, may be null
+   */
+  GdalTiledImage(RasterSource source, RasterHeader header, int[] window, int[] size, int[] bands, int dataBufferType,
+                 int[] tileSize, OverviewPolicy overviewPolicy, long version, ReadMetrics metrics) {
+    this(source, header, window, size, bands, createSampleModel(dataBufferType,
+      Math.min(tileSize[0], size[0]), Math.min(tileSize[1], size[1]), bands.length), overviewPolicy, version,
+      metrics);
+  }
+
+  private GdalTiledImage(RasterSource source, RasterHeader header, int[] window, int[] size, int[] bands,
+                         SampleModel sampleModel, OverviewPolicy overviewPolicy, long version, ReadMetrics metrics) {
+    super(createLayout(sampleModel), null, sampleModel, 0, 0, size[0], size[1]);
+    this.source = source;
+    this.header = header;
+    this.window = window;
+    this.bands = bands.clone();
+    this.overviewPolicy = overviewPolicy;
+    this.version = version;
+    this.metrics = metrics;
+  }
+
+  /**
+   * @param dataBufferType the DataBuffer type
+   * @param width          the tile width
+   * @param height         the tile height
+   * @param numBands       the number of bands
+   * @return a single bank sample model holding the bands one after the other
+   */
+  static SampleModel createSampleModel(int dataBufferType, int width, int height, int numBands) {
+    int[] bandOffsets = new int[numBands];
+    for (int i = 0; i < numBands; ++i) {
+      bandOffsets[i] = i * width * height;
+    }
+    return new ComponentSampleModel(dataBufferType, width, height, 1, width, bandOffsets);
+  }
+
+  private static ImageLayout createLayout(SampleModel sampleModel) {
+    ColorModel colorModel = PlanarImage.createColorModel(sampleModel);
+    if (colorModel == null) {
+      colorModel = new ComponentColorModel(new GenericColorSpace(sampleModel.getNumBands()), false, false,
+        Transparency.OPAQUE, sampleModel.getDataType());
+    }
+    return new ImageLayout()
+      .setTileWidth(sampleModel.getWidth())
+      .setTileHeight(sampleModel.getHeight())
+      .setTileGridXOffset(0)
+      .setTileGridYOffset(0)
+      .setSampleModel(sampleModel)
+      .setColorModel(colorModel);
+  }
+
+  /**
+   * Calculate the source window that corresponds to a rectangle of this image.
+   *
+   * @param rect the rectangle in image coordinates
+   * @return the source window as x, y, width and height, clipped to the source raster
+   */
+  int[] sourceWindow(Rectangle rect) {
+    double scaleX = window[2] / (double) getWidth();
+    double scaleY = window[3] / (double) getHeight();
+    int x0 = Math.min(window[0] + (int) Math.round(rect.x * scaleX), header.getWidth() - 1);
+    int y0 = Math.min(window[1] + (int) Math.round(rect.y * scaleY), header.getHeight() - 1);
+    int x1 = Math.min(window[0] + (int) Math.round((rect.x + rect.width) * scaleX), header.getWidth());
+    int y1 = Math.min(window[1] + (int) Math.round((rect.y + rect.height) * scaleY), header.getHeight());
+    return new int[]{x0, y0, Math.max(x1 - x0, 1), Math.max(y1 - y0, 1)};
+  }
+
+  @Override
+  protected void computeRect(Raster[] sources, WritableRaster dest, Rectangle destRect) {
+    // tiles are anchored at the image origin, so the rectangle always starts at the origin of the tile
+    ComponentSampleModel sampleModel = (ComponentSampleModel) dest.getSampleModel();
+    int lineStride = sampleModel.getScanlineStride();
+    int[] bandOffsets = sampleModel.getBandOffsets();
+    DataBuffer buffer = dest.getDataBuffer();
+    int[] sourceWindow = sourceWindow(destRect);
+    if (header.getNoData() != null) {
+      NullIndex nullIndex = NullIndexCache.getInstance().get(source, version);
+      if (nullIndex != null && nullIndex.isNull(sourceWindow)) {
+        fill(buffer, header.getNoData(), destRect.width, destRect.height, lineStride, bandOffsets);
+        return;
+      }
+    }
+    // the level depends on the overview policy, so windows read from different levels are cached apart
+    int[] levelWindow = sourceWindow.clone();
+    int level = selectOverview(levelWindow, destRect.width, destRect.height);
+    RasterWindowCache cache = RasterWindowCache.getInstance();
+    RasterWindowCache.Key[] keys = new RasterWindowCache.Key[bands.length];
+    boolean cached = cache.isEnabled();
+    for (int i = 0; i < bands.length; ++i) {
+      keys[i] = new RasterWindowCache.Key(source.getId(), version, level, sourceWindow, destRect.width,
+        destRect.height, bands[i]);
+      cached = cached && cache.get(keys[i], buffer, bandOffsets[i], lineStride);
+    }
+    if (metrics != null && cache.isEnabled()) {
+      metrics.recordCache(cached);
+    }
+    if (cached) {
+      return;
+    }
+    int bandStride = sampleModel.getWidth() * sampleModel.getHeight();
+    InFlightReads.Key readKey = new InFlightReads.Key(source.getId(), version, level, levelWindow, destRect.width,
+      destRect.height, bands);
+    long bytes = (long) destRect.width * destRect.height * bands.length
+      * BandTransfer.bytesPerSample(buffer.getDataType());
+    try {
+      long start = System.nanoTime();
+      boolean read = InFlightReads.getInstance().read(readKey, buffer, lineStride, bandStride,
+        () -> source.read(level, levelWindow, destRect.width, destRect.height, bands, buffer, lineStride, bandStride,
+          metrics),
+        metrics);
+      ReadMetrics.record(metrics, ReadMetrics.Stage.READ, start);
+      if (metrics != null) {
+        metrics.recordBytes(bytes);
+      }
+      if (read && cache.isEnabled()) {
+        for (int i = 0; i < bands.length; ++i) {
+          cache.put(keys[i], buffer, bandOffsets[i], lineStride);
+        }
+      }
+    } catch (IOException e) {
+      throw new IllegalStateException("Unable to read tile of " + source, e);
+    }
+  }
+
+  private static void fill(DataBuffer buffer, double value, int width, int height, int lineStride, int[] bandOffsets) {
+    for (int offset : bandOffsets) {
+      for (int y = 0; y < height; ++y) {
+        for (int x = 0; x < width; ++x) {
+          buffer.setElemDouble(offset + y * lineStride + x, value);
+        }
+      }
+    }
+  }
+
+  /**
+   * Read all tiles of the image into the {@link RasterWindowCache}, without keeping them in the image.
+   */
+  void prefetch() {
+    for (int tileY = getMinTileY(); tileY <= getMaxTileY(); ++tileY) {
+      for (int tileX = getMinTileX(); tileX <= getMaxTileX(); ++tileX) {
+        readTile(tileX, tileY);
+      }
+    }
+  }
+
+  /**
+   * Read a tile without keeping it in the image or the JAI tile cache.
+   *
+   * @param tileX the tile column
+   * @param tileY the tile row
+   * @return the tile
+   */
+  Raster readTile(int tileX, int tileY) {
+    Rectangle rect = getTileRect(tileX, tileY);
+    WritableRaster raster = RasterFactory.createWritableRaster(getSampleModel(),
+      new Point(tileXToX(tileX), tileYToY(tileY)));
+    computeRect((Raster[]) null, raster, rect);
+    return raster;
+  }
+
+  /**
+   * @return the nodata value of the raster, null if it has none
+   */
+  Double getNoData() {
+    return header.getNoData();
+  }
+
+  /**
+   * @return the number of bytes of all tiles of the image
+   */
+  long getByteSize() {
+    return (long) getNumXTiles() * getNumYTiles() * getTileWidth() * getTileHeight() * bands.length
+      * BandTransfer.bytesPerSample(getSampleModel().getDataType());
+  }
+
+  /**
+   * Reserve the memory of all tiles in the {@link BufferArena} until the image is disposed, so the request is rejected
+   * while the error still reaches the caller instead of the tiles waiting for memory once they are computed.
+   *
+   * @throws IOException if no memory became available in time
+   */
+  void admit() throws IOException {
+    reservation = BufferArena.getInstance().admit(this, getByteSize());
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (reservation != null) {
+      reservation.clean();
+    }
+    super.dispose();
+  }
+
+  /**
+   * Select the resolution level to read a window from.
+   *
+   * @param window    the window in full resolution coordinates, will be converted to the coordinates of the level
+   * @param bufWidth  the width the window will be resampled to
+   * @param bufHeight the height the window will be resampled to
+   * @return the level, 0 for full resolution, else the overview index plus one
+   */
+  private int selectOverview(int[] window, int bufWidth, int bufHeight) {
+    int[][] sizes = overviewPolicy == OverviewPolicy.IGNORE ? new int[0][] : header.getOverviewSizes();
+    if (sizes.length == 0) {
+      return 0;
+    }
+    double[] factors = new double[sizes.length + 1];
+    factors[0] = 1;
+    for (int i = 0; i < sizes.length; ++i) {
+      factors[i + 1] = header.getWidth() / (double) sizes[i][0];
+    }
+    double requested = Math.min(window[2] / (double) bufWidth, window[3] / (double) bufHeight);
+    int result = selectLevel(factors, requested, overviewPolicy);
+    if (result == 0) {
+      return 0;
+    }
+    int[] level = sizes[result - 1];
+    double scaleX = level[0] / (double) header.getWidth();
+    double scaleY = level[1] / (double) header.getHeight();
+    int x0 = Math.min((int) Math.floor(window[0] * scaleX), level[0] - 1);
+    int y0 = Math.min((int) Math.floor(window[1] * scaleY), level[1] - 1);
+    int x1 = Math.min((int) Math.ceil((window[0] + window[2]) * scaleX), level[0]);
+    int y1 = Math.min((int) Math.ceil((window[1] + window[3]) * scaleY), level[1]);
+    window[0] = x0;
+    window[1] = y0;
+    window[2] = Math.max(x1 - x0, 1);
+    window[3] = Math.max(y1 - y0, 1);
+    return result;
+  }
+
+  /**
+   * Select a resolution level.
+   *
+   * @param factors   the decimation factors of the levels, starting with 1 for full resolution
+   * @param requested the requested decimation factor
+   * @param policy    the overview policy
+   * @return the index of the selected level
+   */
+  static int selectLevel(double[] factors, double requested, OverviewPolicy policy) {
+    if (policy == OverviewPolicy.IGNORE) {
+      return 0;
+    }
+    int result = 0;
+    for (int i = 1; i < factors.length; ++i) {
+      if (policy == OverviewPolicy.NEAREST) {
+        if (Math.abs(factors[i] - requested) < Math.abs(factors[result] - requested)) {
+          result = i;
+        }
+      } else if (policy == OverviewPolicy.SPEED) {
+        // the finest level that is at least as coarse as requested, else the coarsest one
+        boolean fits = factors[i] * LEVEL_TOLERANCE >= requested;
+        boolean resultFits = factors[result] * LEVEL_TOLERANCE >= requested;
+        if (fits ? !resultFits || factors[i] < factors[result] : !resultFits && factors[i] > factors[result]) {
+          result = i;
+        }
+      } else if (factors[i] > factors[result] && factors[i] <= requested * LEVEL_TOLERANCE) {
+        // the coarsest level that is not coarser than requested
+        result = i;
+      }
+    }
+    return result;
+  }
+
+  /**
+   * Minimal color space for images with more bands than the standard color spaces support.
+   */
+  private static class GenericColorSpace extends ColorSpace {
+
+    GenericColorSpace(int numComponents) {
+      super(numComponents > 15 ? ColorSpace.TYPE_FCLR : ColorSpace.TYPE_2CLR + numComponents - 2, numComponents);
+    }
+
+    @Override
+    public float[] toRGB(float[] colorvalue) {
+      return new float[]{colorvalue[0], colorvalue[0], colorvalue[0]};
+    }
+
+    @Override
+    public float[] fromRGB(float[] rgbvalue) {
+      float[] result = new float[getNumComponents()];
+      result[0] = (rgbvalue[0] + rgbvalue[1] + rgbvalue[2]) / 3;
+      return result;
+    }
+
+    @Override
+    public float[] toCIEXYZ(float[] colorvalue) {
+      return ColorSpace.getInstance(ColorSpace.CS_GRAY).toCIEXYZ(new float[]{colorvalue[0]});
+    }
+
+    @Override
+    public float[] fromCIEXYZ(float[] colorvalue) {
+      float[] result = new float[getNumComponents()];
+      result[0] = ColorSpace.getInstance(ColorSpace.CS_GRAY).fromCIEXYZ(colorvalue)[0];
+      return result;
+    }
+
+  }
+
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import io.airlift.compress.MalformedInputException;
+import io.airlift.compress.lz4.Lz4Decompressor;
+import io.airlift.compress.zstd.ZstdDecompressor;
+
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The row compressors of GRASS raster maps, identified by the {@code compressed} value of the cellhd file. BZIP2
+ * compressed maps are not supported and left to GDAL.
+ */
+final class GrassCompression {
+
+  static final int NONE = 0;
+
+  static final int RLE = 1;
+
+  static final int ZLIB = 2;
+
+  static final int LZ4 = 3;
+
+  static final int BZIP2 = 4;
+
+  static final int ZSTD = 5;
+
+  private static final ThreadLocal<ZstdDecompressor> ZSTD_DECOMPRESSOR = ThreadLocal.withInitial(ZstdDecompressor::new);
+
+  private GrassCompression() {
+  }
+
+  /**
+   * @param compressor the compressor of a map
+   * @return true, if rows compressed with it can be expanded
+   */
+  static boolean isSupported(int compressor) {
+    return compressor >= NONE && compressor <= ZSTD && compressor != BZIP2;
+  }
+
+  /**
+   * Expand a compressed row.
+   *
+   * @param compressor the compressor, RLE is expanded with {@link #expandRle} as it needs the value size
+   * @param source     the compressed bytes
+   * @param offset     the offset of the first compressed byte
+   * @param length     the number of compressed bytes
+   * @param target     the array to expand into
+   * @param size       the expected number of expanded bytes
+   * @throws IOException if the row could not be expanded to the expected size
+   */
+  static void expand(int compressor, byte[] source, int offset, int length, byte[] target, int size)
+    throws IOException {
+    int expanded;
+    try {
+      switch (compressor) {
+        case ZLIB:
+          expanded = inflate(source, offset, length, target, size);
+          break;
+        case LZ4:
+          expanded = new Lz4Decompressor().decompress(source, offset, length, target, 0, size);
+          break;
+        case ZSTD:
+          expanded = ZSTD_DECOMPRESSOR.get().decompress(source, offset, length, target, 0, size);
+          break;
+        default:
+          throw new IOException("Unsupported GRASS compressor " + compressor);
+      }
+    } catch (MalformedInputException e) {
+      throw new IOException("Corrupt compressed row", e);
+    }
+    if (expanded != size) {
+      throw new IOException("Expected " + size + " bytes in compressed row, got " + expanded);
+    }
+  }
+
+  /**
+   * Expand a run length encoded row of integer values, stored as pairs of a repeat count and a value.
+   *
+   * @param source the compressed bytes
+   * @param offset the offset of the first compressed byte
+   * @param length the number of compressed bytes
+   * @param target the array to expand into
+   * @param nbytes the number of bytes per value
+   * @param size   the expected number of expanded bytes
+   * @throws IOException if the row does not expand to the expected size
+   */
+  static void expandRle(byte[] source, int offset, int length, byte[] target, int nbytes, int size)
+    throws IOException {
+    int position = 0;
+    for (int i = offset; i + nbytes < offset + length && position < size; i += nbytes + 1) {
+      int repeat = source[i] & 0xff;
+      for (int j = 0; j < repeat && position + nbytes <= size; ++j) {
+        System.arraycopy(source, i + 1, target, position, nbytes);
+        position += nbytes;
+      }
+    }
+    if (position != size) {
+      throw new IOException("Expected " + size + " bytes in run length encoded row, got " + position);
+    }
+  }
+
+  private static int inflate(byte[] source, int offset, int length, byte[] target, int size) throws IOException {
+    Inflater inflater = new Inflater();
+    try {
+      inflater.setInput(source, offset, length);
+      return inflater.inflate(target, 0, size);
+    } catch (DataFormatException e) {
+      throw new IOException("Corrupt zlib compressed row", e);
+    } finally {
+      inflater.end();
+    }
+  }
+
+}
@@ -0,0 +1,78 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.io.File;
+
+/**
+ * Helpers for the file layout of GRASS raster maps (mapset/cellhd/name, mapset/cell/name, mapset/fcell/name and
+ * mapset/cell_misc/name/...).
+ */
+final class GrassFiles {
+
+  private static final String[] DATA_ELEMENTS = new String[]{"cell", "fcell"};
+
+  private GrassFiles() {
+  }
+
+  /**
+   * @param file a raster file
+   * @return true, if the file is located in a GRASS cellhd directory
+   */
+  static boolean isCellhd(File file) {
+    File parent = file.getAbsoluteFile().getParentFile();
+    return parent != null && parent.getName().equals("cellhd") && parent.getParentFile() != null;
+  }
+
+  /**
+   * Determine the modification time of a raster map. For GRASS maps this is the latest modification of the header,
+   * the data files and the null file, for other files the modification time of the file itself.
+   *
+   * @param file the raster file, usually the cellhd file of a GRASS map
+   * @return the latest modification time in milliseconds, 0 if the file does not exist
+   */
+  static long lastModified(File file) {
+    long result = file.lastModified();
+    if (!isCellhd(file)) {
+      return result;
+    }
+    for (String element : DATA_ELEMENTS) {
+      result = Math.max(result, element(file, element).lastModified());
+    }
+    result = Math.max(result, miscFile(file, "nullcmpr").lastModified());
+    return Math.max(result, miscFile(file, "null").lastModified());
+  }
+
+  /**
+   * @param cellhd  the cellhd file of a GRASS map
+   * @param element the mapset element, e.g. cell or fcell
+   * @return the file of the map in the given element
+   */
+  static File element(File cellhd, String element) {
+    File mapset = cellhd.getAbsoluteFile().getParentFile().getParentFile();
+    return new File(new File(mapset, element), cellhd.getName());
+  }
+
+  /**
+   * @param cellhd the cellhd file of a GRASS map
+   * @param name   the name of the support file
+   * @return the support file in the cell_misc directory of the map
+   */
+  static File miscFile(File cellhd, String name) {
+    return new File(element(cellhd, "cell_misc"), name);
+  }
+
+}
@@ -15,15 +15,14 @@
  */
 package de.terrestris.hermosa.grass_gdal;
 
-import org.gdal.gdal.Dataset;
-import org.gdal.gdal.gdal;
-import org.gdal.gdalconst.gdalconstConstants;
 import org.geotools.api.coverage.grid.GridCoverageWriter;
 import org.geotools.api.data.DataSourceException;
+import org.geotools.api.parameter.ParameterDescriptor;
 import org.geotools.api.referencing.FactoryException;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
 import org.geotools.coverage.grid.io.AbstractGridFormat;
 import org.geotools.coverage.grid.io.imageio.GeoToolsWriteParams;
+import org.geotools.parameter.DefaultParameterDescriptor;
 import org.geotools.parameter.DefaultParameterDescriptorGroup;
 import org.geotools.parameter.ParameterGroup;
 import org.geotools.util.factory.Hints;
@@ -31,6 +30,7 @@ import org.geotools.util.logging.Logging;
 
 import java.io.File;
 import java.util.HashMap;
+import java.util.List;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -41,6 +41,34 @@ public class GrassGdalFormat extends AbstractGridFormat {
 
   private static final Logger LOGGER = Logging.getLogger(GrassGdalFormat.class);
 
+  /**
+   * Read parameter to aggregate all maps of a requested TIME range per pixel instead of reading a single map. One of
+   * none, mean, min, max, sum or count.
+   */
+  public static final ParameterDescriptor<String> TIME_AGGREGATION = new DefaultParameterDescriptor<>(
+    "TIME_AGGREGATION", String.class, new String[]{"none", "mean", "min", "max", "sum", "count"}, "none");
+
+  /**
+   * Read parameter with the minimum size of the GDAL block cache in megabytes. The cache is shared by all stores, so
+   * the largest size configured by any layer is used.
+   */
+  public static final ParameterDescriptor<Integer> GDAL_CACHEMAX = new DefaultParameterDescriptor<>(
+    "GDAL_CACHEMAX", Integer.class, null, null);
+
+  /**
+   * Custom dimension selecting the maps of a STRDS by their semantic label, e.g. S2_4. Only the first value is used.
+   */
+  @SuppressWarnings("rawtypes")
+  public static final ParameterDescriptor<List> SEMANTIC_LABEL = new DefaultParameterDescriptor<>(
+    "SEMANTIC_LABEL", List.class, null, null);
+
+  /**
+   * Custom dimension selecting the bands of a multi band raster by their one based number.
+   */
+  @SuppressWarnings("rawtypes")
+  public static final ParameterDescriptor<List> BAND = new DefaultParameterDescriptor<>(
+    "BAND", List.class, null, null);
+
   GrassGdalFormat() {
     mInfo = new HashMap<>();
     mInfo.put("name", "GRASS GDAL");
@@ -49,7 +77,8 @@ public class GrassGdalFormat extends AbstractGridFormat {
     mInfo.put("version", "0.0.2");
 
     // reading parameters
-    readParameters = new ParameterGroup(new DefaultParameterDescriptorGroup(mInfo, READ_GRIDGEOMETRY2D, TIME));
+    readParameters = new ParameterGroup(new DefaultParameterDescriptorGroup(mInfo, READ_GRIDGEOMETRY2D, TIME,
+      SUGGESTED_TILE_SIZE, OVERVIEW_POLICY, BANDS, TIME_AGGREGATION, GDAL_CACHEMAX));
   }
 
   @Override
@@ -82,15 +111,7 @@ public class GrassGdalFormat extends AbstractGridFormat {
 
   @Override
   public boolean accepts(Object o, Hints hints) {
-    File file = (File) o;
-    synchronized (this) {
-      Dataset dataset = gdal.OpenShared(file.getAbsolutePath(), gdalconstConstants.GA_ReadOnly);
-      if (dataset == null) {
-        return false;
-      }
-      dataset.delete();
-    }
-    return true;
+    return o instanceof File && FileProbe.accepts((File) o);
   }
 
   @Override
@@ -46,7 +46,7 @@ public class GrassGdalFormatFactory implements GridFormatFactorySpi {
   public boolean isAvailable() {
     // this prevents the datastore to be used with other GDAL drivers, it is unknown if using the other drivers would
     // work (this should be tested at some point!)
-    Driver grass = gdal.GetDriverByName("GRASS");
+    Driver grass = gdal.GetDriverByName(DatasetPool.GRASS_DRIVER);
     LOGGER.info("GRASS driver available: " + (grass != null));
     return grass != null;
   }
@@ -15,16 +15,11 @@
  */
 package de.terrestris.hermosa.grass_gdal;
 
-import lombok.Cleanup;
-import org.apache.commons.lang3.exception.ExceptionUtils;
-import org.gdal.gdal.Band;
-import org.gdal.gdal.Dataset;
 import org.gdal.gdal.gdal;
-import org.gdal.gdalconst.gdalconstConstants;
-import org.gdal.osr.SpatialReference;
 import org.geotools.api.coverage.grid.Format;
 import org.geotools.api.coverage.grid.GridEnvelope;
 import org.geotools.api.data.DataSourceException;
+import org.geotools.api.feature.simple.SimpleFeatureType;
 import org.geotools.api.parameter.GeneralParameterValue;
 import org.geotools.api.parameter.ParameterDescriptor;
 import org.geotools.api.parameter.ParameterValue;
@@ -38,97 +33,89 @@ import org.geotools.coverage.grid.GridCoverage2D;
 import org.geotools.coverage.grid.GridCoverageFactory;
 import org.geotools.coverage.grid.GridGeometry2D;
 import org.geotools.coverage.grid.io.AbstractGridCoverage2DReader;
+import org.geotools.coverage.grid.io.AbstractGridFormat;
+import org.geotools.coverage.grid.io.DefaultDimensionDescriptor;
+import org.geotools.coverage.grid.io.DimensionDescriptor;
+import org.geotools.coverage.grid.io.GranuleSource;
 import org.geotools.coverage.grid.io.GridCoverage2DReader;
+import org.geotools.coverage.grid.io.HarvestedSource;
+import org.geotools.coverage.grid.io.OverviewPolicy;
+import org.geotools.coverage.grid.io.StructuredGridCoverage2DReader;
+import org.geotools.coverage.util.CoverageUtilities;
 import org.geotools.geometry.GeneralBounds;
 import org.geotools.referencing.CRS;
 import org.geotools.util.DateRange;
 import org.geotools.util.factory.Hints;
 import org.geotools.util.logging.Logging;
-import org.sqlite.SQLiteConfig;
+import org.locationtech.jts.geom.Envelope;
 
-import javax.media.jai.RasterFactory;
-import java.awt.image.DataBuffer;
-import java.awt.image.WritableRaster;
+import java.awt.image.RenderedImage;
 import java.io.File;
 import java.io.IOException;
-import java.nio.*;
 import java.sql.*;
 import java.time.Instant;
-import java.time.format.DateTimeFormatter;
 import java.util.Date;
 import java.util.*;
+import java.util.concurrent.locks.ReentrantLock;
 import java.util.logging.Level;
 import java.util.logging.Logger;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
-
-import static de.terrestris.hermosa.grass_gdal.GrassGdalReader.GdalTypes.UInt16;
-import static java.time.ZoneOffset.UTC;
 
 /**
- * Coverage reader class to read coverages from gdal. This is actually GRASS agnostic, but currently supports only
- * rasters with one band and expects the values in little endian byte order.
+ * Coverage reader class to read coverages from gdal. This is actually GRASS agnostic. The band values are transferred
+ * in their native sample type. The maps of time series are exposed as granules, each read on its own grid.
  */
-public class GrassGdalReader extends AbstractGridCoverage2DReader {
+public class GrassGdalReader extends AbstractGridCoverage2DReader implements StructuredGridCoverage2DReader {
 
   private static final Logger LOGGER = Logging.getLogger(GrassGdalReader.class);
 
-  enum GdalTypes {
-    Byte,
-    UInt16,
-    Int16,
-    UInt32,
-    Int32,
-    Float64,
-    Float32
-  }
-
-  private static final Map<Integer, GdalTypes> GDAL_TYPES_MAP = new HashMap<>();
-
-  private static final Map<Integer, Integer> DATABUFFER_TYPES_MAP = new HashMap<>();
-
-  private static final Pattern CMD_REGEXP = Pattern.compile("maps=\"(.[^\"]*)\"");
-
-  static {
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_Byte, GdalTypes.Byte);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_UInt16, UInt16);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_Int16, GdalTypes.Int16);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_UInt32, GdalTypes.UInt32);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_Int32, GdalTypes.Int32);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_Float32, GdalTypes.Float32);
-    GDAL_TYPES_MAP.put(gdalconstConstants.GDT_Float64, GdalTypes.Float64);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_Byte, DataBuffer.TYPE_BYTE);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_UInt16, DataBuffer.TYPE_SHORT);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_Int16, DataBuffer.TYPE_SHORT);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_UInt32, DataBuffer.TYPE_INT);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_Int32, DataBuffer.TYPE_INT);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_Float32, DataBuffer.TYPE_FLOAT);
-    DATABUFFER_TYPES_MAP.put(gdalconstConstants.GDT_Float64, DataBuffer.TYPE_DOUBLE);
-    try {
-      // on some systems, the sqlite driver isn't loaded automatically for some reason
-      Class.forName("org.sqlite.JDBC");
-    } catch (ClassNotFoundException e) {
-      throw new RuntimeException(e);
-    }
-  }
+  /**
+   * System property with the default tile width and height of the returned images.
+   */
+  static final String TILE_SIZE_PROPERTY = "grass.gdal.tileSize";
+
+  /**
+   * System property with the minimum number of milliseconds between two checks of the sqlite db for changes. Changes
+   * are not picked up if negative.
+   */
+  static final String REFRESH_INTERVAL_PROPERTY = "grass.gdal.catalog.refreshMillis";
+
+  private static final long REFRESH_INTERVAL = Long.getLong(REFRESH_INTERVAL_PROPERTY, 5000L);
+
+  /**
+   * System property to disable aligning the source windows of tiled rasters to the block boundaries.
+   */
+  static final String ALIGN_BLOCKS_PROPERTY = "grass.gdal.alignBlocks";
+
+  private static final boolean ALIGN_BLOCKS = Boolean.parseBoolean(System.getProperty(ALIGN_BLOCKS_PROPERTY, "true"));
+
+  private static final int[] DEFAULT_TILE_SIZE = new int[]{
+    Integer.getInteger(TILE_SIZE_PROPERTY, 512),
+    Integer.getInteger(TILE_SIZE_PROPERTY, 512)
+  };
 
   private int width;
 
   private int height;
 
+  private int[] blockSize = new int[]{1, 1};
+
+  private int numBands = 1;
+
   private final File file;
 
   private double resx;
 
   private double resy;
 
-  private int numBands;
+  private double[] geoTransform;
+
+  private volatile StrdsCatalog catalog = StrdsCatalog.empty();
 
-  private final Map<String, List<String>> rasters = new HashMap<>();
+  private volatile long catalogVersion;
 
-  private final Map<String, String> fileNames = new HashMap<>();
+  private volatile long nextCatalogCheck;
 
-  private final Map<String, List<Instant>> times = new HashMap<>();
+  private final ReentrantLock refreshLock = new ReentrantLock();
 
   /**
    * Construct a new GrassGdalReader without hints.
@@ -167,99 +154,108 @@ public class GrassGdalReader extends AbstractGridCoverage2DReader {
   }
 
   private void initializeFromDB() throws DataSourceException {
-    String db = "jdbc:sqlite:" + file.getAbsolutePath();
-    SQLiteConfig sqLiteConfig = new SQLiteConfig();
-    Properties properties = sqLiteConfig.toProperties();
-    properties.setProperty(SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+    nextCatalogCheck = System.currentTimeMillis() + REFRESH_INTERVAL;
+    catalogVersion = databaseVersion();
     try {
-      String datasetSql = "select id, command from strds_metadata";
-      String sql = "select id, name, mapset, temporal_type from raster_base";
-      String absoluteSql = "select start_time, end_time from raster_absolute_time where id = ?";
-      @Cleanup Connection conn = DriverManager.getConnection(db, properties);
-      @Cleanup PreparedStatement stmt = conn.prepareStatement(datasetSql);
-      @Cleanup ResultSet rs = stmt.executeQuery();
-      while (rs.next()) {
-        String id = rs.getString("id");
-        String cmd = rs.getString("command");
-        Matcher matcher = CMD_REGEXP.matcher(cmd);
-        if (matcher.find()) {
-          String[] files = matcher.group(1).split(",");
-          rasters.put(id, Arrays.asList(files));
-        }
-      }
-      rs.close();
-      stmt.close();
-      stmt = conn.prepareStatement(sql);
-      rs = stmt.executeQuery();
-      while (rs.next()) {
-        String name = rs.getString("name");
-        String mapset = rs.getString("mapset");
-        String type = rs.getString("temporal_type");
-        if (!type.equals("absolute")) {
-          continue;
-        }
-        File rasterFile = file.getParentFile().getParentFile().getParentFile();
-        rasterFile = new File(rasterFile, mapset);
-        rasterFile = new File(rasterFile, "cellhd");
-        rasterFile = new File(rasterFile, name);
-        fileNames.put(rs.getString("id"), rasterFile.getAbsolutePath());
-      }
-      rs.close();
-      stmt.close();
-      for (String id : fileNames.keySet()) {
-        stmt = conn.prepareStatement(absoluteSql);
-        stmt.setString(1, id);
-        rs = stmt.executeQuery();
-        if (rs.next()) {
-          Timestamp start = rs.getTimestamp("start_time");
-          Timestamp end = rs.getTimestamp("end_time");
-          Instant startTime = Instant.ofEpochMilli(start.getTime());
-          Instant endTime = Instant.ofEpochMilli(end.getTime());
-          List<Instant> list = new ArrayList<>();
-          list.add(startTime);
-          list.add(endTime);
-          times.put(id, list);
-        }
-        rs.close();
-        stmt.close();
-        initialize(new File((String) fileNames.values().toArray()[0]));
-      }
+      catalog = StrdsCatalog.load(file);
     } catch (SQLException e) {
       LOGGER.log(Level.WARNING, "Unable to open sqlite db: " + e.getMessage());
       LOGGER.log(Level.FINE, "Stack trace:", e);
+      return;
     }
+    // all maps of the time series share the header, so it is read only once
+    String fileName = catalog.getDefaultFileName();
+    if (fileName != null) {
+      initialize(new File(fileName));
+    }
+    PyramidBuilder.getInstance().prepare(catalog.getFileNames().values());
   }
 
-  private void initialize(File file) throws DataSourceException {
-    synchronized (GrassGdalReader.class) {
-      Dataset dataset = gdal.OpenShared(file.getAbsolutePath(), gdalconstConstants.GA_ReadOnly);
-      if (dataset == null || !dataset.GetDriver().getShortName().equals("GRASS")) {
-        throw new DataSourceException("The file is not a valid GRASS raster.");
+  /**
+   * Get the current catalog of the sqlite db. If the db was modified since it was last loaded, a new snapshot is loaded
+   * first. Only one thread loads the snapshot, concurrent reads keep using the previous one.
+   *
+   * @return the current catalog
+   */
+  private StrdsCatalog getCatalog() {
+    if (!file.getName().endsWith(".db") || REFRESH_INTERVAL < 0 || System.currentTimeMillis() < nextCatalogCheck
+      || !refreshLock.tryLock()) {
+      return catalog;
+    }
+    try {
+      nextCatalogCheck = System.currentTimeMillis() + REFRESH_INTERVAL;
+      long version = databaseVersion();
+      if (version == catalogVersion) {
+        return catalog;
+      }
+      StrdsCatalog previous = catalog;
+      StrdsCatalog current = StrdsCatalog.load(file, previous);
+      if (previous.getDefaultFileName() == null && current.getDefaultFileName() != null) {
+        initialize(new File(current.getDefaultFileName()));
       }
+      catalog = current;
+      catalogVersion = version;
+      PyramidBuilder.getInstance().prepare(current.getFileNames().values());
+      LOGGER.fine("Reloaded the time series of " + file + " with " + current.getFileNames().size() + " maps.");
+    } catch (SQLException | DataSourceException e) {
+      LOGGER.log(Level.WARNING, "Unable to refresh the time series of " + file + ": " + e.getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+    } finally {
+      refreshLock.unlock();
+    }
+    return catalog;
+  }
+
+  /**
+   * @return the latest modification time of the sqlite db and its write ahead log
+   */
+  private long databaseVersion() {
+    return Math.max(file.lastModified(), new File(file.getAbsolutePath() + "-wal").lastModified());
+  }
+
+  private void initialize(File file) throws DataSourceException {
+    RasterHeaderCache headers = RasterHeaderCache.getInstance();
+    RasterHeader header;
+    try {
+      header = headers.get(RasterSources.get(file));
+    } catch (IOException e) {
+      throw new DataSourceException("The file is not a valid GRASS raster.", e);
+    }
+    width = header.getWidth();
+    height = header.getHeight();
+    blockSize = header.getBlockSize();
+    numBands = header.getNumBands();
+    CoordinateReferenceSystem headerCrs = headers.getCrs(header);
+    if (headerCrs != null) {
+      crs = headerCrs;
+    }
+    calculateEnvelope(header.getGeoTransform());
+    calculateOverviews(header);
+    PyramidBuilder pyramids = PyramidBuilder.getInstance();
+    if (!pyramids.resolve(file).equals(file)) {
+      RasterSource pyramid = pyramids.source(file);
       try {
-        width = dataset.getRasterXSize();
-        height = dataset.getRasterYSize();
-        String crsWkt;
-        String projRef = dataset.GetProjectionRef();
-        if (projRef != null) {
-          SpatialReference spatialReference = new SpatialReference(projRef);
-          crsWkt = spatialReference.ExportToPrettyWkt();
-          spatialReference.delete();
-          try {
-            crs = CRS.parseWKT(crsWkt);
-          } catch (FactoryException e) {
-            LOGGER.info("CRS WKT could not be parsed, ignoring.");
-            LOGGER.fine(e.getMessage() + ExceptionUtils.getStackTrace(e));
-          }
-        }
-        calculateEnvelope(dataset);
-        numBands = dataset.getRasterCount();
-      } finally {
-        dataset.delete(); // this closes the dataset...
+        calculateOverviews(headers.get(pyramid));
+      } catch (IOException e) {
+        LOGGER.log(Level.WARNING, "Unable to read the overviews of " + pyramid + ": " + e.getMessage());
+        LOGGER.log(Level.FINE, "Stack trace:", e);
       }
     }
   }
 
+  private void calculateOverviews(RasterHeader header) {
+    highestRes = new double[]{Math.abs(resx), Math.abs(resy)};
+    int[][] sizes = header.getOverviewSizes();
+    numOverviews = sizes.length;
+    overViewResolutions = new double[numOverviews][];
+    for (int i = 0; i < numOverviews; ++i) {
+      overViewResolutions[i] = new double[]{
+        highestRes[0] * width / sizes[i][0],
+        highestRes[1] * height / sizes[i][1]
+      };
+    }
+  }
+
   @Override
   public Format getFormat() {
     return new GrassGdalFormat();
@@ -267,186 +263,352 @@ public class GrassGdalReader extends AbstractGridCoverage2DReader {
 
   @Override
   public GridCoverage2D read(String coverageName, GeneralParameterValue[] parameters) throws IllegalArgumentException, IOException {
-    Dataset dataset = null;
-    synchronized (GrassGdalReader.class) {
-      File rasterFile = file;
-      if (file.getName().endsWith(".db")) {
-        rasterFile = new File(fileNames.values().toArray(new String[0])[0]);
+    ReadMetrics metrics = ReadMetrics.forCoverage(file.getAbsolutePath(), coverageName);
+    File rasterFile = file;
+    StrdsCatalog catalog = getCatalog();
+    String label = findSemanticLabel(parameters);
+    if (file.getName().endsWith(".db")) {
+      if (catalog.getDefaultFileName() == null) {
+        throw new DataSourceException("The time series of " + file + " has no maps.");
       }
-      try {
-        int[] imageBounds = new int[]{0, 0, width, height};
-        int[] finalSize = null;
-
-        for (GeneralParameterValue value : parameters) {
-          LOGGER.log(Level.WARNING, value.getDescriptor().getName().getCode());
-          if (value.getDescriptor().getName().getCode().equals("ReadGridGeometry2D")) {
-            GridGeometry2D geometry2D = ((ParameterValue<GridGeometry2D>) value).getValue();
-            finalSize = new int[] {
-              geometry2D.getGridRange().getHigh(0) + 1,
-              geometry2D.getGridRange().getHigh(1) + 1
-            };
-            GeneralBounds bbox = GeneralBounds.toGeneralEnvelope(geometry2D.getEnvelope2D());
-            imageBounds = calculateRequiredPixels(bbox);
+      rasterFile = new File(catalog.getDefaultFileName());
+      TemporalIndex<String> labelIndex = catalog.getTemporalIndex(coverageName, label);
+      if (label != null && labelIndex != null && labelIndex.size() > 0) {
+        rasterFile = new File(labelIndex.values().get(0));
+      }
+    }
+    try {
+      GeneralBounds bbox = null;
+      int[] finalSize = null;
+      int[] tileSize = DEFAULT_TILE_SIZE;
+      OverviewPolicy overviewPolicy = OverviewPolicy.getDefaultPolicy();
+      int[] bands = null;
+      TemporalIndex<String> timeIndex = null;
+      int timePosition = -1;
+      DateRange timeRange = null;
+      TimeAggregateImage.Aggregation aggregation = null;
+
+      for (GeneralParameterValue value : parameters) {
+        LOGGER.log(Level.WARNING, value.getDescriptor().getName().getCode());
+        if (value.getDescriptor().getName().getCode().equals("ReadGridGeometry2D")) {
+          GridGeometry2D geometry2D = ((ParameterValue<GridGeometry2D>) value).getValue();
+          finalSize = new int[] {
+            geometry2D.getGridRange().getHigh(0) + 1,
+            geometry2D.getGridRange().getHigh(1) + 1
+          };
+          bbox = GeneralBounds.toGeneralEnvelope(geometry2D.getEnvelope2D());
+        }
+        if (value.getDescriptor().getName().getCode().equals(AbstractGridFormat.SUGGESTED_TILE_SIZE.getName().getCode())) {
+          tileSize = parseTileSize((String) ((ParameterValue) value).getValue());
+        }
+        if (value.getDescriptor().getName().getCode().equals(AbstractGridFormat.OVERVIEW_POLICY.getName().getCode())) {
+          OverviewPolicy policy = (OverviewPolicy) ((ParameterValue) value).getValue();
+          if (policy != null) {
+            overviewPolicy = policy;
           }
-          if (value.getDescriptor().getName().getCode().equals("TIME")) {
-            List list = (List) ((ParameterValue) value).getValue();
-            Date date;
-            if (list.get(0) instanceof DateRange) {
-              date = ((DateRange) list.get(0)).getMinValue();
-              LOGGER.log(Level.FINE, "Using the min requested value for TIME filtering.");
-            } else if (list.get(0) instanceof Date) {
-              date = (Date) list.get(0);
-            } else {
-              LOGGER.log(Level.FINE, "Found unknown objects when requested with TIME: " + list);
-              continue;
-            }
-            Instant time = Instant.ofEpochMilli(date.getTime());
-            for (Map.Entry<String, List<Instant>> item : times.entrySet()) {
-              if (!time.isAfter(item.getValue().get(1)) && !time.isBefore(item.getValue().get(0))) {
-                String id = item.getKey();
-                File candidate = new File(fileNames.get(id));
-                if (rasters.get(coverageName).contains(candidate.getName())) {
-                  rasterFile = candidate;
-                }
-              }
-            }
+        }
+        if (value.getDescriptor().getName().getCode().equals(AbstractGridFormat.BANDS.getName().getCode())) {
+          if (bands == null) {
+            bands = (int[]) ((ParameterValue) value).getValue();
           }
         }
-        dataset = gdal.OpenShared(rasterFile.getAbsolutePath(), gdalconstConstants.GA_ReadOnly);
-        Band band = dataset.GetRasterBand(1);
-        int dataType = band.getDataType();
-        Integer dataBufferType = DATABUFFER_TYPES_MAP.get(dataType);
-        LOGGER.log(Level.FINE, "Using gdal type " + GDAL_TYPES_MAP.get(dataType));
-        LOGGER.log(Level.FINE, "Using data buffer type " + dataBufferType);
-
-        if (finalSize == null) {
-          LOGGER.warning("Unable to determine requested size.");
-          return null;
+        if (value.getDescriptor().getName().getCode().equals(GrassGdalFormat.BAND.getName().getCode())) {
+          int[] selected = parseBands((List) ((ParameterValue) value).getValue());
+          if (selected != null) {
+            bands = selected;
+          }
         }
-
-        if (gdal.VersionInfo().compareTo("3050000") < 0) {
-          finalSize = new int[]{dataset.getRasterXSize(), dataset.getRasterYSize()};
+        if (value.getDescriptor().getName().getCode().equals(GrassGdalFormat.GDAL_CACHEMAX.getName().getCode())) {
+          Integer cacheMax = (Integer) ((ParameterValue) value).getValue();
+          if (cacheMax != null) {
+            ensureGdalCacheMax(cacheMax);
+          }
         }
-
-        WritableRaster raster = RasterFactory
-          .createBandedRaster(dataBufferType, finalSize[0], finalSize[1], numBands, null);
-
-        for (int i = 0; i < numBands; ++i) {
-          copyBand(dataset.GetRasterBand(i + 1), i, imageBounds, raster, finalSize);
+        if (value.getDescriptor().getName().getCode().equals(GrassGdalFormat.TIME_AGGREGATION.getName().getCode())) {
+          aggregation = TimeAggregateImage.Aggregation.parse((String) ((ParameterValue) value).getValue());
         }
-
-        final GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
-
-        return factory.create(file.getName(), raster, calculateSubEnvelope(imageBounds));
-      } catch (Exception e) {
-        LOGGER.log(Level.WARNING, "Unable to create GRASS coverage. Original exception:", e);
-        throw e;
-      } finally {
-        if (dataset != null) {
-          dataset.delete();
+        if (value.getDescriptor().getName().getCode().equals("TIME")) {
+          List list = (List) ((ParameterValue) value).getValue();
+          TemporalIndex<String> index = catalog.getTemporalIndex(coverageName, label);
+          int position;
+          if (index == null || list == null || list.isEmpty()) {
+            continue;
+          } else if (list.get(0) instanceof DateRange) {
+            DateRange range = (DateRange) list.get(0);
+            timeRange = range;
+            position = index.findPosition(range.getMinValue().getTime(), range.getMaxValue().getTime());
+          } else if (list.get(0) instanceof Date) {
+            position = index.findPosition(((Date) list.get(0)).getTime());
+          } else {
+            LOGGER.log(Level.FINE, "Found unknown objects when requested with TIME: " + list);
+            continue;
+          }
+          if (position >= 0) {
+            rasterFile = new File(index.values().get(position));
+            timeIndex = index;
+            timePosition = position;
+          }
         }
       }
+      if (finalSize == null) {
+        LOGGER.warning("Unable to determine requested size.");
+        return null;
+      }
+      // maps of a time series may have their own footprint, aggregates are read on the grid of the default map
+      double[] transform = geoTransform;
+      int[] rasterSize = new int[]{width, height};
+      int[] blocks = blockSize;
+      if (!rasterFile.equals(file) && (aggregation == null || timeRange == null)) {
+        RasterHeader mapHeader = RasterHeaderCache.getInstance().get(RasterSources.get(rasterFile));
+        transform = mapHeader.getGeoTransform();
+        rasterSize = new int[]{mapHeader.getWidth(), mapHeader.getHeight()};
+        blocks = mapHeader.getBlockSize();
+      }
+      int[] imageBounds = bbox == null ? new int[]{0, 0, rasterSize[0], rasterSize[1]}
+        : calculateRequiredPixels(bbox, transform, rasterSize);
+      if (ALIGN_BLOCKS) {
+        int[] aligned = alignToBlocks(imageBounds, blocks, rasterSize);
+        finalSize = new int[]{
+          Math.max((int) Math.round(finalSize[0] * aligned[2] / (double) imageBounds[2]), 1),
+          Math.max((int) Math.round(finalSize[1] * aligned[3] / (double) imageBounds[3]), 1)
+        };
+        imageBounds = aligned;
+      }
+      if (aggregation != null && timeRange != null) {
+        RenderedImage image = aggregate(catalog.getTemporalIndex(coverageName, label), timeRange, aggregation, imageBounds,
+          finalSize, bands, tileSize, overviewPolicy, metrics);
+        // pixels without values are NaN, the sum and count are 0
+        Double noData = aggregation == TimeAggregateImage.Aggregation.SUM
+          || aggregation == TimeAggregateImage.Aggregation.COUNT ? null : Double.NaN;
+        long start = System.nanoTime();
+        GridCoverage2D coverage = CoverageFactoryFinder.getGridCoverageFactory(null)
+          .create(file.getName(), image, calculateSubEnvelope(imageBounds, transform), null, null,
+            noDataProperties(noData));
+        ReadMetrics.record(metrics, ReadMetrics.Stage.COVERAGE, start);
+        return coverage;
+      }
+      GdalTiledImage image = createImage(rasterFile, imageBounds, finalSize, bands, tileSize, overviewPolicy,
+        metrics);
+      // reject the request while the error still reaches the caller, the tiles are computed lazily later on
+      image.admit();
+      if (timeIndex != null && TimePrefetcher.getInstance().isEnabled()) {
+        prefetch(coverageName, timeIndex, timePosition, image, imageBounds, finalSize, bands, tileSize,
+          overviewPolicy, metrics);
+      }
+
+      final GridCoverageFactory factory = CoverageFactoryFinder.getGridCoverageFactory(null);
+
+      long start = System.nanoTime();
+      GridCoverage2D coverage = factory.create(file.getName(), image, calculateSubEnvelope(imageBounds, transform),
+        null, null, noDataProperties(image.getNoData()));
+      ReadMetrics.record(metrics, ReadMetrics.Stage.COVERAGE, start);
+      return coverage;
+    } catch (Exception e) {
+      LOGGER.log(Level.WARNING, "Unable to create GRASS coverage. Original exception:", e);
+      throw e;
     }
   }
 
-  @Override
-  public GridCoverage2D read(GeneralParameterValue[] parameters) throws IllegalArgumentException, IOException {
-    return read(coverageName, parameters);
+  private GdalTiledImage createImage(File rasterFile, int[] imageBounds, int[] finalSize, int[] bands, int[] tileSize,
+                                     OverviewPolicy overviewPolicy, ReadMetrics metrics) throws IOException {
+    RasterSource map = RasterSources.get(rasterFile);
+    long version = map.getVersion();
+    RasterSource source = PyramidBuilder.getInstance().source(rasterFile);
+
+    RasterHeader header = RasterHeaderCache.getInstance().get(source);
+    int dataBufferType = BandTransfer.dataBufferType(header.getDataType());
+    int[] rasterSize = new int[]{header.getWidth(), header.getHeight()};
+    LOGGER.log(Level.FINE, () -> "Using data type " + header.getDataType() + " of the " + header.getDriver()
+      + " driver and data buffer type " + dataBufferType);
+
+    if ((source instanceof GdalRasterSource || map instanceof GdalRasterSource) && !GdalRasterSource.resamples()) {
+      finalSize = rasterSize;
+    }
+
+    return new GdalTiledImage(source, header, imageBounds, finalSize, checkBands(bands, header.getNumBands()),
+      dataBufferType, tileSize, overviewPolicy, version, metrics);
   }
 
-  private void copyBand(Band band, int bandIndex, int[] imageBounds, WritableRaster raster, int[] finalSize) {
-    int dataType = band.getDataType();
+  /**
+   * Create an image aggregating all maps intersecting a time range. The maps are only opened when the tiles are
+   * computed.
+   */
+  private RenderedImage aggregate(TemporalIndex<String> index, DateRange range,
+                                  TimeAggregateImage.Aggregation aggregation, int[] imageBounds, int[] finalSize,
+                                  int[] bands, int[] tileSize, OverviewPolicy overviewPolicy,
+                                  ReadMetrics metrics) throws IOException {
+    List<GdalTiledImage> sources = new ArrayList<>();
+    for (String map : index.query(Instant.ofEpochMilli(range.getMinValue().getTime()),
+      Instant.ofEpochMilli(range.getMaxValue().getTime()))) {
+      sources.add(createImage(new File(map), imageBounds, finalSize, bands, tileSize, overviewPolicy, metrics));
+    }
+    LOGGER.fine("Aggregating " + sources.size() + " maps with " + aggregation);
+    int[] size = finalSize;
+    int numBands = bands == null ? 1 : bands.length;
+    if (!sources.isEmpty()) {
+      size = new int[]{sources.get(0).getWidth(), sources.get(0).getHeight()};
+      numBands = sources.get(0).getNumBands();
+    }
+    TimeAggregateImage image = new TimeAggregateImage(sources, aggregation, size, numBands, tileSize);
+    image.admit();
+    return image;
+  }
 
-    ByteBuffer buffer;
+  /**
+   * Let the prefetcher read the following time steps of the same window in the background if the client steps
+   * through the time series.
+   */
+  private void prefetch(String coverageName, TemporalIndex<String> index, int position, GdalTiledImage image,
+                        int[] imageBounds, int[] finalSize, int[] bands, int[] tileSize,
+                        OverviewPolicy overviewPolicy, ReadMetrics metrics) {
+    String sequence = file.getAbsolutePath() + "|" + coverageName + "|" + Arrays.toString(imageBounds) + "|"
+      + Arrays.toString(finalSize) + "|" + Arrays.toString(bands) + "|" + Arrays.toString(tileSize) + "|"
+      + overviewPolicy;
+    TimePrefetcher.getInstance().accessed(sequence, position, index.size(), image.getByteSize(),
+      next -> createImage(new File(index.values().get(next)), imageBounds, finalSize, bands, tileSize,
+        overviewPolicy, metrics));
+  }
 
-    switch (GDAL_TYPES_MAP.get(dataType)) {
-      case Byte: {
-        buffer = ByteBuffer.allocateDirect(finalSize[0] * finalSize[1]);
-        break;
+  /**
+   * @return the first requested semantic label, null if none was requested
+   */
+  private static String findSemanticLabel(GeneralParameterValue[] parameters) {
+    for (GeneralParameterValue value : parameters) {
+      if (value.getDescriptor().getName().getCode().equals(GrassGdalFormat.SEMANTIC_LABEL.getName().getCode())) {
+        List list = (List) ((ParameterValue) value).getValue();
+        if (list != null && !list.isEmpty() && list.get(0) != null) {
+          if (list.size() > 1) {
+            LOGGER.log(Level.FINE, "Reading only the first of the requested semantic labels " + list);
+          }
+          return list.get(0).toString();
+        }
       }
-      case UInt16:
-      case Int16: {
-        buffer = ByteBuffer.allocateDirect(finalSize[0] * finalSize[1] * 2);
-        break;
+    }
+    return null;
+  }
+
+  /**
+   * @param values the requested one based band numbers of the BAND dimension
+   * @return the zero based band indices, null if no band was requested
+   */
+  static int[] parseBands(List values) {
+    if (values == null || values.isEmpty()) {
+      return null;
+    }
+    int[] result = new int[values.size()];
+    for (int i = 0; i < result.length; ++i) {
+      try {
+        result[i] = Integer.parseInt(values.get(i).toString().trim()) - 1;
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid band " + values.get(i) + ", expected a band number.");
       }
-      case UInt32:
-      case Int32:
-      case Float32: {
-        buffer = ByteBuffer.allocateDirect(finalSize[0] * finalSize[1] * 4);
-        break;
+    }
+    return result;
+  }
+
+  /**
+   * @param bands    the requested zero based band indices, null for all bands
+   * @param numBands the number of bands of the raster
+   * @return the band indices to read
+   */
+  private static int[] checkBands(int[] bands, int numBands) {
+    if (bands == null || bands.length == 0) {
+      int[] result = new int[numBands];
+      for (int i = 0; i < numBands; ++i) {
+        result[i] = i;
       }
-      case Float64: {
-        buffer = ByteBuffer.allocateDirect(finalSize[0] * finalSize[1] * 8);
-        break;
+      return result;
+    }
+    for (int band : bands) {
+      if (band < 0 || band >= numBands) {
+        throw new IllegalArgumentException("Invalid band " + band + ", the raster has " + numBands + " bands.");
       }
-      default:
-        throw new IllegalStateException("Unexpected value: " + GDAL_TYPES_MAP.get(dataType));
     }
+    return bands;
+  }
 
-    int result = band
-      .ReadRaster_Direct(imageBounds[0], imageBounds[1], imageBounds[2], imageBounds[3], finalSize[0], finalSize[1], dataType, buffer);
-    if (result != 0) {
-      return;
+  /**
+   * @param noData the nodata value, may be null
+   * @return the coverage properties announcing the nodata value
+   */
+  private static Map<String, Object> noDataProperties(Double noData) {
+    Map<String, Object> properties = new HashMap<>();
+    if (noData != null) {
+      CoverageUtilities.setNoDataProperty(properties, noData);
     }
-    buffer.order(ByteOrder.LITTLE_ENDIAN);
+    return properties;
+  }
 
-    switch (GDAL_TYPES_MAP.get(dataType)) {
-      case Byte: {
-        byte[] bytes = new byte[finalSize[0] * finalSize[1]];
-        buffer.get(bytes);
-        int[] ints = new int[bytes.length];
-        for (int i = 0; i < ints.length; ++i) {
-          ints[i] = Short.toUnsignedInt(bytes[i]);
-        }
-        raster.setSamples(0, 0, finalSize[0], finalSize[1], bandIndex, ints);
-        break;
-      }
-      case UInt16:
-      case Int16: {
-        ShortBuffer shortBuffer = buffer.asShortBuffer();
-        short[] shorts = new short[finalSize[0] * finalSize[1]];
-        shortBuffer.get(shorts);
-        int[] ints = new int[shorts.length];
-        for (int i = 0; i < ints.length; ++i) {
-          ints[i] = Short.toUnsignedInt(shorts[i]);
-        }
-        raster.setSamples(0, 0, finalSize[0], finalSize[1], bandIndex, ints);
-        break;
-      }
-      case UInt32:
-      case Int32: {
-        IntBuffer intBuffer = buffer.asIntBuffer();
-        int[] ints = new int[finalSize[0] * finalSize[1]];
-        intBuffer.get(ints);
-        raster.setSamples(0, 0, finalSize[0], finalSize[1], bandIndex, ints);
-        break;
+  /**
+   * Extend a source window to the block boundaries of a tiled raster, so neighbouring requests read whole blocks, which
+   * GDAL keeps in its block cache. Axes along which a block spans the whole raster, e.g. the rows of GRASS rasters,
+   * are left as they are.
+   *
+   * @param window     the window as x, y, width and height
+   * @param blockSize  the block width and height
+   * @param rasterSize the raster width and height
+   * @return the aligned window
+   */
+  static int[] alignToBlocks(int[] window, int[] blockSize, int[] rasterSize) {
+    int[] result = window.clone();
+    for (int i = 0; i < 2; ++i) {
+      int block = blockSize[i];
+      if (block <= 1 || block >= rasterSize[i]) {
+        continue;
       }
-      case Float64: {
-        DoubleBuffer doubleBuffer = buffer.asDoubleBuffer();
-        double[] doubles = new double[finalSize[0] * finalSize[1]];
-        doubleBuffer.get(doubles);
-        raster.setSamples(0, 0, finalSize[0], finalSize[1], bandIndex, doubles);
-        break;
+      int start = window[i] / block * block;
+      int end = Math.min((window[i] + window[i + 2] + block - 1) / block * block, rasterSize[i]);
+      result[i] = start;
+      result[i + 2] = end - start;
+    }
+    return result;
+  }
+
+  /**
+   * Grow the GDAL block cache to at least the given size. The cache is shared by all stores, so it is never shrunk.
+   *
+   * @param megabytes the requested cache size in megabytes
+   */
+  private static synchronized void ensureGdalCacheMax(int megabytes) {
+    long bytes = megabytes * 1024L * 1024L;
+    if (bytes > gdal.GetCacheMax()) {
+      LOGGER.fine("Growing the GDAL block cache to " + megabytes + " MB");
+      gdal.SetCacheMax(bytes);
+    }
+  }
+
+  private static int[] parseTileSize(String value) {
+    if (value == null) {
+      return DEFAULT_TILE_SIZE;
+    }
+    String[] parts = value.split(AbstractGridFormat.TILE_SIZE_SEPARATOR);
+    try {
+      int tileWidth = Integer.parseInt(parts[0].trim());
+      int tileHeight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : tileWidth;
+      if (tileWidth > 0 && tileHeight > 0) {
+        return new int[]{tileWidth, tileHeight};
       }
-      case Float32:
-        FloatBuffer floatBuffer = buffer.asFloatBuffer();
-        float[] floats = new float[finalSize[0] * finalSize[1]];
-        floatBuffer.get(floats);
-        raster.setSamples(0, 0, finalSize[0], finalSize[1], bandIndex, floats);
-        break;
-      default:
-        throw new IllegalStateException("Unexpected value: " + GDAL_TYPES_MAP.get(dataType));
+    } catch (NumberFormatException e) {
+      LOGGER.log(Level.FINE, "Unable to parse suggested tile size " + value, e);
     }
+    return DEFAULT_TILE_SIZE;
+  }
+
+  @Override
+  public GridCoverage2D read(GeneralParameterValue[] parameters) throws IllegalArgumentException, IOException {
+    return read(coverageName, parameters);
   }
 
-  private int[] calculateRequiredPixels(GeneralBounds bbox) {
-    double origMinX = originalEnvelope.getMinimum(0);
+  private static int[] calculateRequiredPixels(GeneralBounds bbox, double[] transform, int[] rasterSize) {
+    double resx = transform[1];
+    double resy = transform[5];
+    double origMinX = transform[0];
     double minx = Math.max(bbox.getMinimum(0), origMinX);
-    double origMinY = originalEnvelope.getMinimum(1);
+    double origMinY = transform[3] + resy * rasterSize[1];
     double miny = Math.max(bbox.getMinimum(1), origMinY);
-    double origMaxX = originalEnvelope.getMaximum(0);
+    double origMaxX = transform[0] + resx * rasterSize[0];
     double maxx = Math.min(bbox.getMaximum(0), origMaxX);
-    double origMaxY = originalEnvelope.getMaximum(1);
+    double origMaxY = transform[3];
     double maxy = Math.min(bbox.getMaximum(1), origMaxY);
     double diff = minx - origMinX;
     double x = diff / resx;
@@ -462,26 +624,25 @@ public class GrassGdalReader extends AbstractGridCoverage2DReader {
     return new int[]{(int) Math.floor(x), (int) Math.floor(y), targetWidth, targetHeight};
   }
 
-  private GeneralBounds calculateSubEnvelope(int[] imageCoordinates) {
-    double minx = originalEnvelope.getMinimum(0) + imageCoordinates[0] * resx;
-    double maxx = minx + imageCoordinates[2] * resx;
-    double maxy = originalEnvelope.getMaximum(1) - Math.abs(imageCoordinates[1] * resy);
-    double miny = maxy - Math.abs(imageCoordinates[3] * resy);
+  private GeneralBounds calculateSubEnvelope(int[] imageCoordinates, double[] transform) {
+    double minx = transform[0] + imageCoordinates[0] * transform[1];
+    double maxx = minx + imageCoordinates[2] * transform[1];
+    double maxy = transform[3] - Math.abs(imageCoordinates[1] * transform[5]);
+    double miny = maxy - Math.abs(imageCoordinates[3] * transform[5]);
 
     GeneralBounds generalEnvelope = new GeneralBounds(new double[]{minx, miny}, new double[]{maxx, maxy});
     generalEnvelope.setCoordinateReferenceSystem(crs);
     return generalEnvelope;
   }
 
-  private void calculateEnvelope(Dataset dataset) {
-    double[] transform = new double[6];
-    dataset.GetGeoTransform(transform);
+  private void calculateEnvelope(double[] transform) {
     double maxx = transform[0] + transform[1] * width + transform[2] * height;
     double miny = transform[3] + transform[5] * height + transform[4] * width;
     double minx = transform[0];
     double maxy = transform[3];
     resx = transform[1];
     resy = transform[5];
+    geoTransform = transform.clone();
 
     originalEnvelope = new GeneralBounds(new double[]{minx, miny}, new double[]{maxx, maxy});
     originalEnvelope.setCoordinateReferenceSystem(crs);
@@ -490,63 +651,183 @@ public class GrassGdalReader extends AbstractGridCoverage2DReader {
 
   @Override
   public String[] getMetadataNames(String coverageName) {
-    return new String[]{
+    List<String> names = new ArrayList<>(Arrays.asList(
       GridCoverage2DReader.HAS_TIME_DOMAIN,
-      GridCoverage2DReader.TIME_DOMAIN
-    };
+      GridCoverage2DReader.TIME_DOMAIN,
+      GridCoverage2DReader.TIME_DOMAIN_MINIMUM,
+      GridCoverage2DReader.TIME_DOMAIN_MAXIMUM
+    ));
+    for (ParameterDescriptor<List> dimension : getDynamicParameters(coverageName)) {
+      String dimensionName = dimension.getName().getCode();
+      names.add("HAS_" + dimensionName + "_DOMAIN");
+      names.add(dimensionName + "_DOMAIN");
+      names.add(dimensionName + "_DOMAIN_DATATYPE");
+    }
+    return names.toArray(new String[0]);
+  }
+
+  /**
+   * @return the values of a custom dimension, empty if the coverage doesn't have it
+   */
+  private List<String> getDimensionValues(String coverageName, String dimensionName) {
+    if (dimensionName.equals(GrassGdalFormat.SEMANTIC_LABEL.getName().getCode())) {
+      return getCatalog().getSemanticLabels(coverageName);
+    }
+    List<String> result = new ArrayList<>();
+    if (dimensionName.equals(GrassGdalFormat.BAND.getName().getCode()) && numBands > 1) {
+      for (int i = 1; i <= numBands; ++i) {
+        result.add(Integer.toString(i));
+      }
+    }
+    return result;
   }
 
   @Override
   public String getMetadataValue(String coverageName, String name) {
     if (name.equals(HAS_TIME_DOMAIN)) {
-      return "true";
-    }
-    if (name.equals(TIME_DOMAIN)) {
-      DateTimeFormatter formatter = DateTimeFormatter
-        .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX")
-        .withZone(UTC);
-      Instant min = null;
-      Instant max = null;
-      for (List<Instant> list : times.values()) {
-        if (min == null) {
-          min = list.get(0);
-        }
-        if (max == null) {
-          max = list.get(1);
-        }
-        if (min.isAfter(list.get(0))) {
-          min = list.get(0);
-        }
-        if (max.isBefore(list.get(1))) {
-          max = list.get(1);
-        }
+      return Boolean.toString(getCatalog().getTimeDomain(coverageName) != null);
+    }
+    if (name.equals(TIME_DOMAIN) || name.equals(TIME_DOMAIN_MINIMUM) || name.equals(TIME_DOMAIN_MAXIMUM)) {
+      TimeDomain domain = getCatalog().getTimeDomain(coverageName);
+      if (domain == null) {
+        return null;
+      }
+      if (name.equals(TIME_DOMAIN_MINIMUM)) {
+        return domain.getMinimum();
+      }
+      return name.equals(TIME_DOMAIN_MAXIMUM) ? domain.getMaximum() : domain.getDomain();
+    }
+    for (ParameterDescriptor<List> dimension : new ParameterDescriptor[]{GrassGdalFormat.SEMANTIC_LABEL,
+      GrassGdalFormat.BAND}) {
+      String dimensionName = dimension.getName().getCode();
+      if (name.equals("HAS_" + dimensionName + "_DOMAIN")) {
+        return Boolean.toString(!getDimensionValues(coverageName, dimensionName).isEmpty());
+      }
+      if (name.equals(dimensionName + "_DOMAIN")) {
+        return String.join(",", getDimensionValues(coverageName, dimensionName));
+      }
+      if (name.equals(dimensionName + "_DOMAIN_DATATYPE")) {
+        return String.class.getName();
       }
-      return formatter.format(min) + "/" + formatter.format(max);
     }
     return null;
   }
 
   @Override
   public Set<ParameterDescriptor<List>> getDynamicParameters(String coverageName) {
-    return new HashSet<>();
+    Set<ParameterDescriptor<List>> result = new HashSet<>();
+    if (!getDimensionValues(coverageName, GrassGdalFormat.SEMANTIC_LABEL.getName().getCode()).isEmpty()) {
+      result.add(GrassGdalFormat.SEMANTIC_LABEL);
+    }
+    if (!getDimensionValues(coverageName, GrassGdalFormat.BAND.getName().getCode()).isEmpty()) {
+      result.add(GrassGdalFormat.BAND);
+    }
+    return result;
   }
 
   @Override
   public String[] getGridCoverageNames() {
-    if (!rasters.isEmpty()) {
-      return rasters.keySet().toArray(new String[0]);
+    StrdsCatalog catalog = getCatalog();
+    if (!catalog.getRasters().isEmpty()) {
+      return catalog.getRasters().keySet().toArray(new String[0]);
     }
     return super.getGridCoverageNames();
   }
 
   @Override
   public GeneralBounds getOriginalEnvelope(String coverageName) {
-    return super.getOriginalEnvelope(this.coverageName);
+    GridGeometry2D grid = getGranuleGrid(coverageName);
+    if (grid == null) {
+      return super.getOriginalEnvelope(this.coverageName);
+    }
+    GeneralBounds result = new GeneralBounds(grid.getEnvelope());
+    result.setCoordinateReferenceSystem(crs);
+    return result;
   }
 
   @Override
   public GridEnvelope getOriginalGridRange(String coverageName) {
-    return super.getOriginalGridRange(this.coverageName);
+    GridGeometry2D grid = getGranuleGrid(coverageName);
+    return grid == null ? super.getOriginalGridRange(this.coverageName) : grid.getGridRange();
+  }
+
+  /**
+   * @return the granules of a time series, null if the store is a single map or the time series is unknown
+   */
+  private StrdsGranuleSource getGranuleSource(String coverageName) {
+    if (!file.getName().endsWith(".db")) {
+      return null;
+    }
+    return getCatalog().getGranuleSource(coverageName, crs, new Envelope(originalEnvelope.getMinimum(0),
+      originalEnvelope.getMaximum(0), originalEnvelope.getMinimum(1), originalEnvelope.getMaximum(1)));
+  }
+
+  /**
+   * The grid covering the union of the footprints of the maps of a time series at the resolution of the default map.
+   * The original envelope, grid range and grid to world transform of a time series are all derived from it.
+   *
+   * @return the grid, null if the store is a single map or the time series has no maps
+   */
+  private GridGeometry2D getGranuleGrid(String coverageName) {
+    StrdsGranuleSource granules = getGranuleSource(coverageName);
+    return granules == null ? null : granules.getGrid(Math.abs(resx), Math.abs(resy));
+  }
+
+  @Override
+  public GranuleSource getGranules(String coverageName, boolean readOnly) throws UnsupportedOperationException {
+    if (!readOnly) {
+      throw new UnsupportedOperationException("The granules of GRASS time series are read only.");
+    }
+    GranuleSource granules = getGranuleSource(coverageName);
+    if (granules == null && !file.getName().endsWith(".db")) {
+      throw new UnsupportedOperationException("Only time series have granules.");
+    }
+    return granules;
+  }
+
+  @Override
+  public boolean isReadOnly() {
+    return true;
+  }
+
+  @Override
+  public void createCoverage(String coverageName, SimpleFeatureType schema) {
+    throw new UnsupportedOperationException("Register maps with t.register instead.");
+  }
+
+  @Override
+  public boolean removeCoverage(String coverageName) {
+    throw new UnsupportedOperationException("Unregister maps with t.unregister instead.");
+  }
+
+  @Override
+  public boolean removeCoverage(String coverageName, boolean delete) {
+    throw new UnsupportedOperationException("Unregister maps with t.unregister instead.");
+  }
+
+  @Override
+  public void delete(boolean deleteData) {
+    throw new UnsupportedOperationException("Remove time series with t.remove instead.");
+  }
+
+  @Override
+  public List<HarvestedSource> harvest(String defaultTargetCoverage, Object source, Hints hints) {
+    throw new UnsupportedOperationException("Register maps with t.register instead.");
+  }
+
+  @Override
+  public List<DimensionDescriptor> getDimensionDescriptors(String coverageName) {
+    List<DimensionDescriptor> result = new ArrayList<>();
+    if (getGranuleSource(coverageName) == null) {
+      return result;
+    }
+    result.add(new DefaultDimensionDescriptor("TIME", CoverageUtilities.UCUM.TIME_UNITS.getName(),
+      CoverageUtilities.UCUM.TIME_UNITS.getSymbol(), StrdsGranuleSource.START_TIME, StrdsGranuleSource.END_TIME));
+    if (!getCatalog().getSemanticLabels(coverageName).isEmpty()) {
+      result.add(new DefaultDimensionDescriptor(GrassGdalFormat.SEMANTIC_LABEL.getName().getCode(), "", "",
+        StrdsGranuleSource.SEMANTIC_LABEL, null));
+    }
+    return result;
   }
 
   @Override
@@ -556,6 +837,10 @@ public class GrassGdalReader extends AbstractGridCoverage2DReader {
 
   @Override
   public MathTransform getOriginalGridToWorld(String coverageName, PixelInCell pixInCell) {
+    GridGeometry2D grid = getGranuleGrid(coverageName);
+    if (grid != null) {
+      return grid.getGridToCRS(pixInCell);
+    }
     return super.getOriginalGridToWorld(this.coverageName, pixInCell);
   }
 
@@ -0,0 +1,617 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.util.logging.Logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * A GRASS raster map opened without GDAL: the cellhd header, the memory mapped data file of an integer (cell) or
+ * floating point (fcell) map with its row index, and the null file. Opened maps are cached until the map changes, the
+ * least recently used maps are closed once more than {@link #MAX_OPEN_PROPERTY} maps are open. Reads retain the map, so
+ * a map is only closed once the reads in flight are done. Reclassed maps, maps of the pre 3.0 format and BZIP2
+ * compressed maps are not supported.
+ */
+final class GrassRasterFile {
+
+  private static final Logger LOGGER = Logging.getLogger(GrassRasterFile.class);
+
+  /**
+   * System property with the maximum number of maps kept open by the java engine.
+   */
+  static final String MAX_OPEN_PROPERTY = "grass.gdal.java.maxOpenMaps";
+
+  private static final int MAX_OPEN = Integer.getInteger(MAX_OPEN_PROPERTY, 256);
+
+  private static final Map<String, Entry> OPENED = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+      if (size() <= MAX_OPEN) {
+        return false;
+      }
+      eldest.getValue().close();
+      return true;
+    }
+  };
+
+  /**
+   * Flag byte of compressed floating point rows.
+   */
+  private static final byte COMPRESSED_YES = '1';
+
+  private final int rows;
+
+  private final int cols;
+
+  private final double north;
+
+  private final double south;
+
+  private final double east;
+
+  private final double west;
+
+  private final int compressor;
+
+  /**
+   * The number of bytes per value: 1 to 4 for integer maps, 4 or 8 for floating point maps.
+   */
+  private final int nbytes;
+
+  private final boolean floatingPoint;
+
+  /**
+   * The smallest and largest value of an integer map, null if unknown.
+   */
+  private final int[] range;
+
+  private final MappedFile data;
+
+  private final long[] rowOffsets;
+
+  private final MappedFile nulls;
+
+  private final long[] nullRowOffsets;
+
+  /**
+   * The references held by the cache and by reads in flight.
+   */
+  private final AtomicInteger references = new AtomicInteger(1);
+
+  private GrassRasterFile(File cellhd) throws IOException {
+    Map<String, String> header = readKeyValues(cellhd);
+    if (header.containsKey("reclass")) {
+      throw new IOException("Reclassed maps are not supported: " + cellhd);
+    }
+    rows = Integer.parseInt(value(header, "rows", cellhd));
+    cols = Integer.parseInt(value(header, "cols", cellhd));
+    north = parseCoordinate(value(header, "north", cellhd));
+    south = parseCoordinate(value(header, "south", cellhd));
+    east = parseCoordinate(value(header, "east", cellhd));
+    west = parseCoordinate(value(header, "west", cellhd));
+    File fcell = GrassFiles.element(cellhd, "fcell");
+    floatingPoint = fcell.isFile();
+    int compressed = Integer.parseInt(header.getOrDefault("compressed", "0"));
+    if (floatingPoint) {
+      // floating point maps of GRASS 6 always use zlib
+      compressor = compressed == GrassCompression.RLE ? GrassCompression.ZLIB : compressed;
+      Map<String, String> format = GrassFiles.miscFile(cellhd, "f_format").isFile()
+        ? readKeyValues(GrassFiles.miscFile(cellhd, "f_format")) : new HashMap<>();
+      nbytes = "double".equals(format.get("type")) ? 8 : 4;
+    } else {
+      compressor = compressed;
+      nbytes = Integer.parseInt(value(header, "format", cellhd)) + 1;
+    }
+    range = floatingPoint ? null : readRange(GrassFiles.miscFile(cellhd, "range"));
+    if (!GrassCompression.isSupported(compressor)) {
+      throw new IOException("Unsupported compression " + compressed + " of " + cellhd);
+    }
+    data = new MappedFile(floatingPoint ? fcell : GrassFiles.element(cellhd, "cell"));
+    rowOffsets = compressor == GrassCompression.NONE ? null : readRowOffsets(data, rows);
+    File nullFile = GrassFiles.miscFile(cellhd, "null");
+    File compressedNullFile = GrassFiles.miscFile(cellhd, "nullcmpr");
+    if (compressedNullFile.isFile()) {
+      nulls = new MappedFile(compressedNullFile);
+      nullRowOffsets = readRowOffsets(nulls, rows);
+    } else {
+      nulls = nullFile.isFile() ? new MappedFile(nullFile) : null;
+      nullRowOffsets = null;
+    }
+  }
+
+  /**
+   * @param cellhd the cellhd file of a GRASS map
+   * @return the opened map, null if it can't be read without GDAL. The map may be closed at any time, use
+   *   {@link #acquire(File)} to read from it
+   */
+  static GrassRasterFile get(File cellhd) {
+    String path = cellhd.getAbsolutePath();
+    long version = GrassFiles.lastModified(cellhd);
+    synchronized (OPENED) {
+      Entry entry = OPENED.get(path);
+      if (entry != null && entry.version == version) {
+        return entry.file;
+      }
+    }
+    GrassRasterFile file = null;
+    try {
+      file = new GrassRasterFile(cellhd);
+    } catch (IOException | RuntimeException e) {
+      LOGGER.fine("Reading " + cellhd + " with GDAL: " + e.getMessage());
+      LOGGER.log(Level.FINEST, "Stack trace:", e);
+    }
+    Entry entry = new Entry(version, file);
+    synchronized (OPENED) {
+      Entry previous = OPENED.get(path);
+      if (previous != null && previous.version == version) {
+        // opened concurrently
+        entry.close();
+        return previous.file;
+      }
+      OPENED.put(path, entry);
+      if (previous != null) {
+        previous.close();
+      }
+    }
+    return file;
+  }
+
+  /**
+   * Get an opened map retained for reading, it must be released after the read.
+   *
+   * @param cellhd the cellhd file of a GRASS map
+   * @return the opened map, null if it can't be read without GDAL
+   */
+  static GrassRasterFile acquire(File cellhd) {
+    while (true) {
+      GrassRasterFile file = get(cellhd);
+      if (file == null || file.retain()) {
+        return file;
+      }
+    }
+  }
+
+  /**
+   * @return false, if the map has been closed already
+   */
+  boolean retain() {
+    int count = references.get();
+    while (count > 0) {
+      if (references.compareAndSet(count, count + 1)) {
+        return true;
+      }
+      count = references.get();
+    }
+    return false;
+  }
+
+  /**
+   * Release a reference, the mapped files are closed with the last one.
+   */
+  void release() {
+    if (references.decrementAndGet() == 0) {
+      data.close();
+      if (nulls != null) {
+        nulls.close();
+      }
+    }
+  }
+
+  /**
+   * @return true, if both maps have the same size, value type and null file
+   */
+  boolean hasLayoutOf(GrassRasterFile other) {
+    return rows == other.rows && cols == other.cols && floatingPoint == other.floatingPoint
+      && nbytes == other.nbytes && hasNullFile() == other.hasNullFile();
+  }
+
+  int getRows() {
+    return rows;
+  }
+
+  int getCols() {
+    return cols;
+  }
+
+  boolean isFloatingPoint() {
+    return floatingPoint;
+  }
+
+  /**
+   * @return the number of bytes per value, 1 to 4 for integer maps, 4 or 8 for floating point maps
+   */
+  int getBytesPerValue() {
+    return nbytes;
+  }
+
+  /**
+   * @return the smallest and largest value of an integer map, null if unknown, e.g. for floating point maps or maps
+   *   of nulls only
+   */
+  int[] getRange() {
+    return range == null ? null : range.clone();
+  }
+
+  boolean hasNullFile() {
+    return nulls != null;
+  }
+
+  /**
+   * @return the GDAL geotransform of the map
+   */
+  double[] getGeoTransform() {
+    return new double[]{west, (east - west) / cols, 0, north, 0, -(north - south) / rows};
+  }
+
+  /**
+   * Decode a part of a row of an integer map. Null values are not applied.
+   *
+   * @param row    the row
+   * @param x      the first column
+   * @param width  the number of columns
+   * @param values the array to decode the values into, starting at index 0
+   * @throws IOException if the row could not be read
+   */
+  void readRow(int row, int x, int width, int[] values) throws IOException {
+    RowBytes bytes = readRowBytes(row, x, width);
+    for (int i = 0; i < width; ++i) {
+      values[i] = decodeInt(bytes.bytes, bytes.offset + i * bytes.nbytes, bytes.nbytes);
+    }
+  }
+
+  /**
+   * Decode a part of a row of a floating point map of 4 bytes per value. Null values are not applied.
+   *
+   * @param row    the row
+   * @param x      the first column
+   * @param width  the number of columns
+   * @param values the array to decode the values into, starting at index 0
+   * @throws IOException if the row could not be read
+   */
+  void readRow(int row, int x, int width, float[] values) throws IOException {
+    RowBytes bytes = readRowBytes(row, x, width);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.bytes, bytes.offset, width * bytes.nbytes);
+    buffer.asFloatBuffer().get(values, 0, width);
+  }
+
+  /**
+   * Decode a part of a row of a floating point map. Null values are not applied.
+   *
+   * @param row    the row
+   * @param x      the first column
+   * @param width  the number of columns
+   * @param values the array to decode the values into, starting at index 0
+   * @throws IOException if the row could not be read
+   */
+  void readRow(int row, int x, int width, double[] values) throws IOException {
+    RowBytes bytes = readRowBytes(row, x, width);
+    ByteBuffer buffer = ByteBuffer.wrap(bytes.bytes, bytes.offset, width * bytes.nbytes);
+    for (int i = 0; i < width; ++i) {
+      values[i] = bytes.nbytes == 8 ? buffer.getDouble() : buffer.getFloat();
+    }
+  }
+
+  /**
+   * Read the stored bytes of a part of a row, expanded if the row is compressed.
+   */
+  private RowBytes readRowBytes(int row, int x, int width) throws IOException {
+    byte[] bytes;
+    int offset;
+    int rowNbytes = nbytes;
+    if (rowOffsets == null) {
+      bytes = new byte[width * nbytes];
+      data.read(((long) row * cols + x) * nbytes, bytes, 0, bytes.length);
+      offset = 0;
+    } else {
+      int length = (int) (rowOffsets[row + 1] - rowOffsets[row]);
+      if (length < 1) {
+        throw new IOException("Invalid row index in " + data);
+      }
+      byte[] stored = new byte[length];
+      data.read(rowOffsets[row], stored, 0, length);
+      if (floatingPoint) {
+        bytes = expandFloatingPointRow(stored);
+      } else {
+        // compressed integer rows start with their own number of bytes per value
+        rowNbytes = stored[0];
+        if (rowNbytes < 1 || rowNbytes > 4) {
+          throw new IOException("Invalid row " + row + " in " + data);
+        }
+        bytes = expandIntegerRow(stored, rowNbytes);
+      }
+      offset = x * rowNbytes;
+    }
+    return new RowBytes(bytes, offset, rowNbytes);
+  }
+
+  /**
+   * Read the null flags of a row, one bit per column starting with the most significant bit, set for null cells.
+   *
+   * @param row   the row
+   * @param flags the array to read the flags into, of at least (cols + 7) / 8 bytes
+   * @throws IOException if the null file could not be read
+   */
+  void readNullRow(int row, byte[] flags) throws IOException {
+    int size = (cols + 7) / 8;
+    if (nullRowOffsets == null) {
+      nulls.read((long) row * size, flags, 0, size);
+      return;
+    }
+    int length = (int) (nullRowOffsets[row + 1] - nullRowOffsets[row]);
+    if (length == size) {
+      nulls.read(nullRowOffsets[row], flags, 0, size);
+      return;
+    }
+    byte[] stored = new byte[length];
+    nulls.read(nullRowOffsets[row], stored, 0, length);
+    // GRASS compresses null rows with LZ4 regardless of the compression of the data
+    GrassCompression.expand(GrassCompression.LZ4, stored, 0, length, flags, size);
+  }
+
+  private byte[] expandIntegerRow(byte[] stored, int rowNbytes) throws IOException {
+    int size = cols * rowNbytes;
+    int length = stored.length - 1;
+    if (length >= size) {
+      return Arrays.copyOfRange(stored, 1, 1 + size);
+    }
+    byte[] bytes = new byte[size];
+    if (compressor == GrassCompression.RLE) {
+      GrassCompression.expandRle(stored, 1, length, bytes, rowNbytes, size);
+    } else {
+      GrassCompression.expand(compressor, stored, 1, length, bytes, size);
+    }
+    return bytes;
+  }
+
+  private byte[] expandFloatingPointRow(byte[] stored) throws IOException {
+    int size = cols * nbytes;
+    if (stored[0] != COMPRESSED_YES) {
+      return Arrays.copyOfRange(stored, 1, 1 + size);
+    }
+    byte[] bytes = new byte[size];
+    GrassCompression.expand(compressor, stored, 1, stored.length - 1, bytes, size);
+    return bytes;
+  }
+
+  /**
+   * Decode a big endian integer value. Only values of 4 bytes carry a sign, stored in the highest bit.
+   */
+  static int decodeInt(byte[] bytes, int offset, int nbytes) {
+    int first = bytes[offset] & 0xff;
+    boolean negative = nbytes >= 4 && (first & 0x80) != 0;
+    int value = negative ? first & 0x7f : first;
+    for (int i = 1; i < nbytes; ++i) {
+      value = (value << 8) + (bytes[offset + i] & 0xff);
+    }
+    return negative ? -value : value;
+  }
+
+  /**
+   * Read the row index of a compressed file: the number of bytes per offset followed by rows + 1 big endian offsets.
+   */
+  private static long[] readRowOffsets(MappedFile file, int rows) throws IOException {
+    byte[] size = new byte[1];
+    file.read(0, size, 0, 1);
+    int offsetBytes = size[0];
+    if (offsetBytes < 1 || offsetBytes > 8) {
+      throw new IOException("Invalid row index in " + file);
+    }
+    byte[] index = new byte[(rows + 1) * offsetBytes];
+    file.read(1, index, 0, index.length);
+    long[] offsets = new long[rows + 1];
+    for (int i = 0; i <= rows; ++i) {
+      long offset = 0;
+      for (int j = 0; j < offsetBytes; ++j) {
+        offset = (offset << 8) | (index[i * offsetBytes + j] & 0xff);
+      }
+      offsets[i] = offset;
+    }
+    return offsets;
+  }
+
+  /**
+   * Read the range file of an integer map: the smallest and the largest value separated by whitespace.
+   *
+   * @param file the range file
+   * @return the smallest and largest value, null if the file is missing or empty
+   * @throws IOException if the file could not be read
+   */
+  private static int[] readRange(File file) throws IOException {
+    if (!file.isFile()) {
+      return null;
+    }
+    String[] values = new String(Files.readAllBytes(file.toPath()), StandardCharsets.US_ASCII).trim().split("\\s+");
+    if (values.length < 2) {
+      return null;
+    }
+    try {
+      return new int[]{Integer.parseInt(values[0]), Integer.parseInt(values[1])};
+    } catch (NumberFormatException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Read a GRASS key value file, e.g. a cellhd file. Keys are lower case.
+   *
+   * @param file the file
+   * @return the values by key
+   * @throws IOException if the file could not be read
+   */
+  static Map<String, String> readKeyValues(File file) throws IOException {
+    Map<String, String> result = new HashMap<>();
+    for (String line : Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1)) {
+      int colon = line.indexOf(':');
+      if (colon > 0) {
+        result.put(line.substring(0, colon).trim().toLowerCase(Locale.ROOT), line.substring(colon + 1).trim());
+      } else if (!line.trim().isEmpty()) {
+        result.put(line.trim().toLowerCase(Locale.ROOT), "");
+      }
+    }
+    return result;
+  }
+
+  private static String value(Map<String, String> header, String key, File file) throws IOException {
+    String value = header.get(key);
+    if (value == null) {
+      throw new IOException("Missing " + key + " in " + file);
+    }
+    return value;
+  }
+
+  /**
+   * Parse a coordinate of a cellhd file, either a number or degrees, minutes and seconds like 45:30:00N.
+   *
+   * @param value the coordinate
+   * @return the coordinate as number
+   */
+  static double parseCoordinate(String value) {
+    char hemisphere = Character.toUpperCase(value.charAt(value.length() - 1));
+    if ("NSEW".indexOf(hemisphere) < 0) {
+      return Double.parseDouble(value);
+    }
+    String[] parts = value.substring(0, value.length() - 1).split(":");
+    double result = 0;
+    for (int i = parts.length - 1; i >= 0; --i) {
+      result = result / 60 + Double.parseDouble(parts[i]);
+    }
+    return hemisphere == 'S' || hemisphere == 'W' ? -result : result;
+  }
+
+  /**
+   * A read only file mapped into memory in segments, as a single mapping can't exceed 2 GB.
+   */
+  private static final class MappedFile {
+
+    private static final long SEGMENT_SIZE = 1L << 30;
+
+    private final File file;
+
+    private final MappedByteBuffer[] segments;
+
+    private volatile boolean closed;
+
+    MappedFile(File file) throws IOException {
+      this.file = file;
+      try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+        long size = channel.size();
+        segments = new MappedByteBuffer[(int) Math.max((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE, 1)];
+        for (int i = 0; i < segments.length; ++i) {
+          long start = i * SEGMENT_SIZE;
+          segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, size - start));
+        }
+      }
+    }
+
+    /**
+     * Drop the mappings, they are unmapped once they are garbage collected.
+     */
+    void close() {
+      closed = true;
+      Arrays.fill(segments, null);
+    }
+
+    /**
+     * Copy bytes of the file, safe to be called concurrently.
+     */
+    void read(long position, byte[] target, int offset, int length) throws IOException {
+      if (closed) {
+        throw new IOException("Closed " + file);
+      }
+      while (length > 0) {
+        int index = (int) (position / SEGMENT_SIZE);
+        if (index >= segments.length) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        ByteBuffer segment = segments[index].duplicate();
+        int start = (int) (position % SEGMENT_SIZE);
+        if (start >= segment.limit()) {
+          throw new IOException("Unexpected end of " + file);
+        }
+        int count = Math.min(length, segment.limit() - start);
+        segment.position(start);
+        segment.get(target, offset, count);
+        position += count;
+        offset += count;
+        length -= count;
+      }
+    }
+
+    @Override
+    public String toString() {
+      return file.toString();
+    }
+
+  }
+
+  /**
+   * The bytes of a part of a row, starting at an offset, with the number of bytes per value of the row.
+   */
+  private static final class RowBytes {
+
+    private final byte[] bytes;
+
+    private final int offset;
+
+    private final int nbytes;
+
+    RowBytes(byte[] bytes, int offset, int nbytes) {
+      this.bytes = bytes;
+      this.offset = offset;
+      this.nbytes = nbytes;
+    }
+
+  }
+
+  private static final class Entry {
+
+    private final long version;
+
+    private final GrassRasterFile file;
+
+    Entry(long version, GrassRasterFile file) {
+      this.version = version;
+      this.file = file;
+    }
+
+    /**
+     * Release the reference of the cache, the map is closed once no read holds it anymore.
+     */
+    void close() {
+      if (file != null) {
+        file.release();
+      }
+    }
+
+  }
+
+}
@@ -0,0 +1,343 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdalconst.gdalconstConstants;
+import org.geotools.api.data.DataSourceException;
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.ForkJoinPool;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.stream.IntStream;
+
+/**
+ * A GRASS raster map decoded in java, without GDAL. The rows are read from memory mapped files, so reads need no
+ * dataset handles and run fully concurrently, large reads decode their rows in parallel on the common fork join pool.
+ * The values are resampled with nearest neighbour, there are no overviews. Like the GDAL GRASS driver, integer maps
+ * are read as Byte, Int16 or Int32 depending on the number of bytes per value and the range of the map, leaving room
+ * for the nodata value: 255 for Byte, else the smallest value of the type. Nulls of floating point maps are read as
+ * NaN.
+ */
+final class GrassRasterSource implements RasterSource {
+
+  private static final Logger LOGGER = Logging.getLogger(GrassRasterSource.class);
+
+  /**
+   * The minimum number of samples of a read to decode its rows in parallel.
+   */
+  private static final int PARALLEL_SAMPLES = 1 << 16;
+
+  private final File cellhd;
+
+  private final GrassRasterFile raster;
+
+  /**
+   * The GDAL data type of the values.
+   */
+  private final int dataType;
+
+  private final double noData;
+
+  /**
+   * @param cellhd the cellhd file of the map
+   * @param raster the opened map
+   */
+  GrassRasterSource(File cellhd, GrassRasterFile raster) {
+    this.cellhd = cellhd;
+    this.raster = raster;
+    int[] range = raster.getRange();
+    int nbytes = raster.getBytesPerValue();
+    if (raster.isFloatingPoint()) {
+      dataType = nbytes == 8 ? gdalconstConstants.GDT_Float64 : gdalconstConstants.GDT_Float32;
+      noData = Double.NaN;
+    } else if (nbytes == 1 && range != null && range[0] >= 0 && range[1] < 255) {
+      dataType = gdalconstConstants.GDT_Byte;
+      noData = 255;
+    } else if (nbytes == 1
+      || nbytes == 2 && range != null && range[0] > Short.MIN_VALUE && range[1] <= Short.MAX_VALUE) {
+      dataType = gdalconstConstants.GDT_Int16;
+      noData = Short.MIN_VALUE;
+    } else {
+      dataType = gdalconstConstants.GDT_Int32;
+      noData = Integer.MIN_VALUE;
+    }
+  }
+
+  @Override
+  public String getId() {
+    // the headers differ from the ones of the GDAL driver, so don't share cached headers and tiles
+    return "java:" + cellhd.getAbsolutePath();
+  }
+
+  @Override
+  public long getVersion() {
+    return GrassFiles.lastModified(cellhd);
+  }
+
+  @Override
+  public RasterHeader readHeader() {
+    return new RasterHeader("GRASS", raster.getCols(), raster.getRows(), raster.getGeoTransform(), 1, dataType,
+      new int[]{raster.getCols(), 1}, noData, readCrsWkt(), new int[0][]);
+  }
+
+  @Override
+  public boolean read(int level, int[] window, int bufWidth, int bufHeight, int[] bands, DataBuffer buffer,
+                      int lineStride, int bandStride, ReadMetrics metrics) throws IOException {
+    if (level != 0 || bands.length != 1 || bands[0] != 0) {
+      throw new DataSourceException("Unexpected overview level or band of " + cellhd);
+    }
+    double scaleX = window[2] / (double) bufWidth;
+    double scaleY = window[3] / (double) bufHeight;
+    int[] columns = new int[bufWidth];
+    for (int x = 0; x < bufWidth; ++x) {
+      columns[x] = (int) ((x + 0.5) * scaleX);
+    }
+    // decode each source row once, even if several target rows are sampled from it
+    int[] starts = IntStream.range(0, bufHeight)
+      .filter(y -> y == 0 || sourceRow(window, y, scaleY) != sourceRow(window, y - 1, scaleY))
+      .toArray();
+    Object bank = BandTransfer.bankData(buffer, 0);
+    // the runs are split into chunks, each decoding its rows into one row buffer
+    boolean parallel = (long) bufWidth * bufHeight >= PARALLEL_SAMPLES;
+    int chunks = parallel ? Math.min(starts.length, ForkJoinPool.getCommonPoolParallelism() * 4) : 1;
+    IntStream range = IntStream.range(0, chunks);
+    GrassRasterFile file = acquire();
+    try {
+      (parallel ? range.parallel() : range).forEach(chunk -> {
+        RowReader reader = new RowReader(file, window[2]);
+        int last = (int) ((long) starts.length * (chunk + 1) / chunks);
+        for (int i = (int) ((long) starts.length * chunk / chunks); i < last; ++i) {
+          int end = i + 1 < starts.length ? starts[i + 1] : bufHeight;
+          reader.read(sourceRow(window, starts[i], scaleY), window[0]);
+          for (int y = starts[i]; y < end; ++y) {
+            reader.write(bank, y * lineStride, columns);
+          }
+        }
+      });
+    } catch (UncheckedIOException e) {
+      LOGGER.warning("Unable to read tile of " + cellhd + ": " + e.getCause().getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+      return false;
+    } finally {
+      file.release();
+    }
+    return true;
+  }
+
+  /**
+   * @return the map retained for a read, opened again if it has been closed since the source was created
+   * @throws IOException if the map changed its layout since
+   */
+  private GrassRasterFile acquire() throws IOException {
+    if (raster.retain()) {
+      return raster;
+    }
+    GrassRasterFile file = GrassRasterFile.acquire(cellhd);
+    if (file != null && file.hasLayoutOf(raster)) {
+      return file;
+    }
+    if (file != null) {
+      file.release();
+    }
+    throw new IOException(cellhd + " changed while being read");
+  }
+
+  private static int sourceRow(int[] window, int y, double scaleY) {
+    return window[1] + (int) ((y + 0.5) * scaleY);
+  }
+
+  /**
+   * Decodes parts of rows with the nulls applied into a row buffer of the type of the map, and samples them into the
+   * bank of a data buffer without converting the values to double. A reader reuses its row buffer for all rows it
+   * reads, so it must only be used by one thread.
+   */
+  private final class RowReader {
+
+    private final GrassRasterFile file;
+
+    private final int width;
+
+    private final int[] ints;
+
+    private final float[] floats;
+
+    private final double[] doubles;
+
+    private final byte[] flags;
+
+    RowReader(GrassRasterFile file, int width) {
+      this.file = file;
+      this.width = width;
+      ints = file.isFloatingPoint() ? null : new int[width];
+      floats = dataType == gdalconstConstants.GDT_Float32 ? new float[width] : null;
+      doubles = dataType == gdalconstConstants.GDT_Float64 ? new double[width] : null;
+      flags = file.hasNullFile() ? new byte[(file.getCols() + 7) / 8] : null;
+    }
+
+    /**
+     * Decode a part of a row into the row buffer.
+     *
+     * @param row the row
+     * @param x   the first column
+     */
+    void read(int row, int x) {
+      try {
+        if (ints != null) {
+          file.readRow(row, x, width, ints);
+        } else if (floats != null) {
+          file.readRow(row, x, width, floats);
+        } else {
+          file.readRow(row, x, width, doubles);
+        }
+        if (flags != null) {
+          file.readNullRow(row, flags);
+          for (int i = 0; i < width; ++i) {
+            int column = x + i;
+            if ((flags[column >> 3] & (0x80 >> (column & 7))) != 0) {
+              setNull(i);
+            }
+          }
+        } else if (ints != null) {
+          // integer maps without null file use 0 as null
+          for (int i = 0; i < width; ++i) {
+            if (ints[i] == 0) {
+              ints[i] = (int) noData;
+            }
+          }
+        }
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+
+    private void setNull(int i) {
+      if (ints != null) {
+        ints[i] = (int) noData;
+      } else if (floats != null) {
+        floats[i] = Float.NaN;
+      } else {
+        doubles[i] = Double.NaN;
+      }
+    }
+
+    /**
+     * Sample the row buffer into a line of a bank.
+     *
+     * @param bank    the bank
+     * @param offset  the offset of the line in the bank
+     * @param columns the column of the row buffer for each sample of the line
+     */
+    void write(Object bank, int offset, int[] columns) {
+      if (ints != null && bank instanceof byte[]) {
+        byte[] target = (byte[]) bank;
+        for (int x = 0; x < columns.length; ++x) {
+          target[offset + x] = (byte) ints[columns[x]];
+        }
+      } else if (ints != null && bank instanceof short[]) {
+        short[] target = (short[]) bank;
+        for (int x = 0; x < columns.length; ++x) {
+          target[offset + x] = (short) ints[columns[x]];
+        }
+      } else if (ints != null && bank instanceof int[]) {
+        int[] target = (int[]) bank;
+        for (int x = 0; x < columns.length; ++x) {
+          target[offset + x] = ints[columns[x]];
+        }
+      } else if (floats != null && bank instanceof float[]) {
+        float[] target = (float[]) bank;
+        for (int x = 0; x < columns.length; ++x) {
+          target[offset + x] = floats[columns[x]];
+        }
+      } else if (doubles != null && bank instanceof double[]) {
+        double[] target = (double[]) bank;
+        for (int x = 0; x < columns.length; ++x) {
+          target[offset + x] = doubles[columns[x]];
+        }
+      } else {
+        throw new IllegalStateException("Unexpected value: " + bank);
+      }
+    }
+
+  }
+
+  @Override
+  public NullIndex buildNullIndex() throws IOException {
+    if (!raster.hasNullFile()) {
+      return null;
+    }
+    int width = raster.getCols();
+    int height = raster.getRows();
+    NullIndex.Builder builder = NullIndex.builder(width, height);
+    byte[] flags = new byte[(width + 7) / 8];
+    byte[] mask = new byte[width];
+    GrassRasterFile file = acquire();
+    try {
+      for (int y = 0; y < height; ++y) {
+        file.readNullRow(y, flags);
+        for (int x = 0; x < width; ++x) {
+          mask[x] = (byte) ((flags[x >> 3] & (0x80 >> (x & 7))) != 0 ? 0 : 1);
+        }
+        builder.addRows(y, 1, mask);
+      }
+    } finally {
+      file.release();
+    }
+    return builder.build();
+  }
+
+  /**
+   * Determine the CRS of the location from the EPSG code or the WKT GRASS stores in the PERMANENT mapset.
+   *
+   * @return the WKT of the CRS, null if it is unknown
+   */
+  private String readCrsWkt() {
+    File permanent = new File(cellhd.getAbsoluteFile().getParentFile().getParentFile().getParentFile(), "PERMANENT");
+    try {
+      File epsg = new File(permanent, "PROJ_EPSG");
+      if (epsg.isFile()) {
+        String code = GrassRasterFile.readKeyValues(epsg).get("epsg");
+        if (code != null) {
+          return CRS.decode("EPSG:" + code, true).toWKT();
+        }
+      }
+      File wkt = new File(permanent, "PROJ_WKT");
+      if (wkt.isFile()) {
+        String content = new String(Files.readAllBytes(wkt.toPath()), StandardCharsets.UTF_8).trim();
+        CRS.parseWKT(content);
+        return content;
+      }
+    } catch (IOException | FactoryException e) {
+      LOGGER.info("Unable to determine the CRS of " + cellhd + ": " + e.getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+    }
+    return null;
+  }
+
+  @Override
+  public String toString() {
+    return cellhd.toString();
+  }
+
+}
@@ -0,0 +1,216 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Coalesces identical reads running at the same time, e.g. when a tile cache is seeded or many clients request the
+ * same map at once. The first thread reads the window, the others wait for it and copy the result into their own
+ * buffers.
+ */
+class InFlightReads {
+
+  /**
+   * System property to disable coalescing the reads.
+   */
+  static final String ENABLED_PROPERTY = "grass.gdal.coalesceReads";
+
+  private static final InFlightReads INSTANCE = new InFlightReads(
+    Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")));
+
+  private final Map<Key, CompletableFuture<Result>> reads = new ConcurrentHashMap<>();
+
+  private final boolean enabled;
+
+  InFlightReads(boolean enabled) {
+    this.enabled = enabled;
+  }
+
+  /**
+   * @return the JVM wide instance
+   */
+  static InFlightReads getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Read a window, or wait for an identical read already running and copy its result.
+   *
+   * @param key        the key of the read
+   * @param buffer     the single bank data buffer to read into
+   * @param lineStride the number of samples per line in the bank
+   * @param bandStride the number of samples between the first samples of two bands in the bank
+   * @param read       reads the window into the buffer
+   * @param metrics    the metrics to record coalesced reads to, may be null
+   * @return true if the window was read, false if the raster could not be read
+   * @throws IOException if the raster could not be opened
+   */
+  boolean read(Key key, DataBuffer buffer, int lineStride, int bandStride, Read read, ReadMetrics metrics)
+    throws IOException {
+    if (!enabled) {
+      return read.read();
+    }
+    CompletableFuture<Result> own = new CompletableFuture<>();
+    CompletableFuture<Result> running = reads.putIfAbsent(key, own);
+    if (running != null) {
+      Result result = await(running);
+      if (result != null && result.buffer.getDataType() == buffer.getDataType()) {
+        result.copyTo(key, buffer, lineStride, bandStride);
+        if (metrics != null) {
+          metrics.recordCoalesced();
+        }
+        return true;
+      }
+      // the other read failed, try on our own
+      return read.read();
+    }
+    Result result = null;
+    try {
+      boolean done = read.read();
+      if (done) {
+        result = new Result(buffer, lineStride, bandStride);
+      }
+      return done;
+    } finally {
+      reads.remove(key, own);
+      own.complete(result);
+    }
+  }
+
+  private static Result await(CompletableFuture<Result> running) throws IOException {
+    try {
+      return running.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted while waiting for a read", e);
+    } catch (ExecutionException e) {
+      return null;
+    }
+  }
+
+  /**
+   * Reads a window into a buffer.
+   */
+  interface Read {
+
+    /**
+     * @return true if the window was read, false if the raster could not be read
+     * @throws IOException if the raster could not be opened
+     */
+    boolean read() throws IOException;
+
+  }
+
+  /**
+   * Identifies a read of some bands of a window of a raster.
+   */
+  static final class Key {
+
+    private final String id;
+
+    private final long version;
+
+    private final int level;
+
+    private final int[] window;
+
+    private final int width;
+
+    private final int height;
+
+    private final int[] bands;
+
+    private final int hash;
+
+    /**
+     * @param id      the identity of the raster source
+     * @param version the version of the raster
+     * @param level   the resolution level
+     * @param window  the window in the coordinates of the level as x, y, width and height
+     * @param width   the width the window is resampled to
+     * @param height  the height the window is resampled to
+     * @param bands   the zero based indices of the bands
+     */
+    Key(String id, long version, int level, int[] window, int width, int height, int[] bands) {
+      this.id = id;
+      this.version = version;
+      this.level = level;
+      this.window = window.clone();
+      this.width = width;
+      this.height = height;
+      this.bands = bands.clone();
+      this.hash = Objects.hash(id, version, level, Arrays.hashCode(window), width, height, Arrays.hashCode(bands));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return version == key.version && level == key.level && width == key.width && height == key.height
+        && id.equals(key.id) && Arrays.equals(window, key.window) && Arrays.equals(bands, key.bands);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+  }
+
+  /**
+   * The buffer a read has filled. It is not modified after the read, so the waiting threads copy from it directly.
+   */
+  private static final class Result {
+
+    private final DataBuffer buffer;
+
+    private final int lineStride;
+
+    private final int bandStride;
+
+    Result(DataBuffer buffer, int lineStride, int bandStride) {
+      this.buffer = buffer;
+      this.lineStride = lineStride;
+      this.bandStride = bandStride;
+    }
+
+    void copyTo(Key key, DataBuffer target, int targetLineStride, int targetBandStride) {
+      Object source = BandTransfer.bankData(buffer, 0);
+      Object data = BandTransfer.bankData(target, 0);
+      for (int band = 0; band < key.bands.length; ++band) {
+        for (int y = 0; y < key.height; ++y) {
+          System.arraycopy(source, band * bandStride + y * lineStride, data,
+            band * targetBandStride + y * targetLineStride, key.width);
+        }
+      }
+    }
+
+  }
+
+}
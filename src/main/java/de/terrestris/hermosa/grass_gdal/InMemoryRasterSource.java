@@ -0,0 +1,114 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.awt.image.DataBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A raster held in memory, e.g. for tests and benchmarks without GDAL rasters. The values are resampled with nearest
+ * neighbour, there are no overviews.
+ */
+final class InMemoryRasterSource implements RasterSource {
+
+  private static final AtomicLong VERSIONS = new AtomicLong();
+
+  private final String id;
+
+  private final RasterHeader header;
+
+  private final double[][] bands;
+
+  private final long version = VERSIONS.incrementAndGet();
+
+  /**
+   * @param id     the identity of the raster, usually a path it is registered for in {@link RasterSources}
+   * @param header the header, the overview sizes are ignored
+   * @param bands  the values of each band, row by row
+   */
+  InMemoryRasterSource(String id, RasterHeader header, double[][] bands) {
+    if (bands.length != header.getNumBands()) {
+      throw new IllegalArgumentException("Expected " + header.getNumBands() + " bands, got " + bands.length);
+    }
+    for (double[] band : bands) {
+      if (band.length != header.getWidth() * header.getHeight()) {
+        throw new IllegalArgumentException("Expected " + header.getWidth() * header.getHeight() + " values per band");
+      }
+    }
+    this.id = id;
+    this.header = new RasterHeader(header.getDriver(), header.getWidth(), header.getHeight(),
+      header.getGeoTransform(), header.getNumBands(), header.getDataType(), header.getBlockSize(), header.getNoData(),
+      header.getCrsWkt(), new int[0][]);
+    this.bands = bands;
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  @Override
+  public long getVersion() {
+    return version;
+  }
+
+  @Override
+  public RasterHeader readHeader() {
+    return header;
+  }
+
+  @Override
+  public boolean read(int level, int[] window, int bufWidth, int bufHeight, int[] bands, DataBuffer buffer,
+                      int lineStride, int bandStride, ReadMetrics metrics) {
+    double scaleX = window[2] / (double) bufWidth;
+    double scaleY = window[3] / (double) bufHeight;
+    for (int b = 0; b < bands.length; ++b) {
+      double[] values = this.bands[bands[b]];
+      for (int y = 0; y < bufHeight; ++y) {
+        int row = (window[1] + (int) ((y + 0.5) * scaleY)) * header.getWidth();
+        int offset = b * bandStride + y * lineStride;
+        for (int x = 0; x < bufWidth; ++x) {
+          buffer.setElemDouble(offset + x, values[row + window[0] + (int) ((x + 0.5) * scaleX)]);
+        }
+      }
+    }
+    return true;
+  }
+
+  @Override
+  public NullIndex buildNullIndex() {
+    Double noData = header.getNoData();
+    if (noData == null) {
+      return null;
+    }
+    // a pixel is null if it is null in all bands
+    byte[] mask = new byte[header.getWidth() * header.getHeight()];
+    for (double[] values : bands) {
+      for (int i = 0; i < mask.length; ++i) {
+        if (!Double.isNaN(values[i]) && values[i] != noData) {
+          mask[i] = 1;
+        }
+      }
+    }
+    return NullIndex.builder(header.getWidth(), header.getHeight()).addRows(0, header.getHeight(), mask).build();
+  }
+
+  @Override
+  public String toString() {
+    return id;
+  }
+
+}
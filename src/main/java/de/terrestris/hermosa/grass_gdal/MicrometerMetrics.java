@@ -0,0 +1,87 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import io.micrometer.core.instrument.FunctionCounter;
+import io.micrometer.core.instrument.FunctionTimer;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Metrics;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Binds read metrics and the memory usage to the global Micrometer registry. Only loaded if Micrometer is on the
+ * classpath, as it is an optional dependency.
+ */
+final class MicrometerMetrics {
+
+  private static final String PREFIX = "grass.gdal.";
+
+  private static final String TAG = "coverage";
+
+  private static final String STORE_TAG = "store";
+
+  private MicrometerMetrics() {
+  }
+
+  /**
+   * @param metrics the metrics of a coverage
+   */
+  static void bind(ReadMetrics metrics) {
+    MeterRegistry registry = Metrics.globalRegistry;
+    for (ReadMetrics.Stage stage : ReadMetrics.Stage.values()) {
+      FunctionTimer.builder(PREFIX + stage.name().toLowerCase(Locale.ROOT).replace('_', '.'), metrics,
+          m -> m.count(stage), m -> m.millis(stage), TimeUnit.MILLISECONDS)
+        .tag(STORE_TAG, metrics.getStore())
+        .tag(TAG, metrics.getCoverage())
+        .register(registry);
+    }
+    FunctionCounter.builder(PREFIX + "read.bytes", metrics, ReadMetrics::getReadBytes)
+      .baseUnit("bytes")
+      .tag(STORE_TAG, metrics.getStore())
+      .tag(TAG, metrics.getCoverage())
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "cache.hits", metrics, ReadMetrics::getCacheHits)
+      .tag(STORE_TAG, metrics.getStore())
+      .tag(TAG, metrics.getCoverage())
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "cache.misses", metrics, ReadMetrics::getCacheMisses)
+      .tag(STORE_TAG, metrics.getStore())
+      .tag(TAG, metrics.getCoverage())
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "reads.coalesced", metrics, ReadMetrics::getCoalescedReads)
+      .tag(STORE_TAG, metrics.getStore())
+      .tag(TAG, metrics.getCoverage())
+      .register(registry);
+  }
+
+  /**
+   * @param arena the buffer arena
+   */
+  static void bind(BufferArena arena) {
+    MeterRegistry registry = Metrics.globalRegistry;
+    Gauge.builder(PREFIX + "memory.used", arena, BufferArena::getUsedBytes)
+      .baseUnit("bytes")
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "memory.waits", arena, BufferArena::getWaits)
+      .register(registry);
+    FunctionCounter.builder(PREFIX + "memory.rejections", arena, BufferArena::getRejections)
+      .register(registry);
+  }
+
+}
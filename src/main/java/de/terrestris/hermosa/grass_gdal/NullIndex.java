@@ -0,0 +1,123 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.util.BitSet;
+
+/**
+ * Coarse index of the cells of a raster that contain data. The raster is divided into square cells, a cell is marked
+ * if any of its pixels is not null. Windows that only touch unmarked cells are null entirely and need not be read.
+ */
+final class NullIndex {
+
+  /**
+   * The width and height of a cell in pixels.
+   */
+  static final int CELL_SIZE = 64;
+
+  private final int columns;
+
+  private final int rows;
+
+  private final BitSet data;
+
+  private NullIndex(int columns, int rows, BitSet data) {
+    this.columns = columns;
+    this.rows = rows;
+    this.data = data;
+  }
+
+  /**
+   * @param width  the raster width
+   * @param height the raster height
+   * @return a builder to add the rows of the raster to
+   */
+  static Builder builder(int width, int height) {
+    return new Builder(width, height);
+  }
+
+  /**
+   * @param window the window in full resolution coordinates as x, y, width and height
+   * @return true, if all pixels of the window are null
+   */
+  boolean isNull(int[] window) {
+    int column0 = Math.max(window[0] / CELL_SIZE, 0);
+    int row0 = Math.max(window[1] / CELL_SIZE, 0);
+    int column1 = Math.min((window[0] + window[2] - 1) / CELL_SIZE, columns - 1);
+    int row1 = Math.min((window[1] + window[3] - 1) / CELL_SIZE, rows - 1);
+    for (int row = row0; row <= row1; ++row) {
+      int next = data.nextSetBit(row * columns + column0);
+      if (next >= 0 && next <= row * columns + column1) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @return the number of cells containing data
+   */
+  int dataCells() {
+    return data.cardinality();
+  }
+
+  /**
+   * Collects the data cells row by row.
+   */
+  static final class Builder {
+
+    private final int width;
+
+    private final int columns;
+
+    private final int rows;
+
+    private final BitSet data;
+
+    private Builder(int width, int height) {
+      this.width = width;
+      columns = (width + CELL_SIZE - 1) / CELL_SIZE;
+      rows = (height + CELL_SIZE - 1) / CELL_SIZE;
+      data = new BitSet(columns * rows);
+    }
+
+    /**
+     * @param y     the first row
+     * @param count the number of rows
+     * @param mask  the GDAL mask of the rows one after the other, 0 for null pixels
+     * @return this builder
+     */
+    Builder addRows(int y, int count, byte[] mask) {
+      for (int i = 0; i < count; ++i) {
+        int offset = (y + i) / CELL_SIZE * columns;
+        for (int x = 0; x < width; ++x) {
+          if (mask[i * width + x] != 0) {
+            data.set(offset + x / CELL_SIZE);
+            // the rest of the cell needs no checking
+            x = (x / CELL_SIZE + 1) * CELL_SIZE - 1;
+          }
+        }
+      }
+      return this;
+    }
+
+    NullIndex build() {
+      return new NullIndex(columns, rows, data);
+    }
+
+  }
+
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.util.logging.Logging;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * The null indexes of the rasters, shared by all readers. The indexes are built in the background the first time a
+ * raster is read and rebuilt when it changes. Until an index is ready, the raster is read as usual. The indexes of the
+ * least recently read rasters are dropped once more than {@link #MAX_ENTRIES_PROPERTY} rasters are indexed, failed
+ * builds included.
+ */
+class NullIndexCache {
+
+  private static final Logger LOGGER = Logging.getLogger(NullIndexCache.class);
+
+  /**
+   * System property to disable building the null indexes.
+   */
+  static final String ENABLED_PROPERTY = "grass.gdal.nullIndex";
+
+  /**
+   * System property with the maximum number of rasters to keep the null index of.
+   */
+  static final String MAX_ENTRIES_PROPERTY = "grass.gdal.nullIndex.maxEntries";
+
+  private static final NullIndexCache INSTANCE = new NullIndexCache(
+    Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true")),
+    Integer.getInteger(MAX_ENTRIES_PROPERTY, 1024));
+
+  private final Map<String, Entry> entries;
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService executor;
+
+  NullIndexCache(boolean enabled, int maxEntries) {
+    entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+        return size() > maxEntries;
+      }
+    };
+    executor = enabled ? Executors.newSingleThreadExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "grass-gdal-null-index");
+      thread.setDaemon(true);
+      thread.setPriority(Thread.MIN_PRIORITY);
+      return thread;
+    }) : null;
+  }
+
+  /**
+   * @return the JVM wide cache
+   */
+  static NullIndexCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the null index of a raster, scheduling it to be built if it is missing or outdated.
+   *
+   * @param source  the raster source
+   * @param version the version of the raster
+   * @return the index, null if it is not ready or the raster has no usable null regions
+   */
+  NullIndex get(RasterSource source, long version) {
+    if (executor == null) {
+      return null;
+    }
+    String id = source.getId();
+    Entry entry;
+    synchronized (entries) {
+      entry = entries.get(id);
+    }
+    if (entry != null && entry.version == version) {
+      return entry.index;
+    }
+    if (pending.add(id)) {
+      executor.submit(() -> {
+        try {
+          long start = System.currentTimeMillis();
+          NullIndex index = source.buildNullIndex();
+          put(id, new Entry(version, index));
+          LOGGER.fine("Built the null index of " + source + " in " + (System.currentTimeMillis() - start) + "ms");
+        } catch (IOException | RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Unable to build the null index of " + source + ": " + e.getMessage());
+          LOGGER.log(Level.FINE, "Stack trace:", e);
+          // don't try again until the raster changes
+          put(id, new Entry(version, null));
+        } finally {
+          pending.remove(id);
+        }
+      });
+    }
+    return null;
+  }
+
+  private void put(String id, Entry entry) {
+    synchronized (entries) {
+      entries.put(id, entry);
+    }
+  }
+
+  /**
+   * @return the number of rasters with a null index or a failed build
+   */
+  int size() {
+    synchronized (entries) {
+      return entries.size();
+    }
+  }
+
+  private static final class Entry {
+
+    private final long version;
+
+    private final NullIndex index;
+
+    Entry(long version, NullIndex index) {
+      this.version = version;
+      this.index = index;
+    }
+
+  }
+
+}
@@ -0,0 +1,460 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.BuildVRTOptions;
+import org.gdal.gdal.Dataset;
+import org.gdal.gdal.TranslateOptions;
+import org.gdal.gdal.gdal;
+import org.gdal.gdalconst.gdalconstConstants;
+import org.geotools.util.logging.Logging;
+
+import java.awt.image.DataBuffer;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.Vector;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Builds and maintains external overview pyramids for rasters without internal overviews. GRASS maps have no
+ * overviews, and writing .ovr files next to the cellhd file would pollute the mapset, so the pyramids are built for a
+ * VRT wrapping the map in a separate directory. The map is read in chunks of rows to build them, so the calls into the
+ * GRASS driver let other reads in between, and full resolution reads go to the map itself. Alternatively the maps are transcoded into internally tiled Cloud
+ * Optimized GeoTIFFs with overviews, which avoids decompressing whole GRASS rows for small windows at the cost of a
+ * copy of the data. The pyramids are rebuilt in the background when the map changes.
+ */
+class PyramidBuilder {
+
+  private static final Logger LOGGER = Logging.getLogger(PyramidBuilder.class);
+
+  /**
+   * System property with the directory to store the pyramids in. Pyramids are not built if not set.
+   */
+  static final String DIRECTORY_PROPERTY = "grass.gdal.overviews.dir";
+
+  /**
+   * System property with the format of the pyramids, vrt for overviews of a VRT or cog for a Cloud Optimized GeoTIFF
+   * copy of the map.
+   */
+  static final String FORMAT_PROPERTY = "grass.gdal.overviews.format";
+
+  /**
+   * Overviews are added until the smallest one fits into a tile of this size.
+   */
+  private static final int MIN_OVERVIEW_SIZE = 256;
+
+  /**
+   * The maximum number of bytes per band read from a map at once while building its pyramid.
+   */
+  private static final long CHUNK_BYTES = 16L * 1024 * 1024;
+
+  private static final PyramidBuilder INSTANCE = new PyramidBuilder(System.getProperty(DIRECTORY_PROPERTY),
+    "cog".equalsIgnoreCase(System.getProperty(FORMAT_PROPERTY, "vrt")));
+
+  private final File directory;
+
+  private final boolean cog;
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final ExecutorService executor = Executors.newSingleThreadExecutor(runnable -> {
+    Thread thread = new Thread(runnable, "grass-gdal-pyramid-builder");
+    thread.setDaemon(true);
+    thread.setPriority(Thread.MIN_PRIORITY);
+    return thread;
+  });
+
+  PyramidBuilder(String directory) {
+    this(directory, false);
+  }
+
+  /**
+   * @param directory the directory to store the pyramids in, null to disable pyramids
+   * @param cog       true to transcode the maps into Cloud Optimized GeoTIFFs instead of wrapping them in VRTs
+   */
+  PyramidBuilder(String directory, boolean cog) {
+    this.directory = directory == null ? null : new File(directory);
+    this.cog = cog;
+  }
+
+  /**
+   * @return the JVM wide pyramid builder
+   */
+  static PyramidBuilder getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Determine the file to read a raster from. If pyramids are enabled and up to date for the raster, the VRT with the
+   * pyramids is returned, else the raster itself. Missing or outdated pyramids are scheduled to be built.
+   *
+   * @param file the raster file
+   * @return the file to read from
+   */
+  File resolve(File file) {
+    if (directory == null || !GrassFiles.isCellhd(file)) {
+      return file;
+    }
+    File pyramid = pyramidFile(file);
+    if (readyMarker(pyramid).exists()) {
+      return pyramid;
+    }
+    schedule(file, pyramid);
+    return file;
+  }
+
+  /**
+   * Schedule missing or outdated pyramids of the maps of a time series to be built, so they are ready before the maps
+   * are requested.
+   *
+   * @param fileNames the paths of the cellhd files
+   */
+  void prepare(Collection<String> fileNames) {
+    if (directory == null) {
+      return;
+    }
+    for (String fileName : fileNames) {
+      File file = new File(fileName);
+      if (GrassFiles.isCellhd(file)) {
+        File pyramid = pyramidFile(file);
+        if (!readyMarker(pyramid).exists()) {
+          schedule(file, pyramid);
+        }
+      }
+    }
+  }
+
+  private void schedule(File file, File pyramid) {
+    if (pending.add(pyramid.getAbsolutePath())) {
+      executor.submit(() -> {
+        try {
+          if (cog) {
+            transcode(file, pyramid);
+          } else {
+            build(file, pyramid);
+          }
+        } catch (IOException | RuntimeException e) {
+          LOGGER.log(Level.WARNING, "Unable to build overviews for " + file + ": " + e.getMessage());
+          LOGGER.log(Level.FINE, "Stack trace:", e);
+        } finally {
+          pending.remove(pyramid.getAbsolutePath());
+        }
+      });
+    }
+  }
+
+  /**
+   * Determine the source to read a raster from, see {@link #resolve(File)}. The pyramids are written by the datastore
+   * itself, so they are read regardless of the configured GDAL drivers.
+   *
+   * @param file the raster file
+   * @return the source of the pyramid if it is ready, else the source of the raster
+   */
+  RasterSource source(File file) {
+    File pyramid = resolve(file);
+    if (pyramid.equals(file)) {
+      return RasterSources.get(file);
+    }
+    GdalRasterSource source = new GdalRasterSource(pyramid, true);
+    return cog ? source : new OverviewSource(source, RasterSources.get(file));
+  }
+
+  File pyramidFile(File file) {
+    return new File(directory, prefix(file) + GrassFiles.lastModified(file) + (cog ? ".tif" : ".vrt"));
+  }
+
+  private static String prefix(File file) {
+    return Integer.toHexString(file.getAbsolutePath().hashCode()) + "-" + file.getName() + "-";
+  }
+
+  static File readyMarker(File vrt) {
+    return new File(vrt.getAbsolutePath() + ".ready");
+  }
+
+  private void build(File file, File vrt) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    removeOutdated(file, vrt);
+    LOGGER.info("Building overviews for " + file);
+    File overviews = new File(vrt.getAbsolutePath() + ".ovr");
+    int[] levels;
+    try (DatasetPool.PooledDataset pooled = DatasetPool.getInstance().borrow(file)) {
+      int width;
+      int height;
+      try (DatasetPool.Call call = pooled.call()) {
+        Dataset source = pooled.getDataset();
+        width = source.getRasterXSize();
+        height = source.getRasterYSize();
+        BuildVRTOptions options = new BuildVRTOptions(new Vector<>());
+        Dataset dataset = gdal.BuildVRT(vrt.getAbsolutePath(), new Dataset[]{source}, options);
+        options.delete();
+        if (dataset == null) {
+          throw new IOException(gdal.GetLastErrorMsg());
+        }
+        // closing the dataset writes the VRT
+        dataset.delete();
+      }
+      levels = overviewLevels(width, height);
+      if (levels.length > 0) {
+        // the first overview is sampled from the map, GDAL finds it next to the VRT
+        copy(pooled, overviews, (width + 1) / 2, (height + 1) / 2, "TILED=YES", "COMPRESS=DEFLATE");
+      }
+    }
+    if (levels.length > 1) {
+      // the smaller overviews are computed from the first one without calling into the GRASS driver
+      Dataset dataset = gdal.Open(overviews.getAbsolutePath(), gdalconstConstants.GA_Update);
+      if (dataset == null) {
+        throw new IOException(gdal.GetLastErrorMsg());
+      }
+      try {
+        if (dataset.BuildOverviews("NEAREST", Arrays.copyOf(levels, levels.length - 1))
+          != gdalconstConstants.CE_None) {
+          throw new IOException(gdal.GetLastErrorMsg());
+        }
+      } finally {
+        dataset.delete();
+      }
+    }
+    if (!readyMarker(vrt).createNewFile()) {
+      LOGGER.fine("Overviews for " + file + " were already marked as ready.");
+    }
+    LOGGER.info("Built overviews for " + file);
+  }
+
+  /**
+   * Copy a raster into a new GeoTIFF, sampled to the given size with nearest neighbour. The raster is read in chunks
+   * of rows, so other reads of GRASS maps get in between.
+   *
+   * @param pooled  the raster
+   * @param target  the GeoTIFF to write
+   * @param width   the width of the GeoTIFF
+   * @param height  the height of the GeoTIFF
+   * @param options the creation options of the GeoTIFF
+   * @throws IOException if the raster could not be read or the GeoTIFF could not be written
+   */
+  private static void copy(DatasetPool.PooledDataset pooled, File target, int width, int height, String... options)
+    throws IOException {
+    Dataset source = pooled.getDataset();
+    int sourceWidth;
+    int sourceHeight;
+    int count;
+    int type;
+    double[] transform = new double[6];
+    String projection;
+    Double[] noData = new Double[1];
+    try (DatasetPool.Call call = pooled.call()) {
+      sourceWidth = source.getRasterXSize();
+      sourceHeight = source.getRasterYSize();
+      count = source.getRasterCount();
+      type = source.GetRasterBand(1).getDataType();
+      source.GetGeoTransform(transform);
+      projection = source.GetProjectionRef();
+      source.GetRasterBand(1).GetNoDataValue(noData);
+    }
+    double scaleX = sourceWidth / (double) width;
+    double scaleY = sourceHeight / (double) height;
+    transform[1] *= scaleX;
+    transform[2] *= scaleY;
+    transform[4] *= scaleX;
+    transform[5] *= scaleY;
+    Dataset dataset = gdal.GetDriverByName("GTiff").Create(target.getAbsolutePath(), width, height, count, type,
+      options);
+    if (dataset == null) {
+      throw new IOException(gdal.GetLastErrorMsg());
+    }
+    try {
+      dataset.SetGeoTransform(transform);
+      if (projection != null && !projection.isEmpty()) {
+        dataset.SetProjection(projection);
+      }
+      int sampleSize = gdal.GetDataTypeSize(type) / 8;
+      int chunkRows = (int) Math.max(1, Math.min(height, CHUNK_BYTES / ((long) width * sampleSize)));
+      ByteBuffer buffer = ByteBuffer.allocateDirect(width * chunkRows * sampleSize).order(ByteOrder.nativeOrder());
+      for (int b = 1; b <= count; ++b) {
+        if (noData[0] != null) {
+          dataset.GetRasterBand(b).SetNoDataValue(noData[0]);
+        }
+      }
+      for (int y = 0; y < height; y += chunkRows) {
+        int rows = Math.min(chunkRows, height - y);
+        int sourceY = (int) ((long) y * sourceHeight / height);
+        int sourceRows = Math.max(1, (int) ((long) (y + rows) * sourceHeight / height) - sourceY);
+        for (int b = 1; b <= count; ++b) {
+          int result;
+          buffer.clear();
+          try (DatasetPool.Call call = pooled.call()) {
+            result = source.GetRasterBand(b).ReadRaster_Direct(0, sourceY, sourceWidth, sourceRows, width, rows, type,
+              buffer);
+          }
+          if (result != gdalconstConstants.CE_None
+            || dataset.GetRasterBand(b).WriteRaster_Direct(0, y, width, rows, width, rows, type, buffer)
+            != gdalconstConstants.CE_None) {
+            throw new IOException(gdal.GetLastErrorMsg());
+          }
+        }
+      }
+    } finally {
+      // closing the dataset writes the file
+      dataset.delete();
+    }
+  }
+
+  /**
+   * Copy a map into a Cloud Optimized GeoTIFF with overviews. The map is copied into a plain GeoTIFF in chunks of rows
+   * first, which is then transcoded without holding up reads of other GRASS maps. The result is written to a temporary
+   * file first so readers never see a partial file.
+   */
+  private void transcode(File file, File tif) throws IOException {
+    if (!directory.isDirectory() && !directory.mkdirs()) {
+      throw new IOException("Unable to create directory " + directory);
+    }
+    removeOutdated(file, tif);
+    LOGGER.info("Transcoding " + file + " into a Cloud Optimized GeoTIFF");
+    File temporary = new File(tif.getAbsolutePath() + ".tmp");
+    // the map is copied in chunks first, so the transcoding itself doesn't call into the GRASS driver
+    File copy = new File(tif.getAbsolutePath() + ".copy");
+    try {
+      try (DatasetPool.PooledDataset pooled = DatasetPool.getInstance().borrow(file)) {
+        int width;
+        int height;
+        try (DatasetPool.Call call = pooled.call()) {
+          width = pooled.getDataset().getRasterXSize();
+          height = pooled.getDataset().getRasterYSize();
+        }
+        copy(pooled, copy, width, height, "TILED=YES", "BIGTIFF=IF_SAFER");
+      }
+      Dataset source = gdal.Open(copy.getAbsolutePath(), gdalconstConstants.GA_ReadOnly);
+      if (source == null) {
+        throw new IOException(gdal.GetLastErrorMsg());
+      }
+      try {
+        TranslateOptions options = new TranslateOptions(new Vector<>(Arrays.asList("-of", "COG", "-co",
+          "COMPRESS=DEFLATE", "-co", "PREDICTOR=YES", "-co", "BLOCKSIZE=512", "-co", "RESAMPLING=NEAREST", "-co",
+          "OVERVIEWS=AUTO", "-co", "NUM_THREADS=ALL_CPUS")));
+        Dataset dataset = gdal.Translate(temporary.getAbsolutePath(), source, options);
+        options.delete();
+        if (dataset == null) {
+          throw new IOException(gdal.GetLastErrorMsg());
+        }
+        // closing the dataset writes the file
+        dataset.delete();
+      } finally {
+        source.delete();
+      }
+    } finally {
+      if (copy.exists() && !copy.delete()) {
+        LOGGER.fine("Unable to delete " + copy);
+      }
+    }
+    if (!temporary.renameTo(tif)) {
+      throw new IOException("Unable to move " + temporary + " to " + tif);
+    }
+    if (!readyMarker(tif).createNewFile()) {
+      LOGGER.fine("The copy of " + file + " was already marked as ready.");
+    }
+    LOGGER.info("Transcoded " + file);
+  }
+
+  private void removeOutdated(File file, File vrt) {
+    String prefix = prefix(file);
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix) && !name.startsWith(vrt.getName()));
+    if (files == null) {
+      return;
+    }
+    for (File outdated : files) {
+      if (!outdated.delete()) {
+        LOGGER.fine("Unable to delete outdated overview file " + outdated);
+      }
+    }
+  }
+
+  /**
+   * @param width  the raster width
+   * @param height the raster height
+   * @return the power of two decimation factors needed to get down to a single tile
+   */
+  static int[] overviewLevels(int width, int height) {
+    List<Integer> levels = new ArrayList<>();
+    int factor = 2;
+    while (Math.max(width, height) / (factor / 2) > MIN_OVERVIEW_SIZE) {
+      levels.add(factor);
+      factor *= 2;
+    }
+    return levels.stream().mapToInt(Integer::intValue).toArray();
+  }
+
+  /**
+   * The pyramid of a map wrapped in a VRT. The overviews are read from the pyramid, full resolution reads and the null
+   * index go to the map itself, so the VRT never reads the map through the GRASS driver behind the back of the pool.
+   */
+  private static final class OverviewSource implements RasterSource {
+
+    private final RasterSource pyramid;
+
+    private final RasterSource map;
+
+    OverviewSource(RasterSource pyramid, RasterSource map) {
+      this.pyramid = pyramid;
+      this.map = map;
+    }
+
+    @Override
+    public String getId() {
+      return pyramid.getId();
+    }
+
+    @Override
+    public long getVersion() {
+      return pyramid.getVersion();
+    }
+
+    @Override
+    public RasterHeader readHeader() throws IOException {
+      return pyramid.readHeader();
+    }
+
+    @Override
+    public boolean read(int level, int[] window, int bufWidth, int bufHeight, int[] bands, DataBuffer buffer,
+                        int lineStride, int bandStride, ReadMetrics metrics) throws IOException {
+      RasterSource source = level == 0 ? map : pyramid;
+      return source.read(level, window, bufWidth, bufHeight, bands, buffer, lineStride, bandStride, metrics);
+    }
+
+    @Override
+    public NullIndex buildNullIndex() throws IOException {
+      return map.buildNullIndex();
+    }
+
+    @Override
+    public String toString() {
+      return pyramid.toString();
+    }
+
+  }
+
+}
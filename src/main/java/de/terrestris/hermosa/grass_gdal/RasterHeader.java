@@ -0,0 +1,212 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdal.Band;
+import org.gdal.gdal.Dataset;
+import org.gdal.osr.SpatialReference;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * Immutable header information of a raster: size, geotransform, bands, data type, block size, nodata value, CRS and
+ * overview sizes. Headers can be written to and read from a binary stream, so they can be persisted between restarts.
+ */
+final class RasterHeader {
+
+  private final String driver;
+
+  private final int width;
+
+  private final int height;
+
+  private final double[] geoTransform;
+
+  private final int numBands;
+
+  private final int dataType;
+
+  private final int[] blockSize;
+
+  private final Double noData;
+
+  private final String crsWkt;
+
+  private final int[][] overviewSizes;
+
+  RasterHeader(String driver, int width, int height, double[] geoTransform, int numBands, int dataType,
+               int[] blockSize, Double noData, String crsWkt, int[][] overviewSizes) {
+    this.driver = driver;
+    this.width = width;
+    this.height = height;
+    this.geoTransform = geoTransform.clone();
+    this.numBands = numBands;
+    this.dataType = dataType;
+    this.blockSize = blockSize.clone();
+    this.noData = noData;
+    this.crsWkt = crsWkt;
+    this.overviewSizes = overviewSizes;
+  }
+
+  /**
+   * Read the header of an open dataset.
+   *
+   * @param dataset the GDAL dataset
+   * @return the header
+   */
+  static RasterHeader read(Dataset dataset) {
+    double[] transform = new double[6];
+    dataset.GetGeoTransform(transform);
+    String crsWkt = null;
+    String projRef = dataset.GetProjectionRef();
+    if (projRef != null && !projRef.isEmpty()) {
+      SpatialReference spatialReference = new SpatialReference(projRef);
+      crsWkt = spatialReference.ExportToPrettyWkt();
+      spatialReference.delete();
+    }
+    Band band = dataset.GetRasterBand(1);
+    int[][] overviewSizes = new int[band.GetOverviewCount()][];
+    for (int i = 0; i < overviewSizes.length; ++i) {
+      Band overview = band.GetOverview(i);
+      overviewSizes[i] = new int[]{overview.GetXSize(), overview.GetYSize()};
+    }
+    Double[] noData = new Double[1];
+    band.GetNoDataValue(noData);
+    return new RasterHeader(dataset.GetDriver().getShortName(), dataset.getRasterXSize(), dataset.getRasterYSize(),
+      transform, dataset.getRasterCount(), band.getDataType(), new int[]{band.GetBlockXSize(), band.GetBlockYSize()},
+      noData[0], crsWkt, overviewSizes);
+  }
+
+  /**
+   * @param in the stream to read from
+   * @return the header, as written by {@link #write(DataOutput)}
+   * @throws IOException if the stream could not be read
+   */
+  static RasterHeader read(DataInput in) throws IOException {
+    String driver = in.readUTF();
+    int width = in.readInt();
+    int height = in.readInt();
+    double[] transform = new double[6];
+    for (int i = 0; i < transform.length; ++i) {
+      transform[i] = in.readDouble();
+    }
+    int numBands = in.readInt();
+    int dataType = in.readInt();
+    int[] blockSize = new int[]{in.readInt(), in.readInt()};
+    Double noData = in.readBoolean() ? in.readDouble() : null;
+    String crsWkt = in.readBoolean() ? in.readUTF() : null;
+    int[][] overviewSizes = new int[in.readInt()][];
+    for (int i = 0; i < overviewSizes.length; ++i) {
+      overviewSizes[i] = new int[]{in.readInt(), in.readInt()};
+    }
+    return new RasterHeader(driver, width, height, transform, numBands, dataType, blockSize, noData, crsWkt,
+      overviewSizes);
+  }
+
+  /**
+   * @param out the stream to write to
+   * @throws IOException if the stream could not be written
+   */
+  void write(DataOutput out) throws IOException {
+    out.writeUTF(driver);
+    out.writeInt(width);
+    out.writeInt(height);
+    for (double value : geoTransform) {
+      out.writeDouble(value);
+    }
+    out.writeInt(numBands);
+    out.writeInt(dataType);
+    out.writeInt(blockSize[0]);
+    out.writeInt(blockSize[1]);
+    out.writeBoolean(noData != null);
+    if (noData != null) {
+      out.writeDouble(noData);
+    }
+    out.writeBoolean(crsWkt != null);
+    if (crsWkt != null) {
+      out.writeUTF(crsWkt);
+    }
+    out.writeInt(overviewSizes.length);
+    for (int[] size : overviewSizes) {
+      out.writeInt(size[0]);
+      out.writeInt(size[1]);
+    }
+  }
+
+  /**
+   * @return the short name of the GDAL driver that opened the raster
+   */
+  String getDriver() {
+    return driver;
+  }
+
+  int getWidth() {
+    return width;
+  }
+
+  int getHeight() {
+    return height;
+  }
+
+  /**
+   * @return a copy of the GDAL geotransform
+   */
+  double[] getGeoTransform() {
+    return geoTransform.clone();
+  }
+
+  int getNumBands() {
+    return numBands;
+  }
+
+  /**
+   * @return the GDAL data type of the first band
+   */
+  int getDataType() {
+    return dataType;
+  }
+
+  /**
+   * @return a copy of the block width and height of the first band, GDAL reads and caches whole blocks
+   */
+  int[] getBlockSize() {
+    return blockSize.clone();
+  }
+
+  /**
+   * @return the nodata value of the first band, null if it has none
+   */
+  Double getNoData() {
+    return noData;
+  }
+
+  /**
+   * @return the CRS as pretty WKT, null if the raster has none
+   */
+  String getCrsWkt() {
+    return crsWkt;
+  }
+
+  /**
+   * @return the width and height of each overview of the first band
+   */
+  int[][] getOverviewSizes() {
+    return overviewSizes;
+  }
+
+}
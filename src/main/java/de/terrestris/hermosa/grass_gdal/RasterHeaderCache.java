@@ -0,0 +1,205 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.referencing.FactoryException;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.referencing.CRS;
+import org.geotools.util.logging.Logging;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Cache of raster headers shared by all readers, so the header of a raster is only read again once it changed. The
+ * entries are keyed by the identity of the raster source and validated against its version. If a file is configured,
+ * the cache is persisted and loaded again on startup. Decoded CRSs are shared by WKT, as parsing WKT is expensive, too.
+ */
+class RasterHeaderCache {
+
+  private static final Logger LOGGER = Logging.getLogger(RasterHeaderCache.class);
+
+  /**
+   * System property with the file to persist the headers in. The headers are only kept in memory if not set.
+   */
+  static final String FILE_PROPERTY = "grass.gdal.headerCache.file";
+
+  private static final int FORMAT_VERSION = 3;
+
+  /**
+   * Number of seconds to wait after a change before the cache is written, so a burst of new entries during startup is
+   * written only once.
+   */
+  private static final int SAVE_DELAY = 10;
+
+  private static final RasterHeaderCache INSTANCE = new RasterHeaderCache(System.getProperty(FILE_PROPERTY));
+
+  private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+
+  private final Map<String, Optional<CoordinateReferenceSystem>> crsByWkt = new ConcurrentHashMap<>();
+
+  private final File file;
+
+  private final AtomicBoolean dirty = new AtomicBoolean();
+
+  private final ScheduledExecutorService executor;
+
+  RasterHeaderCache(String file) {
+    this.file = file == null ? null : new File(file);
+    if (this.file == null) {
+      executor = null;
+      return;
+    }
+    load();
+    executor = Executors.newSingleThreadScheduledExecutor(runnable -> {
+      Thread thread = new Thread(runnable, "grass-gdal-header-cache");
+      thread.setDaemon(true);
+      return thread;
+    });
+    Runtime.getRuntime().addShutdownHook(new Thread(this::save, "grass-gdal-header-cache-shutdown"));
+  }
+
+  /**
+   * @return the JVM wide header cache
+   */
+  static RasterHeaderCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * Get the header of a raster, reading it from the source if it is not cached or outdated.
+   *
+   * @param source the raster source
+   * @return the header
+   * @throws IOException if the raster could not be opened
+   */
+  RasterHeader get(RasterSource source) throws IOException {
+    String id = source.getId();
+    long version = source.getVersion();
+    Entry entry = entries.get(id);
+    if (entry != null && entry.version == version) {
+      return entry.header;
+    }
+    RasterHeader header = source.readHeader();
+    entries.put(id, new Entry(version, header));
+    if (executor != null && dirty.compareAndSet(false, true)) {
+      executor.schedule(this::save, SAVE_DELAY, TimeUnit.SECONDS);
+    }
+    return header;
+  }
+
+  /**
+   * Decode the CRS of a header. The result is shared by all headers with the same WKT.
+   *
+   * @param header the raster header
+   * @return the CRS, null if the header has none or it could not be parsed
+   */
+  CoordinateReferenceSystem getCrs(RasterHeader header) {
+    if (header.getCrsWkt() == null) {
+      return null;
+    }
+    return crsByWkt.computeIfAbsent(header.getCrsWkt(), wkt -> {
+      try {
+        return Optional.of(CRS.parseWKT(wkt));
+      } catch (FactoryException e) {
+        LOGGER.info("CRS WKT could not be parsed, ignoring.");
+        LOGGER.log(Level.FINE, "Stack trace:", e);
+        return Optional.empty();
+      }
+    }).orElse(null);
+  }
+
+  private void load() {
+    if (!file.isFile()) {
+      return;
+    }
+    try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+      if (in.readInt() != FORMAT_VERSION) {
+        LOGGER.info("Ignoring header cache " + file + " written by a different version.");
+        return;
+      }
+      int count = in.readInt();
+      for (int i = 0; i < count; ++i) {
+        String path = in.readUTF();
+        long version = in.readLong();
+        entries.put(path, new Entry(version, RasterHeader.read(in)));
+      }
+      LOGGER.fine("Loaded " + count + " raster headers from " + file);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to load header cache " + file + ": " + e.getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+    }
+  }
+
+  private synchronized void save() {
+    if (!dirty.getAndSet(false)) {
+      return;
+    }
+    Map<String, Entry> snapshot = new HashMap<>(entries);
+    File temp = new File(file.getAbsolutePath() + ".tmp");
+    try {
+      File parent = file.getAbsoluteFile().getParentFile();
+      if (!parent.isDirectory() && !parent.mkdirs()) {
+        throw new IOException("Unable to create directory " + parent);
+      }
+      try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(snapshot.size());
+        for (Map.Entry<String, Entry> entry : snapshot.entrySet()) {
+          out.writeUTF(entry.getKey());
+          out.writeLong(entry.getValue().version);
+          entry.getValue().header.write(out);
+        }
+      }
+      Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      LOGGER.log(Level.WARNING, "Unable to save header cache " + file + ": " + e.getMessage());
+      LOGGER.log(Level.FINE, "Stack trace:", e);
+    }
+  }
+
+  private static final class Entry {
+
+    private final long version;
+
+    private final RasterHeader header;
+
+    Entry(long version, RasterHeader header) {
+      this.version = version;
+      this.header = header;
+    }
+
+  }
+
+}
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.awt.image.DataBuffer;
+import java.io.IOException;
+
+/**
+ * A raster the reader reads its header and pixels from. Implementations must be safe to use from several threads.
+ *
+ * @see RasterSources
+ */
+interface RasterSource {
+
+  /**
+   * @return the identity of the raster, e.g. the absolute path, used to key cached headers and tiles
+   */
+  String getId();
+
+  /**
+   * @return the version of the raster, e.g. its modification time, used to invalidate cached headers and tiles
+   */
+  long getVersion();
+
+  /**
+   * @return the header of the raster
+   * @throws IOException if the raster could not be opened or is not supported
+   */
+  RasterHeader readHeader() throws IOException;
+
+  /**
+   * Read a window of some bands, resampled to the buffer size, into a band sequential single bank data buffer.
+   *
+   * @param level      the resolution level, 0 for full resolution, else the overview index of the header plus one
+   * @param window     the window in the coordinates of the level as x, y, width and height
+   * @param bufWidth   the width of the target window
+   * @param bufHeight  the height of the target window
+   * @param bands      the zero based indices of the bands to read
+   * @param buffer     the data buffer, the first band starts at the beginning of the bank
+   * @param lineStride the number of samples per line in the target bank
+   * @param bandStride the number of samples between the first samples of two bands in the target bank
+   * @param metrics    the metrics to record the time spent opening the raster to, may be null
+   * @return true if the window was read, false if the raster could not be read
+   * @throws IOException if the raster could not be opened
+   */
+  boolean read(int level, int[] window, int bufWidth, int bufHeight, int[] bands, DataBuffer buffer, int lineStride,
+               int bandStride, ReadMetrics metrics) throws IOException;
+
+  /**
+   * Build the index of the null regions of the raster. This may scan the whole raster.
+   *
+   * @return the index, null if the raster has no null values or its bands have different null regions
+   * @throws IOException if the raster could not be read
+   */
+  NullIndex buildNullIndex() throws IOException;
+
+}
@@ -0,0 +1,76 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Resolves the raster files of single maps and time series to raster sources. Sources registered for a path take
+ * precedence. GRASS maps are decoded in java if the java engine is selected and supports the map, all other files are
+ * read with GDAL.
+ */
+final class RasterSources {
+
+  /**
+   * System property selecting the engine to read GRASS maps with, {@code gdal} or {@code java}.
+   */
+  static final String ENGINE_PROPERTY = "grass.gdal.engine";
+
+  private static final boolean JAVA_ENGINE = "java".equalsIgnoreCase(System.getProperty(ENGINE_PROPERTY, "gdal"));
+
+  private static final Map<String, RasterSource> REGISTERED = new ConcurrentHashMap<>();
+
+  private RasterSources() {
+  }
+
+  /**
+   * @param file the raster file
+   * @return the source registered for the file, else a java or GDAL source
+   */
+  static RasterSource get(File file) {
+    RasterSource source = REGISTERED.get(file.getAbsolutePath());
+    if (source != null) {
+      return source;
+    }
+    if (JAVA_ENGINE && GrassFiles.isCellhd(file)) {
+      GrassRasterFile raster = GrassRasterFile.get(file);
+      if (raster != null) {
+        return new GrassRasterSource(file, raster);
+      }
+    }
+    return new GdalRasterSource(file, false);
+  }
+
+  /**
+   * Serve a raster from the given source instead of reading the file with GDAL.
+   *
+   * @param file   the raster file, it need not exist
+   * @param source the source
+   */
+  static void register(File file, RasterSource source) {
+    REGISTERED.put(file.getAbsolutePath(), source);
+  }
+
+  /**
+   * @param file the raster file to read with GDAL again
+   */
+  static void unregister(File file) {
+    REGISTERED.remove(file.getAbsolutePath());
+  }
+
+}
@@ -0,0 +1,364 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.awt.image.DataBuffer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Bounded LRU cache of decoded raster windows, shared by all readers. Entries are keyed by raster file, resolution
+ * level, source window, output size and band, and are tied to the modification time of the raster, so changed rasters
+ * are never served from the cache. The latest version is only remembered for rasters with cached windows.
+ */
+class RasterWindowCache {
+
+  /**
+   * System property with the cache size in megabytes. The cache is disabled if set to 0.
+   */
+  static final String SIZE_PROPERTY = "grass.gdal.cache.size";
+
+  /**
+   * System property to store the cached windows in direct buffers outside the java heap.
+   */
+  static final String OFF_HEAP_PROPERTY = "grass.gdal.cache.offHeap";
+
+  private static final RasterWindowCache INSTANCE = new RasterWindowCache(
+    Long.getLong(SIZE_PROPERTY, 64L) * 1024 * 1024,
+    Boolean.getBoolean(OFF_HEAP_PROPERTY)
+  );
+
+  private final Map<Key, Window> windows = new LinkedHashMap<>(16, 0.75f, true);
+
+  private final Map<String, Version> versions = new HashMap<>();
+
+  private final long maxBytes;
+
+  private final boolean offHeap;
+
+  private long bytes;
+
+  RasterWindowCache(long maxBytes, boolean offHeap) {
+    this.maxBytes = maxBytes;
+    this.offHeap = offHeap;
+  }
+
+  /**
+   * @return the JVM wide cache
+   */
+  static RasterWindowCache getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return true, if the cache may hold any windows
+   */
+  boolean isEnabled() {
+    return maxBytes > 0;
+  }
+
+  /**
+   * Copy a cached window into a single bank data buffer.
+   *
+   * @param key        the key of the window
+   * @param buffer     the target data buffer
+   * @param offset     the offset of the first sample of the window in the bank
+   * @param lineStride the number of samples per line in the target bank
+   * @return true, if the window was found in the cache
+   */
+  boolean get(Key key, DataBuffer buffer, int offset, int lineStride) {
+    Window window;
+    synchronized (this) {
+      Version current = versions.get(key.path);
+      if (current == null || !checkVersion(key, current)) {
+        return false;
+      }
+      window = windows.get(key);
+      if (window == null || !window.retain()) {
+        return false;
+      }
+    }
+    try {
+      if (window.dataType != buffer.getDataType()) {
+        return false;
+      }
+      window.copyTo(BandTransfer.bankData(buffer, 0), offset, key.width, key.height, lineStride);
+      return true;
+    } finally {
+      window.release();
+    }
+  }
+
+  /**
+   * Store a copy of a window read into a single bank data buffer.
+   *
+   * @param key        the key of the window
+   * @param buffer     the data buffer holding the window
+   * @param offset     the offset of the first sample of the window in the bank
+   * @param lineStride the number of samples per line in the bank
+   */
+  void put(Key key, DataBuffer buffer, int offset, int lineStride) {
+    long size = (long) key.width * key.height * BandTransfer.bytesPerSample(buffer.getDataType());
+    if (size > maxBytes) {
+      return;
+    }
+    ByteBuffer direct = null;
+    if (offHeap) {
+      if (!BufferArena.getInstance().tryReserve(size)) {
+        return;
+      }
+      direct = ByteBuffer.allocateDirect((int) size).order(ByteOrder.nativeOrder());
+    }
+    Window window = new Window(buffer.getDataType(), BandTransfer.bankData(buffer, 0), offset, key.width, key.height,
+      lineStride, direct);
+    synchronized (this) {
+      Version current = versions.get(key.path);
+      if (current != null && !checkVersion(key, current)) {
+        window.release();
+        return;
+      }
+      current = versions.get(key.path);
+      if (current == null) {
+        current = new Version(key.version);
+        versions.put(key.path, current);
+      }
+      Window previous = windows.put(key, window);
+      if (previous != null) {
+        bytes -= previous.bytes;
+        previous.release();
+      } else {
+        ++current.windows;
+      }
+      bytes += window.bytes;
+      Iterator<Map.Entry<Key, Window>> iterator = windows.entrySet().iterator();
+      while (bytes > maxBytes && iterator.hasNext()) {
+        Map.Entry<Key, Window> evicted = iterator.next();
+        iterator.remove();
+        removed(evicted.getKey(), evicted.getValue());
+      }
+    }
+  }
+
+  /**
+   * Remove all windows of a raster file.
+   *
+   * @param path the absolute path of the raster file
+   */
+  synchronized void invalidate(String path) {
+    Iterator<Map.Entry<Key, Window>> iterator = windows.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<Key, Window> entry = iterator.next();
+      if (entry.getKey().path.equals(path)) {
+        iterator.remove();
+        removed(entry.getKey(), entry.getValue());
+      }
+    }
+    versions.remove(path);
+  }
+
+  /**
+   * Account for a window removed from the cache and forget the version of its raster with its last window.
+   */
+  private void removed(Key key, Window window) {
+    bytes -= window.bytes;
+    window.release();
+    Version version = versions.get(key.path);
+    if (version != null && --version.windows <= 0) {
+      versions.remove(key.path);
+    }
+  }
+
+  /**
+   * @return the number of rasters whose version is remembered
+   */
+  synchronized int getVersionCount() {
+    return versions.size();
+  }
+
+  /**
+   * @return the number of bytes currently held by the cache
+   */
+  synchronized long getBytes() {
+    return bytes;
+  }
+
+  /**
+   * Drops the windows of a raster once a newer version of it is seen.
+   *
+   * @param current the remembered version of the raster
+   * @return false, if the key refers to an outdated version of the raster
+   */
+  private boolean checkVersion(Key key, Version current) {
+    if (current.version > key.version) {
+      return false;
+    }
+    if (current.version < key.version) {
+      invalidate(key.path);
+    }
+    return true;
+  }
+
+  /**
+   * The latest version of a raster and the number of its cached windows.
+   */
+  private static final class Version {
+
+    private final long version;
+
+    private int windows;
+
+    Version(long version) {
+      this.version = version;
+    }
+
+  }
+
+  /**
+   * Identifies a window read from a band of a raster.
+   */
+  static final class Key {
+
+    private final String path;
+
+    private final long version;
+
+    private final int level;
+
+    private final int[] window;
+
+    private final int width;
+
+    private final int height;
+
+    private final int band;
+
+    private final int hash;
+
+    /**
+     * @param path    the absolute path of the raster file
+     * @param version the modification time of the raster
+     * @param level   the resolution level the window is read from, 0 for full resolution
+     * @param window  the source window as x, y, width and height
+     * @param width   the width the window is resampled to
+     * @param height  the height the window is resampled to
+     * @param band    the band index
+     */
+    Key(String path, long version, int level, int[] window, int width, int height, int band) {
+      this.path = path;
+      this.version = version;
+      this.level = level;
+      this.window = window.clone();
+      this.width = width;
+      this.height = height;
+      this.band = band;
+      this.hash = Objects.hash(path, version, level, Arrays.hashCode(window), width, height, band);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return version == key.version && level == key.level && width == key.width && height == key.height && band == key.band
+        && path.equals(key.path) && Arrays.equals(window, key.window);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+
+  }
+
+  /**
+   * A cached window, packed without line padding, either in a java array or in a direct buffer reserved in the
+   * {@link BufferArena}. Direct buffers are copied to and from the data buffer bank without staging the samples in a
+   * java array. The reservation is returned to the arena once the window is evicted and no longer copied from.
+   */
+  private static final class Window {
+
+    private final int dataType;
+
+    private final Object array;
+
+    private final ByteBuffer direct;
+
+    private final long bytes;
+
+    /**
+     * The references held by the cache and by threads copying from the window.
+     */
+    private final AtomicInteger references = new AtomicInteger(1);
+
+    Window(int dataType, Object source, int offset, int width, int height, int lineStride, ByteBuffer direct) {
+      this.dataType = dataType;
+      this.bytes = (long) width * height * BandTransfer.bytesPerSample(dataType);
+      this.direct = direct;
+      if (direct != null) {
+        BandTransfer.copy(source, offset, width, height, lineStride, direct);
+        array = null;
+        return;
+      }
+      array = BandTransfer.createArray(dataType, width * height);
+      for (int y = 0; y < height; ++y) {
+        System.arraycopy(source, offset + y * lineStride, array, y * width, width);
+      }
+    }
+
+    /**
+     * @return false, if the window has been released already
+     */
+    boolean retain() {
+      int count = references.get();
+      while (count > 0) {
+        if (references.compareAndSet(count, count + 1)) {
+          return true;
+        }
+        count = references.get();
+      }
+      return false;
+    }
+
+    void release() {
+      if (references.decrementAndGet() == 0 && direct != null) {
+        BufferArena.getInstance().unreserve(direct.capacity());
+      }
+    }
+
+    void copyTo(Object target, int offset, int width, int height, int lineStride) {
+      if (array == null) {
+        BandTransfer.copy(direct.duplicate().order(direct.order()), target, offset, width, height, lineStride);
+        return;
+      }
+      for (int y = 0; y < height; ++y) {
+        System.arraycopy(array, y * width, target, offset + y * lineStride, width);
+      }
+    }
+
+  }
+
+}
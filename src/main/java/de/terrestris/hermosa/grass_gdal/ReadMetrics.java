@@ -0,0 +1,227 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.util.logging.Logging;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Timers and counters of the stages of reading a coverage. The metrics of each coverage of a store are registered as
+ * MBean {@code de.terrestris.hermosa.grass_gdal:type=ReadMetrics,store=...,coverage=...} and, if Micrometer is
+ * available, in its global registry tagged with the store and the coverage.
+ */
+class ReadMetrics implements ReadMetricsMXBean {
+
+  private static final Logger LOGGER = Logging.getLogger(ReadMetrics.class);
+
+  /**
+   * System property to disable recording the metrics.
+   */
+  static final String ENABLED_PROPERTY = "grass.gdal.metrics";
+
+  private static final boolean ENABLED = Boolean.parseBoolean(System.getProperty(ENABLED_PROPERTY, "true"));
+
+  private static final Map<List<String>, ReadMetrics> INSTANCES = new ConcurrentHashMap<>();
+
+  /**
+   * The timed stages.
+   */
+  enum Stage {
+    POOL_WAIT, OPEN, READ, COVERAGE
+  }
+
+  private final String store;
+
+  private final String coverage;
+
+  private final LongAdder[] counts = new LongAdder[Stage.values().length];
+
+  private final LongAdder[] nanos = new LongAdder[Stage.values().length];
+
+  private final LongAdder readBytes = new LongAdder();
+
+  private final LongAdder cacheHits = new LongAdder();
+
+  private final LongAdder cacheMisses = new LongAdder();
+
+  private final LongAdder coalescedReads = new LongAdder();
+
+  ReadMetrics(String store, String coverage) {
+    this.store = store;
+    this.coverage = coverage;
+    for (int i = 0; i < counts.length; ++i) {
+      counts[i] = new LongAdder();
+      nanos[i] = new LongAdder();
+    }
+  }
+
+  /**
+   * @param store    the path of the store, as coverages of different stores may have the same name
+   * @param coverage the coverage name
+   * @return the metrics of the coverage, registered on first use, null if metrics are disabled
+   */
+  static ReadMetrics forCoverage(String store, String coverage) {
+    if (!ENABLED) {
+      return null;
+    }
+    return INSTANCES.computeIfAbsent(Arrays.asList(store, coverage), key -> {
+      ReadMetrics metrics = new ReadMetrics(store, coverage);
+      metrics.register();
+      return metrics;
+    });
+  }
+
+  private void register() {
+    try {
+      ManagementFactory.getPlatformMBeanServer().registerMBean(this, new ObjectName(
+        "de.terrestris.hermosa.grass_gdal:type=ReadMetrics,store=" + ObjectName.quote(store) + ",coverage="
+          + ObjectName.quote(coverage)));
+    } catch (JMException e) {
+      LOGGER.log(Level.FINE, "Unable to register the read metrics of " + coverage + " via JMX", e);
+    }
+    try {
+      Class.forName("io.micrometer.core.instrument.Metrics", false, ReadMetrics.class.getClassLoader());
+    } catch (ClassNotFoundException e) {
+      return;
+    }
+    MicrometerMetrics.bind(this);
+  }
+
+  /**
+   * Record the duration of a stage.
+   *
+   * @param metrics the metrics to record to, may be null
+   * @param stage   the stage
+   * @param start   the start of the stage as returned by {@link System#nanoTime()}
+   */
+  static void record(ReadMetrics metrics, Stage stage, long start) {
+    if (metrics != null) {
+      metrics.counts[stage.ordinal()].increment();
+      metrics.nanos[stage.ordinal()].add(System.nanoTime() - start);
+    }
+  }
+
+  /**
+   * @param bytes the number of bytes read from a raster
+   */
+  void recordBytes(long bytes) {
+    readBytes.add(bytes);
+  }
+
+  /**
+   * @param hit true if a tile was served from the tile cache
+   */
+  void recordCache(boolean hit) {
+    (hit ? cacheHits : cacheMisses).increment();
+  }
+
+  /**
+   * Record a tile copied from an identical read of another thread.
+   */
+  void recordCoalesced() {
+    coalescedReads.increment();
+  }
+
+  long count(Stage stage) {
+    return counts[stage.ordinal()].sum();
+  }
+
+  double millis(Stage stage) {
+    return nanos[stage.ordinal()].sum() / (double) TimeUnit.MILLISECONDS.toNanos(1);
+  }
+
+  @Override
+  public String getStore() {
+    return store;
+  }
+
+  @Override
+  public String getCoverage() {
+    return coverage;
+  }
+
+  @Override
+  public long getPoolWaitCount() {
+    return count(Stage.POOL_WAIT);
+  }
+
+  @Override
+  public double getPoolWaitMillis() {
+    return millis(Stage.POOL_WAIT);
+  }
+
+  @Override
+  public long getOpenCount() {
+    return count(Stage.OPEN);
+  }
+
+  @Override
+  public double getOpenMillis() {
+    return millis(Stage.OPEN);
+  }
+
+  @Override
+  public long getReadCount() {
+    return count(Stage.READ);
+  }
+
+  @Override
+  public double getReadMillis() {
+    return millis(Stage.READ);
+  }
+
+  @Override
+  public long getReadBytes() {
+    return readBytes.sum();
+  }
+
+  @Override
+  public long getCacheHits() {
+    return cacheHits.sum();
+  }
+
+  @Override
+  public long getCacheMisses() {
+    return cacheMisses.sum();
+  }
+
+  @Override
+  public long getCoalescedReads() {
+    return coalescedReads.sum();
+  }
+
+  @Override
+  public long getCoverageCount() {
+    return count(Stage.COVERAGE);
+  }
+
+  @Override
+  public double getCoverageMillis() {
+    return millis(Stage.COVERAGE);
+  }
+
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+/**
+ * The read statistics of a coverage as exposed via JMX. All values are totals since the start of the JVM.
+ */
+public interface ReadMetricsMXBean {
+
+  /**
+   * @return the path of the store the coverage is read from
+   */
+  String getStore();
+
+  /**
+   * @return the coverage the statistics are recorded for
+   */
+  String getCoverage();
+
+  /**
+   * @return the number of dataset handles borrowed from the pool
+   */
+  long getPoolWaitCount();
+
+  /**
+   * @return the time spent waiting for a free dataset handle
+   */
+  double getPoolWaitMillis();
+
+  /**
+   * @return the number of GDAL datasets opened
+   */
+  long getOpenCount();
+
+  /**
+   * @return the time spent opening GDAL datasets
+   */
+  double getOpenMillis();
+
+  /**
+   * @return the number of tiles read from the rasters
+   */
+  long getReadCount();
+
+  /**
+   * @return the time spent reading tiles from the rasters, including waiting for and opening datasets
+   */
+  double getReadMillis();
+
+  /**
+   * @return the number of bytes of the tiles read from the rasters
+   */
+  long getReadBytes();
+
+  /**
+   * @return the number of tiles served from the tile cache
+   */
+  long getCacheHits();
+
+  /**
+   * @return the number of tiles not found in the tile cache
+   */
+  long getCacheMisses();
+
+  /**
+   * @return the number of tiles copied from an identical read of another thread instead of being read again
+   */
+  long getCoalescedReads();
+
+  /**
+   * @return the number of coverages created
+   */
+  long getCoverageCount();
+
+  /**
+   * @return the time spent creating coverages from the lazily read images, not reading their pixels
+   */
+  double getCoverageMillis();
+
+}
@@ -0,0 +1,396 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import lombok.Cleanup;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.locationtech.jts.geom.Envelope;
+import org.sqlite.SQLiteConfig;
+
+import java.io.File;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Immutable snapshot of the space time raster datasets registered in a GRASS temporal database (tgis/sqlite.db). The
+ * whole catalog is loaded with a fixed number of queries, independent of the number of maps. When a newer snapshot is
+ * loaded, the time indexes of unchanged datasets are taken over from the previous one.
+ */
+final class StrdsCatalog {
+
+  private static final Pattern CMD_REGEXP = Pattern.compile("maps=\"(.[^\"]*)\"");
+
+  private static final String DATASET_SQL = "select id, command from strds_metadata";
+
+  private static final String MAPS_SQL = "select b.id, b.name, b.mapset, t.start_time, t.end_time, "
+    + "s.west, s.south, s.east, s.north "
+    + "from raster_base b left join raster_absolute_time t on t.id = b.id "
+    + "left join raster_spatial_extent s on s.id = b.id "
+    + "where b.temporal_type = 'absolute'";
+
+  /**
+   * The semantic labels of the maps, called band references before GRASS 8.
+   */
+  private static final String[] SEMANTIC_LABEL_SQL = new String[]{
+    "select id, semantic_label as label from raster_metadata where semantic_label is not null",
+    "select id, band_reference as label from raster_metadata where band_reference is not null"
+  };
+
+  static {
+    try {
+      // on some systems, the sqlite driver isn't loaded automatically for some reason
+      Class.forName("org.sqlite.JDBC");
+    } catch (ClassNotFoundException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  private final Map<String, List<String>> rasters;
+
+  private final Map<String, String> fileNames;
+
+  private final Map<String, List<Instant>> times;
+
+  private final Map<String, String> semanticLabels;
+
+  private final Map<String, double[]> extents;
+
+  private final Map<String, List<String>> idsByName;
+
+  private final Map<String, TemporalIndex<String>> temporalIndexes;
+
+  /**
+   * The time indexes of the maps of a STRDS with a semantic label, built on first use.
+   */
+  private final Map<List<String>, TemporalIndex<String>> labelIndexes = new ConcurrentHashMap<>();
+
+  /**
+   * The time domains of the STRDS, built on first use and taken over from the previous snapshot if unchanged.
+   */
+  private final Map<String, TimeDomain> timeDomains = new ConcurrentHashMap<>();
+
+  /**
+   * The granules of the STRDS, built on first use.
+   */
+  private final Map<String, StrdsGranuleSource> granuleSources = new ConcurrentHashMap<>();
+
+  /**
+   * @param rasters        the map names by STRDS id
+   * @param fileNames      the absolute cellhd paths by map id
+   * @param times          the start and end times by map id
+   * @param semanticLabels the semantic labels by map id, e.g. S2_4 for the red band of Sentinel 2
+   * @param extents        the west, south, east and north bounds in the CRS of the location by map id
+   * @param previous       the previous snapshot to take unchanged time indexes from, may be null
+   */
+  StrdsCatalog(Map<String, List<String>> rasters, Map<String, String> fileNames, Map<String, List<Instant>> times,
+               Map<String, String> semanticLabels, Map<String, double[]> extents, StrdsCatalog previous) {
+    this.rasters = Collections.unmodifiableMap(new LinkedHashMap<>(rasters));
+    this.fileNames = Collections.unmodifiableMap(new LinkedHashMap<>(fileNames));
+    this.times = Collections.unmodifiableMap(new LinkedHashMap<>(times));
+    this.semanticLabels = Collections.unmodifiableMap(new HashMap<>(semanticLabels));
+    this.extents = Collections.unmodifiableMap(new HashMap<>(extents));
+    Map<String, List<String>> ids = new HashMap<>();
+    for (Map.Entry<String, String> entry : fileNames.entrySet()) {
+      ids.computeIfAbsent(new File(entry.getValue()).getName(), name -> new ArrayList<>()).add(entry.getKey());
+    }
+    this.idsByName = ids;
+    this.temporalIndexes = Collections.unmodifiableMap(buildTemporalIndexes(previous));
+    if (previous != null) {
+      for (Map.Entry<String, TimeDomain> entry : previous.timeDomains.entrySet()) {
+        if (temporalIndexes.get(entry.getKey()) == previous.temporalIndexes.get(entry.getKey())) {
+          timeDomains.put(entry.getKey(), entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * @return a catalog without any STRDS
+   */
+  static StrdsCatalog empty() {
+    return new StrdsCatalog(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyMap(),
+      Collections.emptyMap(), Collections.emptyMap(), null);
+  }
+
+  /**
+   * Load the catalog of a temporal database.
+   *
+   * @param db the tgis/sqlite.db file, located in the tgis directory of a mapset
+   * @return the catalog
+   * @throws SQLException if the database could not be read
+   */
+  static StrdsCatalog load(File db) throws SQLException {
+    return load(db, null);
+  }
+
+  /**
+   * Load a newer snapshot of the catalog of a temporal database.
+   *
+   * @param db       the tgis/sqlite.db file, located in the tgis directory of a mapset
+   * @param previous the previous snapshot, may be null
+   * @return the catalog
+   * @throws SQLException if the database could not be read
+   */
+  static StrdsCatalog load(File db, StrdsCatalog previous) throws SQLException {
+    SQLiteConfig sqLiteConfig = new SQLiteConfig();
+    sqLiteConfig.setReadOnly(true);
+    Properties properties = sqLiteConfig.toProperties();
+    properties.setProperty(SQLiteConfig.Pragma.DATE_STRING_FORMAT.pragmaName, "yyyy-MM-dd HH:mm:ss");
+    File location = db.getAbsoluteFile().getParentFile().getParentFile().getParentFile();
+
+    Map<String, List<String>> rasters = new LinkedHashMap<>();
+    Map<String, String> fileNames = new LinkedHashMap<>();
+    Map<String, List<Instant>> times = new LinkedHashMap<>();
+    Map<String, String> semanticLabels = new HashMap<>();
+    Map<String, double[]> extents = new HashMap<>();
+    @Cleanup Connection conn = DriverManager.getConnection("jdbc:sqlite:" + db.getAbsolutePath(), properties);
+    try (PreparedStatement stmt = conn.prepareStatement(DATASET_SQL); ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        Matcher matcher = CMD_REGEXP.matcher(rs.getString("command"));
+        if (matcher.find()) {
+          rasters.put(rs.getString("id"), Arrays.asList(matcher.group(1).split(",")));
+        }
+      }
+    }
+    try (PreparedStatement stmt = conn.prepareStatement(MAPS_SQL); ResultSet rs = stmt.executeQuery()) {
+      while (rs.next()) {
+        String id = rs.getString("id");
+        File mapset = new File(location, rs.getString("mapset"));
+        fileNames.put(id, new File(new File(mapset, "cellhd"), rs.getString("name")).getAbsolutePath());
+        double west = rs.getDouble("west");
+        if (!rs.wasNull()) {
+          extents.put(id, new double[]{west, rs.getDouble("south"), rs.getDouble("east"), rs.getDouble("north")});
+        }
+        Timestamp start = rs.getTimestamp("start_time");
+        if (start == null) {
+          continue;
+        }
+        Timestamp end = rs.getTimestamp("end_time");
+        Instant startTime = Instant.ofEpochMilli(start.getTime());
+        Instant endTime = end == null ? startTime : Instant.ofEpochMilli(end.getTime());
+        times.put(id, Arrays.asList(startTime, endTime));
+      }
+    }
+    for (String sql : SEMANTIC_LABEL_SQL) {
+      try (PreparedStatement stmt = conn.prepareStatement(sql); ResultSet rs = stmt.executeQuery()) {
+        while (rs.next()) {
+          semanticLabels.put(rs.getString("id"), rs.getString("label"));
+        }
+        break;
+      } catch (SQLException e) {
+        // the column doesn't exist in this version of the temporal database
+      }
+    }
+    return new StrdsCatalog(rasters, fileNames, times, semanticLabels, extents, previous);
+  }
+
+  private Map<String, TemporalIndex<String>> buildTemporalIndexes(StrdsCatalog previous) {
+    Map<String, TemporalIndex<String>> result = new HashMap<>();
+    for (Map.Entry<String, List<String>> coverage : rasters.entrySet()) {
+      if (previous != null && isUnchanged(coverage.getKey(), previous)) {
+        result.put(coverage.getKey(), previous.temporalIndexes.get(coverage.getKey()));
+      } else {
+        result.put(coverage.getKey(), buildTemporalIndex(coverage.getValue(), null));
+      }
+    }
+    return result;
+  }
+
+  /**
+   * @return true, if the dataset has the same maps with the same files and times in both snapshots
+   */
+  private boolean isUnchanged(String coverageName, StrdsCatalog previous) {
+    List<String> names = rasters.get(coverageName);
+    if (!names.equals(previous.rasters.get(coverageName))) {
+      return false;
+    }
+    int count = 0;
+    for (String name : names) {
+      for (String id : idsByName.getOrDefault(name, Collections.emptyList())) {
+        if (!times.containsKey(id)) {
+          continue;
+        }
+        if (!fileNames.get(id).equals(previous.fileNames.get(id)) || !times.get(id).equals(previous.times.get(id))) {
+          return false;
+        }
+        ++count;
+      }
+    }
+    return count == previous.temporalIndexes.get(coverageName).size();
+  }
+
+  /**
+   * @param names the map names of a STRDS
+   * @param label the semantic label of the maps to index, null for all maps
+   */
+  private TemporalIndex<String> buildTemporalIndex(List<String> names, String label) {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    for (String name : names) {
+      for (String id : idsByName.getOrDefault(name, Collections.emptyList())) {
+        List<Instant> time = times.get(id);
+        if (time != null && (label == null || label.equals(semanticLabels.get(id)))) {
+          builder.add(time.get(0), time.get(1), fileNames.get(id));
+        }
+      }
+    }
+    return builder.build();
+  }
+
+  /**
+   * @return the map names by STRDS id
+   */
+  Map<String, List<String>> getRasters() {
+    return rasters;
+  }
+
+  /**
+   * @return the absolute cellhd paths by map id
+   */
+  Map<String, String> getFileNames() {
+    return fileNames;
+  }
+
+  /**
+   * @return the start and end times by map id
+   */
+  Map<String, List<Instant>> getTimes() {
+    return times;
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @return the time index of the STRDS, null if unknown
+   */
+  TemporalIndex<String> getTemporalIndex(String coverageName) {
+    return temporalIndexes.get(coverageName);
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @param label        the semantic label, null for all maps
+   * @return the time index of the maps of the STRDS with the semantic label, null if the STRDS is unknown
+   */
+  TemporalIndex<String> getTemporalIndex(String coverageName, String label) {
+    if (label == null) {
+      return getTemporalIndex(coverageName);
+    }
+    List<String> names = rasters.get(coverageName);
+    if (names == null) {
+      return null;
+    }
+    return labelIndexes.computeIfAbsent(Arrays.asList(coverageName, label), key -> buildTemporalIndex(names, label));
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @return the sorted semantic labels of the maps of the STRDS, empty if the maps have none
+   */
+  List<String> getSemanticLabels(String coverageName) {
+    Set<String> result = new TreeSet<>();
+    for (String name : rasters.getOrDefault(coverageName, Collections.emptyList())) {
+      for (String id : idsByName.getOrDefault(name, Collections.emptyList())) {
+        String label = semanticLabels.get(id);
+        if (label != null) {
+          result.add(label);
+        }
+      }
+    }
+    return new ArrayList<>(result);
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @return the time domain of the STRDS, null if the STRDS is unknown or has no maps with time
+   */
+  TimeDomain getTimeDomain(String coverageName) {
+    TimeDomain domain = timeDomains.get(coverageName);
+    if (domain == null) {
+      domain = TimeDomain.of(getTemporalIndex(coverageName));
+      if (domain != null) {
+        timeDomains.put(coverageName, domain);
+      }
+    }
+    return domain;
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @param crs          the CRS of the location
+   * @param fallback     the footprint of maps without registered extent
+   * @return the granules of the maps of the STRDS in this snapshot, null if the STRDS is unknown
+   */
+  StrdsGranuleSource getGranuleSource(String coverageName, CoordinateReferenceSystem crs, Envelope fallback) {
+    if (coverageName == null || !rasters.containsKey(coverageName)) {
+      return null;
+    }
+    return granuleSources.computeIfAbsent(coverageName, name -> new StrdsGranuleSource(name, this, crs, fallback));
+  }
+
+  /**
+   * @param coverageName the STRDS id
+   * @return the ids of the maps of the STRDS, empty if the STRDS is unknown
+   */
+  List<String> getMapIds(String coverageName) {
+    List<String> result = new ArrayList<>();
+    for (String name : rasters.getOrDefault(coverageName, Collections.emptyList())) {
+      result.addAll(idsByName.getOrDefault(name, Collections.emptyList()));
+    }
+    return result;
+  }
+
+  /**
+   * @param id the map id
+   * @return the semantic label of the map, null if it has none
+   */
+  String getSemanticLabel(String id) {
+    return semanticLabels.get(id);
+  }
+
+  /**
+   * @param id the map id
+   * @return the west, south, east and north bounds of the map, null if they are not registered
+   */
+  double[] getExtent(String id) {
+    double[] extent = extents.get(id);
+    return extent == null ? null : extent.clone();
+  }
+
+  /**
+   * @return the map to read if no time was requested, null if the catalog is empty
+   */
+  String getDefaultFileName() {
+    return fileNames.isEmpty() ? null : fileNames.values().iterator().next();
+  }
+
+}
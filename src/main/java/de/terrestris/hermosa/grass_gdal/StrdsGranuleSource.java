@@ -0,0 +1,356 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.data.Query;
+import org.geotools.api.feature.simple.SimpleFeature;
+import org.geotools.api.feature.simple.SimpleFeatureType;
+import org.geotools.api.filter.And;
+import org.geotools.api.filter.BinaryComparisonOperator;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.filter.PropertyIsBetween;
+import org.geotools.api.filter.PropertyIsEqualTo;
+import org.geotools.api.filter.PropertyIsGreaterThan;
+import org.geotools.api.filter.PropertyIsGreaterThanOrEqualTo;
+import org.geotools.api.filter.PropertyIsLessThan;
+import org.geotools.api.filter.PropertyIsLessThanOrEqualTo;
+import org.geotools.api.filter.expression.Expression;
+import org.geotools.api.filter.expression.Literal;
+import org.geotools.api.filter.expression.PropertyName;
+import org.geotools.api.referencing.crs.CoordinateReferenceSystem;
+import org.geotools.coverage.grid.GeneralGridEnvelope;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.coverage.grid.io.GranuleSource;
+import org.geotools.data.collection.ListFeatureCollection;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.feature.simple.SimpleFeatureBuilder;
+import org.geotools.feature.simple.SimpleFeatureTypeBuilder;
+import org.geotools.filter.visitor.ExtractBoundsFilterVisitor;
+import org.geotools.geometry.GeneralBounds;
+import org.geotools.geometry.jts.JTS;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.geotools.util.Converters;
+import org.locationtech.jts.geom.Envelope;
+import org.locationtech.jts.geom.Polygon;
+import org.locationtech.jts.index.strtree.STRtree;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The maps of a STRDS as granules with their own footprint, time and semantic label. The granules are built once per
+ * catalog snapshot from the registered extents, so no map needs to be opened. The candidates of a query are taken from
+ * the most selective of an STR tree of the footprints, a time index and the granules by semantic label, as far as the
+ * filter constrains them with a conjunction of comparisons. The complete filter is only evaluated on the candidates.
+ */
+final class StrdsGranuleSource implements GranuleSource {
+
+  static final String GEOMETRY = "the_geom";
+
+  static final String LOCATION = "location";
+
+  static final String NAME = "name";
+
+  static final String START_TIME = "start_time";
+
+  static final String END_TIME = "end_time";
+
+  static final String SEMANTIC_LABEL = "semantic_label";
+
+  private final SimpleFeatureType schema;
+
+  private final List<SimpleFeature> granules;
+
+  private final STRtree index = new STRtree();
+
+  private final TemporalIndex<SimpleFeature> timeIndex;
+
+  private final Map<String, List<SimpleFeature>> granulesByLabel = new HashMap<>();
+
+  private final ReferencedEnvelope bounds;
+
+  /**
+   * The grid of the granules at the resolution it was last requested at, null if not requested yet.
+   */
+  private GridGeometry2D grid;
+
+  private double[] gridResolution;
+
+  /**
+   * @param coverageName the STRDS id
+   * @param catalog      the catalog snapshot
+   * @param crs          the CRS of the location
+   * @param fallback     the footprint of maps without registered extent
+   */
+  StrdsGranuleSource(String coverageName, StrdsCatalog catalog, CoordinateReferenceSystem crs, Envelope fallback) {
+    SimpleFeatureTypeBuilder typeBuilder = new SimpleFeatureTypeBuilder();
+    typeBuilder.setName(coverageName.replace('@', '_'));
+    typeBuilder.add(GEOMETRY, Polygon.class, crs);
+    typeBuilder.add(LOCATION, String.class);
+    typeBuilder.add(NAME, String.class);
+    typeBuilder.add(START_TIME, Date.class);
+    typeBuilder.add(END_TIME, Date.class);
+    typeBuilder.add(SEMANTIC_LABEL, String.class);
+    typeBuilder.setDefaultGeometry(GEOMETRY);
+    schema = typeBuilder.buildFeatureType();
+
+    List<String> ids = new ArrayList<>(catalog.getMapIds(coverageName));
+    ids.removeIf(id -> catalog.getTimes().get(id) == null);
+    ids.sort(Comparator.comparing(id -> catalog.getTimes().get(id).get(0)));
+    List<SimpleFeature> features = new ArrayList<>();
+    bounds = new ReferencedEnvelope(crs);
+    SimpleFeatureBuilder builder = new SimpleFeatureBuilder(schema);
+    TemporalIndex.Builder<SimpleFeature> timeBuilder = TemporalIndex.builder();
+    for (String id : ids) {
+      double[] extent = catalog.getExtent(id);
+      Envelope footprint = extent == null ? fallback : new Envelope(extent[0], extent[2], extent[1], extent[3]);
+      List<Instant> time = catalog.getTimes().get(id);
+      String fileName = catalog.getFileNames().get(id);
+      builder.set(GEOMETRY, JTS.toGeometry(footprint));
+      builder.set(LOCATION, fileName);
+      builder.set(NAME, new File(fileName).getName());
+      builder.set(START_TIME, Date.from(time.get(0)));
+      builder.set(END_TIME, Date.from(time.get(1)));
+      builder.set(SEMANTIC_LABEL, catalog.getSemanticLabel(id));
+      SimpleFeature feature = builder.buildFeature(id);
+      index.insert(footprint, feature);
+      timeBuilder.add(time.get(0), time.get(1), feature);
+      String label = catalog.getSemanticLabel(id);
+      if (label != null) {
+        granulesByLabel.computeIfAbsent(label, key -> new ArrayList<>()).add(feature);
+      }
+      features.add(feature);
+      bounds.expandToInclude(footprint);
+    }
+    index.build();
+    timeIndex = timeBuilder.build();
+    granules = Collections.unmodifiableList(features);
+  }
+
+  @Override
+  public SimpleFeatureCollection getGranules(Query query) {
+    return new ListFeatureCollection(schema, select(query));
+  }
+
+  @Override
+  public int getCount(Query query) {
+    return select(query).size();
+  }
+
+  /**
+   * The grid covering the union of the footprints of the granules, snapped to the given resolution. It is computed
+   * once per snapshot, as the reader asks for it with every request.
+   *
+   * @param resx the width of a cell
+   * @param resy the height of a cell
+   * @return the grid, null if there are no granules
+   */
+  synchronized GridGeometry2D getGrid(double resx, double resy) {
+    if (bounds.isNull()) {
+      return null;
+    }
+    if (grid == null || gridResolution[0] != resx || gridResolution[1] != resy) {
+      // tolerate rounding errors of the registered extents
+      int columns = Math.max((int) Math.ceil(bounds.getWidth() / resx - 1e-6), 1);
+      int rows = Math.max((int) Math.ceil(bounds.getHeight() / resy - 1e-6), 1);
+      GeneralBounds envelope = new GeneralBounds(new double[]{bounds.getMinX(), bounds.getMaxY() - rows * resy},
+        new double[]{bounds.getMinX() + columns * resx, bounds.getMaxY()});
+      envelope.setCoordinateReferenceSystem(bounds.getCoordinateReferenceSystem());
+      grid = new GridGeometry2D(new GeneralGridEnvelope(new int[]{0, 0}, new int[]{columns, rows}, false), envelope);
+      gridResolution = new double[]{resx, resy};
+    }
+    return grid;
+  }
+
+  @Override
+  public ReferencedEnvelope getBounds(Query query) {
+    if (query == null || query.getFilter() == null || query.getFilter() == Filter.INCLUDE) {
+      return bounds;
+    }
+    ReferencedEnvelope result = new ReferencedEnvelope(bounds.getCoordinateReferenceSystem());
+    for (SimpleFeature granule : select(query)) {
+      result.expandToInclude(((Polygon) granule.getDefaultGeometry()).getEnvelopeInternal());
+    }
+    return result;
+  }
+
+  @Override
+  public SimpleFeatureType getSchema() {
+    return schema;
+  }
+
+  @Override
+  public void dispose() {
+    // the granules belong to the catalog snapshot and are released with it
+  }
+
+  /**
+   * @return the granules matching the query in the order of their start time
+   */
+  @SuppressWarnings("unchecked")
+  private List<SimpleFeature> select(Query query) {
+    Filter filter = query == null || query.getFilter() == null ? Filter.INCLUDE : query.getFilter();
+    if (filter == Filter.EXCLUDE) {
+      return Collections.emptyList();
+    }
+    List<SimpleFeature> candidates = granules;
+    Constraints constraints = new Constraints();
+    constraints.add(filter);
+    if (constraints.label != null) {
+      candidates = granulesByLabel.getOrDefault(constraints.label, Collections.emptyList());
+    }
+    if (constraints.from != null || constraints.to != null) {
+      List<SimpleFeature> hits = timeIndex.query(
+        constraints.from == null ? Instant.ofEpochMilli(Long.MIN_VALUE) : constraints.from,
+        constraints.to == null ? Instant.ofEpochMilli(Long.MAX_VALUE) : constraints.to);
+      if (hits.size() < candidates.size()) {
+        candidates = hits;
+      }
+    }
+    Envelope filterBounds = (Envelope) filter.accept(ExtractBoundsFilterVisitor.BOUNDS_VISITOR, null);
+    if (filterBounds != null && !filterBounds.isNull() && !Double.isInfinite(filterBounds.getWidth())
+      && !Double.isInfinite(filterBounds.getHeight())) {
+      List<SimpleFeature> hits = new ArrayList<>(index.query(filterBounds));
+      if (hits.size() < candidates.size()) {
+        hits.sort(Comparator.comparing(granule -> (Date) granule.getAttribute(START_TIME)));
+        candidates = hits;
+      }
+    }
+    int offset = query == null || query.getStartIndex() == null ? 0 : query.getStartIndex();
+    int max = query == null || query.isMaxFeaturesUnlimited() ? Integer.MAX_VALUE : query.getMaxFeatures();
+    List<SimpleFeature> result = new ArrayList<>();
+    for (SimpleFeature granule : candidates) {
+      if (result.size() >= max) {
+        break;
+      }
+      if (filter == Filter.INCLUDE || filter.evaluate(granule)) {
+        if (offset > 0) {
+          --offset;
+        } else {
+          result.add(granule);
+        }
+      }
+    }
+    return result;
+  }
+
+  /**
+   * The bounds a filter puts on the time and the semantic label of the granules. Only comparisons combined with and
+   * narrow the bounds, the bounds include all granules the filter may match.
+   */
+  private static final class Constraints {
+
+    /**
+     * The granules end at or after this time.
+     */
+    private Instant from;
+
+    /**
+     * The granules start at or before this time.
+     */
+    private Instant to;
+
+    private String label;
+
+    void add(Filter filter) {
+      if (filter instanceof And) {
+        for (Filter child : ((And) filter).getChildren()) {
+          add(child);
+        }
+      } else if (filter instanceof PropertyIsBetween) {
+        PropertyIsBetween between = (PropertyIsBetween) filter;
+        String property = propertyName(between.getExpression());
+        Instant lower = instant(between.getLowerBoundary());
+        Instant upper = instant(between.getUpperBoundary());
+        if (START_TIME.equals(property) || END_TIME.equals(property)) {
+          // start <= end, so bounds on either one bound the end from below and the start from above
+          addFrom(lower);
+          addTo(upper);
+        }
+      } else if (filter instanceof BinaryComparisonOperator) {
+        addComparison((BinaryComparisonOperator) filter);
+      }
+    }
+
+    private void addComparison(BinaryComparisonOperator comparison) {
+      String property = propertyName(comparison.getExpression1());
+      Expression value = comparison.getExpression2();
+      boolean flipped = false;
+      if (property == null) {
+        property = propertyName(comparison.getExpression2());
+        value = comparison.getExpression1();
+        flipped = true;
+      }
+      if (property == null || !(value instanceof Literal)) {
+        return;
+      }
+      boolean lessThan = comparison instanceof PropertyIsLessThan || comparison instanceof PropertyIsLessThanOrEqualTo;
+      boolean greaterThan = comparison instanceof PropertyIsGreaterThan
+        || comparison instanceof PropertyIsGreaterThanOrEqualTo;
+      if (flipped) {
+        boolean swap = lessThan;
+        lessThan = greaterThan;
+        greaterThan = swap;
+      }
+      if (SEMANTIC_LABEL.equals(property) && comparison instanceof PropertyIsEqualTo) {
+        Object label = ((Literal) value).getValue();
+        this.label = label == null ? null : label.toString();
+      } else if (START_TIME.equals(property) || END_TIME.equals(property)) {
+        Instant time = instant(value);
+        boolean equal = comparison instanceof PropertyIsEqualTo;
+        if (equal || greaterThan) {
+          addFrom(time);
+        }
+        if (equal || lessThan) {
+          addTo(time);
+        }
+      }
+    }
+
+    private void addFrom(Instant time) {
+      if (time != null && (from == null || time.isAfter(from))) {
+        from = time;
+      }
+    }
+
+    private void addTo(Instant time) {
+      if (time != null && (to == null || time.isBefore(to))) {
+        to = time;
+      }
+    }
+
+    private static String propertyName(Expression expression) {
+      return expression instanceof PropertyName ? ((PropertyName) expression).getPropertyName() : null;
+    }
+
+    private static Instant instant(Expression expression) {
+      if (!(expression instanceof Literal)) {
+        return null;
+      }
+      Date date = Converters.convert(((Literal) expression).getValue(), Date.class);
+      return date == null ? null : date.toInstant();
+    }
+
+  }
+
+}
@@ -0,0 +1,320 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Immutable index of the time intervals of the maps of a time series. The intervals are sorted by start time, a
+ * binary tree over the sorted intervals holds the latest end of each subtree, so lookups descend only into subtrees
+ * with intervals ending after the requested time. A long early interval thus doesn't make lookups scan all intervals
+ * starting after it: an instant is found in O(log n), a query returning k intervals takes O(k log n).
+ * <p>
+ * Lookup rules:
+ * <ul>
+ *   <li>an instant resolves to the containing interval with the latest start (intervals include both ends)</li>
+ *   <li>a range resolves to the interval containing its start, else to the earliest interval starting within the
+ *   range</li>
+ *   <li>if nothing matches, the nearest interval is used, preferring the earlier one if both are equally far</li>
+ * </ul>
+ *
+ * @param <T> the type of the values, e.g. map ids
+ */
+final class TemporalIndex<T> {
+
+  private final long[] starts;
+
+  private final long[] ends;
+
+  /**
+   * Index of the interval with the latest end among all intervals up to and including the position.
+   */
+  private final int[] maxEnds;
+
+  /**
+   * The latest end of the intervals of each subtree. Node 1 is the root covering all positions, the children of node i
+   * are 2i and 2i + 1, the leaves start at {@link #leaves}. Positions without interval end at Long.MIN_VALUE.
+   */
+  private final long[] tree;
+
+  private final int leaves;
+
+  private final List<T> values;
+
+  private TemporalIndex(List<Interval<T>> intervals) {
+    intervals.sort(Comparator.<Interval<T>>comparingLong(interval -> interval.start)
+      .thenComparingLong(interval -> interval.end));
+    int size = intervals.size();
+    starts = new long[size];
+    ends = new long[size];
+    maxEnds = new int[size];
+    List<T> list = new ArrayList<>(size);
+    for (int i = 0; i < size; ++i) {
+      Interval<T> interval = intervals.get(i);
+      starts[i] = interval.start;
+      ends[i] = interval.end;
+      maxEnds[i] = i > 0 && ends[maxEnds[i - 1]] >= ends[i] ? maxEnds[i - 1] : i;
+      list.add(interval.value);
+    }
+    values = Collections.unmodifiableList(list);
+    leaves = Integer.highestOneBit(Math.max(size, 1) * 2 - 1);
+    tree = new long[2 * leaves];
+    Arrays.fill(tree, Long.MIN_VALUE);
+    System.arraycopy(ends, 0, tree, leaves, size);
+    for (int node = leaves - 1; node > 0; --node) {
+      tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+    }
+  }
+
+  /**
+   * @param <T> the type of the values
+   * @return a builder for a new index
+   */
+  static <T> Builder<T> builder() {
+    return new Builder<>();
+  }
+
+  /**
+   * @return the number of intervals
+   */
+  int size() {
+    return values.size();
+  }
+
+  /**
+   * @return the values, ordered by start time
+   */
+  List<T> values() {
+    return values;
+  }
+
+  /**
+   * @param i the position in start time order
+   * @return the start of the interval
+   */
+  Instant start(int i) {
+    return Instant.ofEpochMilli(starts[i]);
+  }
+
+  /**
+   * @param i the position in start time order
+   * @return the end of the interval, equal to the start for instants
+   */
+  Instant end(int i) {
+    return Instant.ofEpochMilli(ends[i]);
+  }
+
+  /**
+   * Find the map for an instant.
+   *
+   * @param time the requested time
+   * @return the matching value, null if the index is empty
+   */
+  T find(Instant time) {
+    int position = findPosition(time.toEpochMilli());
+    return position < 0 ? null : values.get(position);
+  }
+
+  /**
+   * Find the map for a time range.
+   *
+   * @param from the start of the range
+   * @param to   the end of the range
+   * @return the matching value, null if the index is empty
+   */
+  T find(Instant from, Instant to) {
+    int position = findPosition(from.toEpochMilli(), to.toEpochMilli());
+    return position < 0 ? null : values.get(position);
+  }
+
+  /**
+   * Find all maps intersecting a time range.
+   *
+   * @param from the start of the range
+   * @param to   the end of the range
+   * @return the matching values, ordered by start time
+   */
+  List<T> query(Instant from, Instant to) {
+    List<T> result = new ArrayList<>();
+    collect(1, 0, leaves, upperBound(to.toEpochMilli()), from.toEpochMilli(), result);
+    return result;
+  }
+
+  /**
+   * Find the position of the map for an instant.
+   *
+   * @param time the requested time in milliseconds
+   * @return the position in start time order, -1 if the index is empty
+   */
+  int findPosition(long time) {
+    int containing = findContaining(time);
+    return containing >= 0 ? containing : findNearest(time);
+  }
+
+  /**
+   * Find the position of the map for a time range.
+   *
+   * @param from the start of the range in milliseconds
+   * @param to   the end of the range in milliseconds
+   * @return the position in start time order, -1 if the index is empty
+   */
+  int findPosition(long from, long to) {
+    int containing = findContaining(from);
+    if (containing >= 0) {
+      return containing;
+    }
+    int next = upperBound(from);
+    if (next < starts.length && starts[next] <= to) {
+      return next;
+    }
+    return findNearest(from);
+  }
+
+  private int findContaining(long time) {
+    return findLast(1, 0, leaves, upperBound(time), time);
+  }
+
+  /**
+   * Find the last interval of a subtree before a position that ends at or after a time.
+   *
+   * @param node  the root of the subtree
+   * @param low   the first position of the subtree
+   * @param high  the position after the subtree
+   * @param bound the position to search before
+   * @param time  the time in milliseconds
+   * @return the position, -1 if there is none
+   */
+  private int findLast(int node, int low, int high, int bound, long time) {
+    if (low >= bound || tree[node] < time) {
+      return -1;
+    }
+    if (node >= leaves) {
+      return low;
+    }
+    int middle = (low + high) >>> 1;
+    int result = findLast(2 * node + 1, middle, high, bound, time);
+    return result >= 0 ? result : findLast(2 * node, low, middle, bound, time);
+  }
+
+  /**
+   * Collect the values of the intervals of a subtree before a position that end at or after a time, in start time
+   * order.
+   *
+   * @param node   the root of the subtree
+   * @param low    the first position of the subtree
+   * @param high   the position after the subtree
+   * @param bound  the position to collect before
+   * @param time   the time in milliseconds
+   * @param result the list to add the values to
+   */
+  private void collect(int node, int low, int high, int bound, long time, List<T> result) {
+    if (low >= bound || tree[node] < time) {
+      return;
+    }
+    if (node >= leaves) {
+      result.add(values.get(low));
+      return;
+    }
+    int middle = (low + high) >>> 1;
+    collect(2 * node, low, middle, bound, time, result);
+    collect(2 * node + 1, middle, high, bound, time, result);
+  }
+
+  private int findNearest(long time) {
+    int next = upperBound(time);
+    int previous = next > 0 ? maxEnds[next - 1] : -1;
+    if (previous < 0) {
+      return next < starts.length ? next : -1;
+    }
+    if (next >= starts.length) {
+      return previous;
+    }
+    return time - ends[previous] <= starts[next] - time ? previous : next;
+  }
+
+  /**
+   * @return the position of the first interval starting after the time
+   */
+  private int upperBound(long time) {
+    int low = 0;
+    int high = starts.length;
+    while (low < high) {
+      int middle = (low + high) >>> 1;
+      if (starts[middle] <= time) {
+        low = middle + 1;
+      } else {
+        high = middle;
+      }
+    }
+    return low;
+  }
+
+  private static final class Interval<T> {
+
+    private final long start;
+
+    private final long end;
+
+    private final T value;
+
+    Interval(long start, long end, T value) {
+      this.start = start;
+      this.end = end;
+      this.value = value;
+    }
+
+  }
+
+  /**
+   * Collects the intervals of a new index.
+   *
+   * @param <T> the type of the values
+   */
+  static final class Builder<T> {
+
+    private final List<Interval<T>> intervals = new ArrayList<>();
+
+    private Builder() {
+    }
+
+    /**
+     * @param start the start of the interval
+     * @param end   the end of the interval, null for instants
+     * @param value the value
+     * @return this builder
+     */
+    Builder<T> add(Instant start, Instant end, T value) {
+      long startMillis = start.toEpochMilli();
+      long endMillis = end == null ? startMillis : Math.max(end.toEpochMilli(), startMillis);
+      intervals.add(new Interval<>(startMillis, endMillis, value));
+      return this;
+    }
+
+    /**
+     * @return the new index
+     */
+    TemporalIndex<T> build() {
+      return new TemporalIndex<>(new ArrayList<>(intervals));
+    }
+
+  }
+
+}
@@ -0,0 +1,252 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import javax.media.jai.ImageLayout;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.SourcelessOpImage;
+import java.awt.Rectangle;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A tiled image that aggregates the same window of all maps of a time range per pixel. Each tile is computed by
+ * streaming over the maps one tile at a time, so the memory used does not depend on the number of maps. The maps are
+ * reduced in parallel on a shared pool with a bounded number of threads, as the reads block on I/O and on the dataset
+ * pool. Nodata values are skipped, pixels without any value are NaN (0 for sum and count).
+ */
+class TimeAggregateImage extends SourcelessOpImage {
+
+  /**
+   * The supported aggregations.
+   */
+  enum Aggregation {
+    MEAN, MIN, MAX, SUM, COUNT;
+
+    /**
+     * @param value the name of the aggregation, case insensitive
+     * @return the aggregation, null for none
+     * @throws IllegalArgumentException if the aggregation is unknown
+     */
+    static Aggregation parse(String value) {
+      if (value == null || value.isEmpty() || value.equalsIgnoreCase("none")) {
+        return null;
+      }
+      return valueOf(value.toUpperCase(Locale.ROOT));
+    }
+  }
+
+  /**
+   * System property with the number of threads reading the maps of aggregated tiles.
+   */
+  static final String THREADS_PROPERTY = "grass.gdal.aggregate.threads";
+
+  private static final int THREADS = Math.max(Integer.getInteger(THREADS_PROPERTY,
+    Runtime.getRuntime().availableProcessors()), 1);
+
+  private static final ThreadPoolExecutor EXECUTOR = createExecutor();
+
+  private final List<GdalTiledImage> sources;
+
+  private final Aggregation aggregation;
+
+  private Cleaner.Cleanable reservation;
+
+  /**
+   * @param sources     the images of the maps to aggregate, all with the same size, bands and tile size
+   * @param aggregation the aggregation
+   * @param size        the width and height of the image
+   * @param numBands    the number of bands
+   * @param tileSize    the tile width and height
+   */
+  TimeAggregateImage(List<GdalTiledImage> sources, Aggregation aggregation, int[] size, int numBands, int[] tileSize) {
+    this(sources, aggregation, size, GdalTiledImage.createSampleModel(DataBuffer.TYPE_DOUBLE,
+      Math.min(tileSize[0], size[0]), Math.min(tileSize[1], size[1]), numBands));
+  }
+
+  private TimeAggregateImage(List<GdalTiledImage> sources, Aggregation aggregation, int[] size,
+                             SampleModel sampleModel) {
+    super(new ImageLayout()
+      .setTileWidth(sampleModel.getWidth())
+      .setTileHeight(sampleModel.getHeight())
+      .setTileGridXOffset(0)
+      .setTileGridYOffset(0)
+      .setSampleModel(sampleModel)
+      .setColorModel(PlanarImage.createColorModel(sampleModel)), null, sampleModel, 0, 0, size[0], size[1]);
+    this.sources = sources;
+    this.aggregation = aggregation;
+  }
+
+  private static ThreadPoolExecutor createExecutor() {
+    ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60, TimeUnit.SECONDS,
+      new LinkedBlockingQueue<>(), runnable -> {
+        Thread thread = new Thread(runnable, "grass-gdal-aggregate");
+        thread.setDaemon(true);
+        return thread;
+      });
+    executor.allowCoreThreadTimeOut(true);
+    return executor;
+  }
+
+  @Override
+  protected void computeRect(Raster[] rasters, WritableRaster dest, Rectangle destRect) {
+    int tileX = XToTileX(destRect.x);
+    int tileY = YToTileY(destRect.y);
+    int samples = getSampleModel().getWidth() * getSampleModel().getHeight() * getNumBands();
+    // every task reduces every n-th map, so at most one accumulator per thread is allocated
+    int tasks = Math.min(THREADS, sources.size());
+    List<Future<Accumulator>> futures = new ArrayList<>();
+    for (int task = 0; task < tasks; ++task) {
+      int first = task;
+      futures.add(EXECUTOR.submit(() -> {
+        Accumulator accumulator = new Accumulator(samples);
+        for (int i = first; i < sources.size(); i += tasks) {
+          GdalTiledImage source = sources.get(i);
+          accumulator.add(source.readTile(tileX, tileY), source.getNoData());
+        }
+        return accumulator;
+      }));
+    }
+    Accumulator result = new Accumulator(samples);
+    try {
+      for (Future<Accumulator> future : futures) {
+        result.merge(future.get());
+      }
+    } catch (InterruptedException e) {
+      futures.forEach(future -> future.cancel(false));
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while aggregating a tile", e);
+    } catch (ExecutionException e) {
+      futures.forEach(future -> future.cancel(false));
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException) e.getCause();
+      }
+      throw new IllegalStateException("Unable to aggregate a tile", e.getCause());
+    }
+    // the source tiles use the same band sequential layout as the target tile
+    double[] target = ((DataBufferDouble) dest.getDataBuffer()).getData();
+    for (int i = 0; i < samples; ++i) {
+      target[i] = result.get(i, aggregation);
+    }
+  }
+
+  /**
+   * Reserve the memory of all tiles in the {@link BufferArena} until the image is disposed. The tiles of the maps are
+   * only read while a tile is computed.
+   *
+   * @throws IOException if no memory became available in time
+   */
+  void admit() throws IOException {
+    long bytes = (long) getNumXTiles() * getNumYTiles() * getTileWidth() * getTileHeight() * getNumBands()
+      * Double.BYTES;
+    reservation = BufferArena.getInstance().admit(this, bytes);
+  }
+
+  @Override
+  public synchronized void dispose() {
+    if (reservation != null) {
+      reservation.clean();
+    }
+    super.dispose();
+  }
+
+  /**
+   * Running per sample statistics of the maps of one tile.
+   */
+  private static final class Accumulator {
+
+    private final double[] sum;
+
+    private final double[] min;
+
+    private final double[] max;
+
+    private final int[] count;
+
+    Accumulator(int samples) {
+      sum = new double[samples];
+      min = new double[samples];
+      max = new double[samples];
+      count = new int[samples];
+    }
+
+    void add(Raster tile, Double noData) {
+      DataBuffer buffer = tile.getDataBuffer();
+      for (int i = 0; i < count.length; ++i) {
+        double value = buffer.getElemDouble(i);
+        if (Double.isNaN(value) || (noData != null && value == noData)) {
+          continue;
+        }
+        if (count[i] == 0) {
+          min[i] = value;
+          max[i] = value;
+        } else {
+          min[i] = Math.min(min[i], value);
+          max[i] = Math.max(max[i], value);
+        }
+        sum[i] += value;
+        ++count[i];
+      }
+    }
+
+    void merge(Accumulator other) {
+      for (int i = 0; i < count.length; ++i) {
+        if (other.count[i] == 0) {
+          continue;
+        }
+        if (count[i] == 0) {
+          min[i] = other.min[i];
+          max[i] = other.max[i];
+        } else {
+          min[i] = Math.min(min[i], other.min[i]);
+          max[i] = Math.max(max[i], other.max[i]);
+        }
+        sum[i] += other.sum[i];
+        count[i] += other.count[i];
+      }
+    }
+
+    double get(int i, Aggregation aggregation) {
+      switch (aggregation) {
+        case SUM:
+          return sum[i];
+        case COUNT:
+          return count[i];
+        case MIN:
+          return count[i] == 0 ? Double.NaN : min[i];
+        case MAX:
+          return count[i] == 0 ? Double.NaN : max[i];
+        default:
+          return count[i] == 0 ? Double.NaN : sum[i] / count[i];
+      }
+    }
+
+  }
+
+}
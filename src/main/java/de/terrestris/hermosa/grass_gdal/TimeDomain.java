@@ -0,0 +1,162 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.time.Period;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.time.temporal.TemporalAmount;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.StringJoiner;
+
+import static java.time.ZoneOffset.UTC;
+
+/**
+ * The time domain of a STRDS as announced in the capabilities. Each distinct time step is listed, instants as single
+ * times and intervals as start/end. Runs of at least {@link #MIN_RUN} regularly spaced instants, or of contiguous
+ * intervals of the same length, are collapsed into ISO 8601 start/end/period notation listing the starts of the
+ * steps, so regular series with many steps stay short. Each listed time resolves to its own step when requested.
+ */
+final class TimeDomain {
+
+  /**
+   * The minimum number of regularly spaced steps to collapse into start/end/period.
+   */
+  static final int MIN_RUN = 3;
+
+  private static final DateTimeFormatter FORMATTER = DateTimeFormatter
+    .ofPattern("yyyy-MM-dd'T'HH:mm:ss.SSSX")
+    .withZone(UTC);
+
+  private final String domain;
+
+  private final String minimum;
+
+  private final String maximum;
+
+  private TimeDomain(String domain, String minimum, String maximum) {
+    this.domain = domain;
+    this.minimum = minimum;
+    this.maximum = maximum;
+  }
+
+  /**
+   * @param index the time index of a STRDS
+   * @return the time domain of the index, null if it is empty
+   */
+  static TimeDomain of(TemporalIndex<?> index) {
+    if (index == null || index.size() == 0) {
+      return null;
+    }
+    List<Instant> starts = new ArrayList<>();
+    List<Instant> ends = new ArrayList<>();
+    Instant max = index.end(0);
+    for (int i = 0; i < index.size(); ++i) {
+      Instant start = index.start(i);
+      Instant end = index.end(i);
+      // the index is sorted by start and end, so duplicates are neighbours
+      if (starts.isEmpty() || !starts.get(starts.size() - 1).equals(start)
+        || !ends.get(ends.size() - 1).equals(end)) {
+        starts.add(start);
+        ends.add(end);
+      }
+      if (end.isAfter(max)) {
+        max = end;
+      }
+    }
+    StringJoiner joiner = new StringJoiner(",");
+    int i = 0;
+    while (i < starts.size()) {
+      Instant start = starts.get(i);
+      boolean instant = start.equals(ends.get(i));
+      int last = i;
+      TemporalAmount period = i + 1 < starts.size() ? period(start, starts.get(i + 1)) : null;
+      while (period != null && last + 1 < starts.size() && isStep(starts, ends, last, period, instant)
+        && isStep(starts, ends, last + 1, period, instant)
+        && add(starts.get(last), period).equals(starts.get(last + 1))) {
+        ++last;
+      }
+      if (last - i + 1 >= MIN_RUN) {
+        joiner.add(FORMATTER.format(start) + "/" + FORMATTER.format(starts.get(last)) + "/" + period);
+        i = last + 1;
+      } else {
+        joiner.add(instant ? FORMATTER.format(start) : FORMATTER.format(start) + "/" + FORMATTER.format(ends.get(i)));
+        ++i;
+      }
+    }
+    return new TimeDomain(joiner.toString(), FORMATTER.format(index.start(0)), FORMATTER.format(max));
+  }
+
+  /**
+   * @return the period between two instants, in whole years, months or days if possible
+   */
+  static TemporalAmount period(Instant from, Instant to) {
+    if (!to.isAfter(from)) {
+      return null;
+    }
+    ZonedDateTime zonedFrom = from.atZone(UTC);
+    ZonedDateTime zonedTo = to.atZone(UTC);
+    long months = ChronoUnit.MONTHS.between(zonedFrom, zonedTo);
+    if (months > 0 && zonedFrom.plusMonths(months).equals(zonedTo)) {
+      return months % 12 == 0 ? Period.ofYears((int) (months / 12)) : Period.ofMonths((int) months);
+    }
+    Duration duration = Duration.between(from, to);
+    if (duration.toMillis() % Duration.ofDays(1).toMillis() == 0) {
+      return Period.ofDays((int) duration.toDays());
+    }
+    return duration;
+  }
+
+  /**
+   * @return true, if the time step is an instant for a run of instants, or an interval of the length of the period
+   *   for a run of intervals
+   */
+  private static boolean isStep(List<Instant> starts, List<Instant> ends, int i, TemporalAmount period,
+                                boolean instant) {
+    Instant start = starts.get(i);
+    return instant ? start.equals(ends.get(i)) : add(start, period).equals(ends.get(i));
+  }
+
+  private static Instant add(Instant instant, TemporalAmount period) {
+    return instant.atZone(UTC).plus(period).toInstant();
+  }
+
+  /**
+   * @return the comma separated time steps
+   */
+  String getDomain() {
+    return domain;
+  }
+
+  /**
+   * @return the earliest start
+   */
+  String getMinimum() {
+    return minimum;
+  }
+
+  /**
+   * @return the latest end
+   */
+  String getMaximum() {
+    return maximum;
+  }
+
+}
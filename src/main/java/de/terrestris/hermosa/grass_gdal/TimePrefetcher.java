@@ -0,0 +1,187 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.util.logging.Logging;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Reads the following time steps of a time series in the background when a client steps through it, e.g. for a WMS
+ * time animation. The prefetched tiles end up in the {@link RasterWindowCache}, so prefetching is only done if the
+ * cache is enabled. The number of prefetched bytes in flight is capped.
+ */
+class TimePrefetcher {
+
+  private static final Logger LOGGER = Logging.getLogger(TimePrefetcher.class);
+
+  /**
+   * System property with the number of time steps to read ahead. Prefetching is disabled if set to 0.
+   */
+  static final String STEPS_PROPERTY = "grass.gdal.prefetch.steps";
+
+  /**
+   * System property with the number of background threads.
+   */
+  static final String THREADS_PROPERTY = "grass.gdal.prefetch.threads";
+
+  /**
+   * System property with the maximum number of megabytes being prefetched at the same time.
+   */
+  static final String MEMORY_PROPERTY = "grass.gdal.prefetch.maxMB";
+
+  /**
+   * Maximum number of request sequences to track.
+   */
+  private static final int MAX_SEQUENCES = 1024;
+
+  private static final TimePrefetcher INSTANCE = new TimePrefetcher(
+    Integer.getInteger(STEPS_PROPERTY, 0),
+    Integer.getInteger(THREADS_PROPERTY, 2),
+    Long.getLong(MEMORY_PROPERTY, 32L) * 1024 * 1024
+  );
+
+  private final int steps;
+
+  private final long maxBytes;
+
+  private final AtomicLong pendingBytes = new AtomicLong();
+
+  private final Set<String> pending = ConcurrentHashMap.newKeySet();
+
+  private final Map<String, Integer> lastPositions = new LinkedHashMap<String, Integer>(16, 0.75f, true) {
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<String, Integer> eldest) {
+      return size() > MAX_SEQUENCES;
+    }
+  };
+
+  private final ThreadPoolExecutor executor;
+
+  TimePrefetcher(int steps, int threads, long maxBytes) {
+    this.steps = steps;
+    this.maxBytes = maxBytes;
+    int poolSize = Math.max(threads, 1);
+    executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+      new ArrayBlockingQueue<>(Math.max(steps, 1) * poolSize), runnable -> {
+        Thread thread = new Thread(runnable, "grass-gdal-prefetch");
+        thread.setDaemon(true);
+        thread.setPriority(Thread.NORM_PRIORITY - 1);
+        return thread;
+      });
+    executor.allowCoreThreadTimeOut(true);
+  }
+
+  /**
+   * @return the JVM wide prefetcher
+   */
+  static TimePrefetcher getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return true, if time steps are read ahead at all
+   */
+  boolean isEnabled() {
+    return steps > 0 && RasterWindowCache.getInstance().isEnabled();
+  }
+
+  /**
+   * Record a read of a time step. If it directly follows the previous read of the same sequence, the next time steps
+   * in the same direction are scheduled to be read.
+   *
+   * @param sequence   identifies the requests that only differ in time, e.g. coverage, window, size and bands
+   * @param position   the position of the read time step in the time index
+   * @param count      the number of time steps
+   * @param frameBytes the estimated number of bytes of one time step
+   * @param loader     creates the image of another time step
+   */
+  void accessed(String sequence, int position, int count, long frameBytes, Loader loader) {
+    if (!isEnabled()) {
+      return;
+    }
+    Integer last;
+    synchronized (lastPositions) {
+      last = lastPositions.put(sequence, position);
+    }
+    if (last == null || Math.abs(position - last) != 1) {
+      return;
+    }
+    int direction = position - last;
+    for (int i = 1; i <= steps; ++i) {
+      int next = position + i * direction;
+      if (next < 0 || next >= count) {
+        return;
+      }
+      schedule(sequence + "#" + next, next, frameBytes, loader);
+    }
+  }
+
+  private void schedule(String key, int position, long frameBytes, Loader loader) {
+    if (pendingBytes.get() + frameBytes > maxBytes || !pending.add(key)) {
+      return;
+    }
+    pendingBytes.addAndGet(frameBytes);
+    try {
+      executor.execute(() -> {
+        try {
+          GdalTiledImage image = loader.load(position);
+          try {
+            image.admit();
+            image.prefetch();
+          } finally {
+            image.dispose();
+          }
+        } catch (IOException | RuntimeException e) {
+          LOGGER.log(Level.FINE, "Unable to prefetch time step " + position, e);
+        } finally {
+          pendingBytes.addAndGet(-frameBytes);
+          pending.remove(key);
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      // the queue is full, the reads are behind the client anyway
+      pendingBytes.addAndGet(-frameBytes);
+      pending.remove(key);
+    }
+  }
+
+  /**
+   * Creates the image of a time step.
+   */
+  interface Loader {
+
+    /**
+     * @param position the position of the time step in the time index
+     * @return the lazily read image of the time step
+     * @throws IOException if the time step could not be opened
+     */
+    GdalTiledImage load(int position) throws IOException;
+
+  }
+
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class BlockAlignmentTest {
+
+  @Test
+  public void testAlignsTiledRasters() {
+    int[] aligned = GrassGdalReader.alignToBlocks(new int[]{300, 700, 500, 100}, new int[]{256, 256},
+      new int[]{2000, 1000});
+    Assertions.assertArrayEquals(new int[]{256, 512, 768, 488}, aligned);
+  }
+
+  @Test
+  public void testKeepsRowsOfStripedRasters() {
+    int[] window = new int[]{300, 700, 500, 100};
+    Assertions.assertArrayEquals(window, GrassGdalReader.alignToBlocks(window, new int[]{2000, 1},
+      new int[]{2000, 1000}));
+  }
+
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.lang.ref.Cleaner;
+import java.lang.ref.Reference;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class BufferArenaTest {
+
+  private static final int MB = 1024 * 1024;
+
+  @Test
+  public void testReservesWithoutWaiting() {
+    BufferArena arena = new BufferArena(4 * MB, 10_000);
+    Assertions.assertTrue(arena.tryReserve(3 * MB));
+    Assertions.assertFalse(arena.tryReserve(2 * MB));
+    Assertions.assertEquals(3 * MB, arena.getUsedBytes());
+    Assertions.assertEquals(0, arena.getWaits());
+    arena.unreserve(3 * MB);
+    Assertions.assertEquals(0, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testKeepsAdmittedMemoryUntilReleased() throws IOException {
+    BufferArena arena = new BufferArena(4 * MB, 10);
+    // the reservations are released once their images are garbage collected, so keep them reachable
+    Object image = new Object();
+    Cleaner.Cleanable reservation = arena.admit(image, 3 * MB);
+    Assertions.assertEquals(3 * MB, arena.getUsedBytes());
+    Assertions.assertThrows(IOException.class, () -> arena.admit(new Object(), 2 * MB));
+    Assertions.assertEquals(1, arena.getWaits());
+    Assertions.assertEquals(1, arena.getRejections());
+    reservation.clean();
+    reservation.clean();
+    Assertions.assertEquals(0, arena.getUsedBytes());
+    Reference.reachabilityFence(image);
+    // a single request is admitted even if it exceeds the budget
+    arena.admit(new Object(), 8 * MB).clean();
+    Assertions.assertEquals(0, arena.getUsedBytes());
+  }
+
+  @Test
+  public void testWaitsForMemory() throws Exception {
+    BufferArena arena = new BufferArena(4 * MB, 10_000);
+    Cleaner.Cleanable first = arena.admit(new Object(), 3 * MB);
+    Object image = new Object();
+    AtomicReference<Exception> error = new AtomicReference<>();
+    Thread request = new Thread(() -> {
+      try {
+        arena.admit(image, 2 * MB);
+      } catch (IOException e) {
+        error.set(e);
+      }
+    });
+    request.start();
+    while (request.getState() != Thread.State.TIMED_WAITING) {
+      Thread.sleep(1);
+    }
+    first.clean();
+    request.join();
+    Assertions.assertNull(error.get());
+    Assertions.assertEquals(2 * MB, arena.getUsedBytes());
+    Assertions.assertEquals(0, arena.getRejections());
+    Reference.reachabilityFence(image);
+  }
+
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+public class FileProbeTest {
+
+  private static final String CELLHD = "proj:       99\nzone:       0\nnorth:      228500\nsouth:      215000\n"
+    + "east:       645000\nwest:       630000\ncols:       1500\nrows:       1350\ne-w resol:  10\nn-s resol:  10\n"
+    + "format:     -1\ncompressed: 2\n";
+
+  private static File write(File mapset, String element, String name, byte[] content) throws IOException {
+    File file = new File(new File(mapset, element), name);
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  @Test
+  public void testRecognizesGrassRasters() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "elevation", CELLHD.getBytes(StandardCharsets.US_ASCII));
+    write(mapset, "fcell", "elevation", new byte[16]);
+    Assertions.assertTrue(FileProbe.isGrassRaster(cellhd));
+
+    File broken = write(mapset, "cellhd", "broken", "proj: 99\n".getBytes(StandardCharsets.US_ASCII));
+    write(mapset, "cell", "broken", new byte[16]);
+    Assertions.assertFalse(FileProbe.isGrassRaster(broken));
+
+    File withoutData = write(mapset, "cellhd", "nodata", CELLHD.getBytes(StandardCharsets.US_ASCII));
+    Assertions.assertFalse(FileProbe.isGrassRaster(withoutData));
+  }
+
+  @Test
+  public void testRecognizesSqliteDbs() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File db = write(mapset, "tgis", "sqlite.db",
+      "SQLite format 3\0 and some pages".getBytes(StandardCharsets.US_ASCII));
+    Assertions.assertTrue(FileProbe.accepts(db));
+
+    File other = write(mapset, "tgis", "other.db", "not a database".getBytes(StandardCharsets.US_ASCII));
+    Assertions.assertFalse(FileProbe.accepts(other));
+    Assertions.assertFalse(FileProbe.accepts(new File(mapset, "missing.db")));
+
+    // the cached verdict is dropped when the file changes
+    Files.write(other.toPath(), "SQLite format 3\0".getBytes(StandardCharsets.US_ASCII));
+    Assertions.assertTrue(other.setLastModified(other.lastModified() + 2000));
+    Assertions.assertTrue(FileProbe.accepts(other));
+  }
+
+}
@@ -0,0 +1,274 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdalconst.gdalconstConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.zip.Deflater;
+
+public class GrassRasterSourceTest {
+
+  private static final int ROWS = 3;
+
+  private static final int COLS = 40;
+
+  private static File write(File mapset, String element, String name, byte[] content) throws IOException {
+    File file = new File(new File(mapset, element), name);
+    Files.createDirectories(file.getParentFile().toPath());
+    Files.write(file.toPath(), content);
+    return file;
+  }
+
+  private static byte[] cellhd(int format, int compressed) {
+    return ("proj:       99\nzone:       0\nnorth:      30\nsouth:      0\neast:       400\nwest:       0\n"
+      + "cols:       " + COLS + "\nrows:       " + ROWS + "\ne-w resol:  10\nn-s resol:  10\nformat:     " + format
+      + "\ncompressed: " + compressed + "\n").getBytes(StandardCharsets.US_ASCII);
+  }
+
+  private static byte[] zlib(byte[] bytes) {
+    Deflater deflater = new Deflater();
+    deflater.setInput(bytes);
+    deflater.finish();
+    byte[] buffer = new byte[bytes.length + 64];
+    int length = deflater.deflate(buffer);
+    deflater.end();
+    byte[] result = new byte[length];
+    System.arraycopy(buffer, 0, result, 0, length);
+    return result;
+  }
+
+  /**
+   * @return a compressed data file: the size of the offsets, the row offsets and the rows
+   */
+  private static byte[] compressedFile(byte[][] rows) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    ByteBuffer index = ByteBuffer.allocate(1 + (rows.length + 1) * 4);
+    index.put((byte) 4);
+    int offset = index.capacity();
+    for (byte[] row : rows) {
+      index.putInt(offset);
+      offset += row.length;
+    }
+    index.putInt(offset);
+    out.write(index.array());
+    for (byte[] row : rows) {
+      out.write(row);
+    }
+    return out.toByteArray();
+  }
+
+  private static byte[] nullFile(int row, int column) {
+    byte[] bits = new byte[ROWS * ((COLS + 7) / 8)];
+    bits[row * ((COLS + 7) / 8) + column / 8] = (byte) (0x80 >> (column % 8));
+    return bits;
+  }
+
+  @Test
+  public void testReadsCompressedIntegerMap() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "int", cellhd(1, 2));
+    byte[][] rows = new byte[ROWS][];
+    for (int y = 0; y < ROWS; ++y) {
+      ByteBuffer row = ByteBuffer.allocate(COLS * 2);
+      for (int x = 0; x < COLS; ++x) {
+        row.putShort((short) (y * 100 + x / 10));
+      }
+      byte[] compressed = zlib(row.array());
+      rows[y] = new byte[compressed.length + 1];
+      rows[y][0] = 2;
+      System.arraycopy(compressed, 0, rows[y], 1, compressed.length);
+    }
+    write(mapset, "cell", "int", compressedFile(rows));
+    write(mapset, "cell_misc", "int/null", nullFile(1, 25));
+
+    GrassRasterFile raster = GrassRasterFile.get(cellhd);
+    Assertions.assertNotNull(raster);
+    GrassRasterSource source = new GrassRasterSource(cellhd, raster);
+    RasterHeader header = source.readHeader();
+    Assertions.assertEquals(COLS, header.getWidth());
+    Assertions.assertArrayEquals(new double[]{0, 10, 0, 30, 0, -10}, header.getGeoTransform(), 0);
+    Assertions.assertEquals(Integer.MIN_VALUE, header.getNoData(), 0);
+
+    DataBufferInt buffer = new DataBufferInt(8);
+    Assertions.assertTrue(source.read(0, new int[]{0, 0, 40, 2}, 4, 2, new int[]{0}, buffer, 4, 8, null));
+    Assertions.assertArrayEquals(new int[]{0, 1, 2, 3, 100, 101, Integer.MIN_VALUE, 103}, buffer.getData());
+
+    // a single null cell doesn't make the index cell null
+    NullIndex index = source.buildNullIndex();
+    Assertions.assertEquals(1, index.dataCells());
+    Assertions.assertFalse(index.isNull(new int[]{25, 1, 1, 1}));
+  }
+
+  @Test
+  public void testReadsRunLengthEncodedIntegerMap() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "rle", cellhd(0, 1));
+    byte[][] rows = new byte[ROWS][];
+    for (int y = 0; y < ROWS; ++y) {
+      // 30 times y + 1, 10 times 0, which is null without a null file
+      rows[y] = new byte[]{1, 30, (byte) (y + 1), 10, 0};
+    }
+    write(mapset, "cell", "rle", compressedFile(rows));
+    write(mapset, "cell_misc", "rle/range", "1 3\n".getBytes(StandardCharsets.US_ASCII));
+
+    GrassRasterSource source = new GrassRasterSource(cellhd, GrassRasterFile.get(cellhd));
+    Assertions.assertEquals(gdalconstConstants.GDT_Byte, source.readHeader().getDataType());
+    DataBufferByte buffer = new DataBufferByte(3);
+    Assertions.assertTrue(source.read(0, new int[]{28, 2, 4, 1}, 2, 1, new int[]{0}, buffer, 2, 3, null));
+    Assertions.assertArrayEquals(new byte[]{3, (byte) 255, 0}, buffer.getData());
+    Assertions.assertNull(source.buildNullIndex());
+  }
+
+  @Test
+  public void testReadsFloatingPointMap() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "fp", cellhd(-1, 2));
+    byte[][] rows = new byte[ROWS][];
+    for (int y = 0; y < ROWS; ++y) {
+      ByteBuffer row = ByteBuffer.allocate(COLS * 8);
+      for (int x = 0; x < COLS; ++x) {
+        row.putDouble(y + x / 4.0);
+      }
+      if (y == 1) {
+        // rows that don't get smaller are stored uncompressed
+        rows[y] = new byte[COLS * 8 + 1];
+        rows[y][0] = '0';
+        System.arraycopy(row.array(), 0, rows[y], 1, COLS * 8);
+      } else {
+        byte[] compressed = zlib(row.array());
+        rows[y] = new byte[compressed.length + 1];
+        rows[y][0] = '1';
+        System.arraycopy(compressed, 0, rows[y], 1, compressed.length);
+      }
+    }
+    write(mapset, "cell", "fp", new byte[0]);
+    write(mapset, "fcell", "fp", compressedFile(rows));
+    write(mapset, "cell_misc", "fp/f_format", "type: double\nbyte_order: xdr\n".getBytes(StandardCharsets.US_ASCII));
+    write(mapset, "cell_misc", "fp/null", nullFile(2, 0));
+
+    GrassRasterSource source = new GrassRasterSource(cellhd, GrassRasterFile.get(cellhd));
+    Assertions.assertTrue(Double.isNaN(source.readHeader().getNoData()));
+    DataBufferDouble buffer = new DataBufferDouble(6);
+    Assertions.assertTrue(source.read(0, new int[]{0, 0, 2, 3}, 2, 3, new int[]{0}, buffer, 2, 6, null));
+    Assertions.assertArrayEquals(new double[]{0, 0.25, 1, 1.25, Double.NaN, 2.25}, buffer.getData(), 0);
+  }
+
+  @Test
+  public void testReadsUncompressedFloatMapIntoFloatBank() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "float", cellhd(-1, 0));
+    ByteBuffer data = ByteBuffer.allocate(ROWS * COLS * 4);
+    for (int i = 0; i < ROWS * COLS; ++i) {
+      data.putFloat(i / 2f);
+    }
+    write(mapset, "cell", "float", new byte[0]);
+    write(mapset, "fcell", "float", data.array());
+    write(mapset, "cell_misc", "float/null", nullFile(0, 1));
+
+    GrassRasterSource source = new GrassRasterSource(cellhd, GrassRasterFile.get(cellhd));
+    Assertions.assertEquals(gdalconstConstants.GDT_Float32, source.readHeader().getDataType());
+    DataBufferFloat buffer = new DataBufferFloat(4);
+    Assertions.assertTrue(source.read(0, new int[]{0, 0, 2, 2}, 2, 2, new int[]{0}, buffer, 2, 4, null));
+    Assertions.assertArrayEquals(new float[]{0, Float.NaN, 20, 20.5f}, buffer.getData(), 0f);
+  }
+
+  @Test
+  public void testReopensClosedMap() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "reopen", cellhd(3, 0));
+    ByteBuffer data = ByteBuffer.allocate(ROWS * COLS * 4);
+    for (int i = 0; i < ROWS * COLS; ++i) {
+      data.putInt(i + 1);
+    }
+    write(mapset, "cell", "reopen", data.array());
+    GrassRasterFile raster = GrassRasterFile.get(cellhd);
+    GrassRasterSource source = new GrassRasterSource(cellhd, raster);
+
+    // a changed map replaces and closes the opened one
+    Assertions.assertTrue(cellhd.setLastModified(cellhd.lastModified() + 2000));
+    Assertions.assertNotSame(raster, GrassRasterFile.get(cellhd));
+    Assertions.assertFalse(raster.retain());
+
+    DataBufferInt buffer = new DataBufferInt(2);
+    Assertions.assertTrue(source.read(0, new int[]{0, 1, 2, 1}, 2, 1, new int[]{0}, buffer, 2, 2, null));
+    Assertions.assertArrayEquals(new int[]{41, 42}, buffer.getData());
+  }
+
+  @Test
+  public void testReadsLz4NullRowWithZlibLikeStart() throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    int cols = 168;
+    File cellhd = write(mapset, "cellhd", "nulls", ("proj:       99\nzone:       0\nnorth:      10\n"
+      + "south:      0\neast:       1680\nwest:       0\ncols:       " + cols + "\nrows:       1\ne-w resol:  10\n"
+      + "n-s resol:  10\nformat:     3\ncompressed: 0\n").getBytes(StandardCharsets.US_ASCII));
+    ByteBuffer data = ByteBuffer.allocate(cols * 4);
+    for (int i = 0; i < cols; ++i) {
+      data.putInt(i);
+    }
+    write(mapset, "cell", "nulls", data.array());
+    // 4 literals and a match of 12 bytes, then 5 literals: 0x48 0x0d passes the zlib header check
+    byte[] row = {0x48, 0x0d, 0, 0, 0, 4, 0, 0x50, 0, 0, 0, 0, 0};
+    write(mapset, "cell_misc", "nulls/nullcmpr", compressedFile(new byte[][]{row}));
+
+    GrassRasterSource source = new GrassRasterSource(cellhd, GrassRasterFile.get(cellhd));
+    DataBufferInt buffer = new DataBufferInt(8);
+    Assertions.assertTrue(source.read(0, new int[]{32, 0, 8, 1}, 8, 1, new int[]{0}, buffer, 8, 8, null));
+    Assertions.assertArrayEquals(new int[]{32, 33, 34, 35, Integer.MIN_VALUE, Integer.MIN_VALUE, 38,
+      Integer.MIN_VALUE}, buffer.getData());
+  }
+
+  private static int cellType(int format, String range) throws IOException {
+    File mapset = new File(Files.createTempDirectory("location").toFile(), "PERMANENT");
+    File cellhd = write(mapset, "cellhd", "map", cellhd(format, 0));
+    write(mapset, "cell", "map", new byte[ROWS * COLS * (format + 1)]);
+    if (range != null) {
+      write(mapset, "cell_misc", "map/range", range.getBytes(StandardCharsets.US_ASCII));
+    }
+    return new GrassRasterSource(cellhd, GrassRasterFile.get(cellhd)).readHeader().getDataType();
+  }
+
+  @Test
+  public void testMapsCellTypesLikeGdal() throws IOException {
+    Assertions.assertEquals(gdalconstConstants.GDT_Byte, cellType(0, "0 254\n"));
+    // no room for the nodata value
+    Assertions.assertEquals(gdalconstConstants.GDT_Int16, cellType(0, "0 255\n"));
+    Assertions.assertEquals(gdalconstConstants.GDT_Int16, cellType(0, null));
+    Assertions.assertEquals(gdalconstConstants.GDT_Int16, cellType(1, "3 32767\n"));
+    Assertions.assertEquals(gdalconstConstants.GDT_Int32, cellType(1, "3 40000\n"));
+    Assertions.assertEquals(gdalconstConstants.GDT_Int32, cellType(1, null));
+    Assertions.assertEquals(gdalconstConstants.GDT_Int32, cellType(3, "-5 5\n"));
+  }
+
+  @Test
+  public void testDecodesSignedValues() {
+    Assertions.assertEquals(-5, GrassRasterFile.decodeInt(new byte[]{(byte) 0x80, 0, 0, 5}, 0, 4));
+    Assertions.assertEquals(0xff05, GrassRasterFile.decodeInt(new byte[]{(byte) 0xff, 5}, 0, 2));
+    Assertions.assertEquals(-12.5, GrassRasterFile.parseCoordinate("12:30W"), 0);
+  }
+
+}
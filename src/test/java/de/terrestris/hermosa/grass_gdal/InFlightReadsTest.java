@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBufferInt;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class InFlightReadsTest {
+
+  @Test
+  public void testCoalescesConcurrentReads() throws Exception {
+    InFlightReads reads = new InFlightReads(true);
+    InFlightReads.Key key = new InFlightReads.Key("raster", 1, 0, new int[]{0, 0, 4, 4}, 2, 2, new int[]{0, 1});
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    AtomicInteger count = new AtomicInteger();
+    // two bands of 2x2 samples, lines 2 samples apart, bands 4 samples apart
+    DataBufferInt leaderBuffer = new DataBufferInt(8);
+    // the results are checked on the test thread, as failures in other threads don't fail the test
+    FutureTask<Boolean> leaderRead = new FutureTask<>(() -> reads.read(key, leaderBuffer, 2, 4, () -> {
+      count.incrementAndGet();
+      started.countDown();
+      try {
+        release.await();
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      }
+      System.arraycopy(new int[]{1, 2, 3, 4, 5, 6, 7, 8}, 0, leaderBuffer.getData(), 0, 8);
+      return true;
+    }, null));
+    Thread leader = new Thread(leaderRead);
+    leader.start();
+    started.await();
+
+    // lines 3 samples apart, bands 6 samples apart
+    DataBufferInt followerBuffer = new DataBufferInt(12);
+    FutureTask<Boolean> followerRead = new FutureTask<>(() -> reads.read(key, followerBuffer, 3, 6,
+      () -> count.incrementAndGet() > 0, null));
+    Thread follower = new Thread(followerRead);
+    follower.start();
+    while (follower.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+    release.countDown();
+    Assertions.assertTrue(leaderRead.get(10, TimeUnit.SECONDS));
+    Assertions.assertTrue(followerRead.get(10, TimeUnit.SECONDS));
+
+    Assertions.assertEquals(1, count.get());
+    Assertions.assertArrayEquals(new int[]{1, 2, 0, 3, 4, 0, 5, 6, 0, 7, 8, 0}, followerBuffer.getData());
+  }
+
+  @Test
+  public void testReadsAfterCompletion() throws Exception {
+    InFlightReads reads = new InFlightReads(true);
+    InFlightReads.Key key = new InFlightReads.Key("raster", 1, 0, new int[]{0, 0, 4, 4}, 2, 2, new int[]{0});
+    AtomicInteger count = new AtomicInteger();
+    DataBufferInt buffer = new DataBufferInt(4);
+    reads.read(key, buffer, 2, 4, () -> count.incrementAndGet() > 0, null);
+    reads.read(key, buffer, 2, 4, () -> count.incrementAndGet() > 0, null);
+    Assertions.assertEquals(2, count.get());
+  }
+
+}
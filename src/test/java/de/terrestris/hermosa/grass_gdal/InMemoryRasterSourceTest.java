@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBufferDouble;
+
+public class InMemoryRasterSourceTest {
+
+  private static InMemoryRasterSource createSource() {
+    RasterHeader header = new RasterHeader("MEM", 4, 4, new double[]{0, 1, 0, 4, 0, -1}, 2, 7, new int[]{4, 1}, null,
+      null, new int[0][]);
+    double[][] bands = new double[2][16];
+    for (int i = 0; i < 16; ++i) {
+      bands[0][i] = i;
+      bands[1][i] = 100 + i;
+    }
+    return new InMemoryRasterSource("memory", header, bands);
+  }
+
+  @Test
+  public void testReadWindow() {
+    DataBufferDouble buffer = new DataBufferDouble(8);
+    Assertions.assertTrue(createSource().read(0, new int[]{1, 1, 2, 2}, 2, 2, new int[]{1, 0}, buffer, 2, 4, null));
+    Assertions.assertArrayEquals(new double[]{105, 106, 109, 110, 5, 6, 9, 10}, buffer.getData(), 0);
+  }
+
+  @Test
+  public void testReadResampled() {
+    DataBufferDouble buffer = new DataBufferDouble(6);
+    // the target lines are 3 samples apart, the last sample of each line is left alone
+    Assertions.assertTrue(createSource().read(0, new int[]{0, 0, 4, 4}, 2, 2, new int[]{0}, buffer, 3, 6, null));
+    Assertions.assertArrayEquals(new double[]{5, 7, 0, 13, 15, 0}, buffer.getData(), 0);
+  }
+
+}
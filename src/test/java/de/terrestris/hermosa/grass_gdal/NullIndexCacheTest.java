@@ -0,0 +1,57 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+public class NullIndexCacheTest {
+
+  private static InMemoryRasterSource createSource(String id) {
+    RasterHeader header = new RasterHeader("MEM", 4, 4, new double[]{0, 1, 0, 4, 0, -1}, 1, 7, new int[]{4, 1}, -1d,
+      null, new int[0][]);
+    double[][] bands = new double[1][16];
+    bands[0][5] = -1;
+    return new InMemoryRasterSource(id, header, bands);
+  }
+
+  private static NullIndex await(NullIndexCache cache, RasterSource source) throws InterruptedException {
+    for (int i = 0; i < 500; ++i) {
+      NullIndex index = cache.get(source, source.getVersion());
+      if (index != null) {
+        return index;
+      }
+      Thread.sleep(10);
+    }
+    return null;
+  }
+
+  @Test
+  public void testLeastRecentlyReadIndexesAreDropped() throws InterruptedException {
+    NullIndexCache cache = new NullIndexCache(true, 2);
+    RasterSource first = createSource("first");
+    RasterSource second = createSource("second");
+    Assertions.assertNotNull(await(cache, first));
+    Assertions.assertNotNull(await(cache, second));
+    // reading the first raster again keeps it
+    Assertions.assertNotNull(cache.get(first, first.getVersion()));
+    Assertions.assertNotNull(await(cache, createSource("third")));
+    Assertions.assertEquals(2, cache.size());
+    Assertions.assertNotNull(cache.get(first, first.getVersion()));
+    Assertions.assertNull(cache.get(second, second.getVersion()));
+  }
+
+}
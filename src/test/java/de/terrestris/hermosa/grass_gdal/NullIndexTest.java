@@ -0,0 +1,51 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+
+public class NullIndexTest {
+
+  @Test
+  public void testMarksDataCells() {
+    int width = 200;
+    byte[] mask = new byte[width * 10];
+    // a single pixel in the third cell of the second cell row
+    mask[3 * width + 130] = (byte) 255;
+    NullIndex index = NullIndex.builder(width, 150).addRows(64, 10, mask).build();
+    Assertions.assertEquals(1, index.dataCells());
+    Assertions.assertTrue(index.isNull(new int[]{0, 0, 200, 64}));
+    Assertions.assertTrue(index.isNull(new int[]{0, 64, 128, 86}));
+    Assertions.assertFalse(index.isNull(new int[]{127, 127, 2, 2}));
+    Assertions.assertFalse(index.isNull(new int[]{0, 0, 200, 150}));
+  }
+
+  @Test
+  public void testInMemorySource() throws Exception {
+    RasterHeader header = new RasterHeader("MEM", 128, 64, new double[]{0, 1, 0, 64, 0, -1}, 1, 7, new int[]{128, 1},
+      -1d, null, new int[0][]);
+    double[] band = new double[128 * 64];
+    Arrays.fill(band, -1);
+    band[100] = 5;
+    NullIndex index = new InMemoryRasterSource("memory", header, new double[][]{band}).buildNullIndex();
+    Assertions.assertTrue(index.isNull(new int[]{0, 0, 64, 64}));
+    Assertions.assertFalse(index.isNull(new int[]{64, 0, 64, 64}));
+  }
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.gdal.gdalconst.gdalconstConstants;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBufferDouble;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+public class PyramidBuilderTest {
+
+  private static RasterHeader header(String driver) {
+    return new RasterHeader(driver, 10, 10, new double[]{0, 1, 0, 10, 0, -1}, 1, gdalconstConstants.GDT_Byte,
+      new int[]{10, 1}, null, null, new int[0][]);
+  }
+
+  @Test
+  public void testReadyPyramidIsReadRegardlessOfDriver() throws IOException {
+    File location = Files.createTempDirectory("grass").toFile();
+    File map = new File(new File(new File(location, "PERMANENT"), "cellhd"), "elevation");
+    Assertions.assertTrue(map.getParentFile().mkdirs());
+    Assertions.assertTrue(map.createNewFile());
+    File directory = new File(location, "pyramids");
+    Assertions.assertTrue(directory.mkdirs());
+    PyramidBuilder builder = new PyramidBuilder(directory.getAbsolutePath(), true);
+    File pyramid = builder.pyramidFile(map);
+    Assertions.assertTrue(pyramid.createNewFile());
+    Assertions.assertTrue(PyramidBuilder.readyMarker(pyramid).createNewFile());
+
+    Assertions.assertEquals(pyramid, builder.resolve(map));
+    RasterSource source = builder.source(map);
+    Assertions.assertEquals(pyramid.getAbsolutePath(), source.getId());
+    // the pyramid is a GeoTIFF, only GRASS rasters are accepted otherwise
+    Assertions.assertTrue(((GdalRasterSource) source).accepts(header("COG")));
+    Assertions.assertFalse(new GdalRasterSource(map, false).accepts(header("COG")));
+    Assertions.assertTrue(new GdalRasterSource(map, false).accepts(header("GRASS")));
+  }
+
+  @Test
+  public void testVrtPyramidReadsFullResolutionFromMap() throws IOException {
+    File location = Files.createTempDirectory("grass").toFile();
+    File map = new File(new File(new File(location, "PERMANENT"), "cellhd"), "elevation");
+    Assertions.assertTrue(map.getParentFile().mkdirs());
+    Assertions.assertTrue(map.createNewFile());
+    File directory = new File(location, "pyramids");
+    Assertions.assertTrue(directory.mkdirs());
+    PyramidBuilder builder = new PyramidBuilder(directory.getAbsolutePath(), false);
+    File pyramid = builder.pyramidFile(map);
+    Assertions.assertTrue(pyramid.createNewFile());
+    Assertions.assertTrue(PyramidBuilder.readyMarker(pyramid).createNewFile());
+    double[][] values = new double[1][100];
+    Arrays.fill(values[0], 7);
+    RasterSources.register(map, new InMemoryRasterSource(map.getAbsolutePath(), header("GRASS"), values));
+    try {
+      RasterSource source = builder.source(map);
+      Assertions.assertEquals(pyramid.getAbsolutePath(), source.getId());
+      DataBufferDouble buffer = new DataBufferDouble(4);
+      Assertions.assertTrue(source.read(0, new int[]{0, 0, 2, 2}, 2, 2, new int[]{0}, buffer, 2, 4, null));
+      Assertions.assertArrayEquals(new double[]{7, 7, 7, 7}, buffer.getData(), 0);
+    } finally {
+      RasterSources.unregister(map);
+    }
+  }
+
+}
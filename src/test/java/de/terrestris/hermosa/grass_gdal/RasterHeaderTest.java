@@ -0,0 +1,48 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+public class RasterHeaderTest {
+
+  @Test
+  public void testWriteAndRead() throws IOException {
+    RasterHeader header = new RasterHeader("GRASS", 1500, 1350, new double[]{630000, 10, 0, 228500, 0, -10}, 1, 6,
+      new int[]{1500, 1}, -2147483648.0, "PROJCS[\"NAD83 / North Carolina\"]", new int[][]{{750, 675}, {375, 338}});
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    header.write(new DataOutputStream(bytes));
+    RasterHeader copy = RasterHeader.read(new DataInputStream(new ByteArrayInputStream(bytes.toByteArray())));
+    Assertions.assertEquals("GRASS", copy.getDriver());
+    Assertions.assertEquals(1500, copy.getWidth());
+    Assertions.assertEquals(1350, copy.getHeight());
+    Assertions.assertArrayEquals(header.getGeoTransform(), copy.getGeoTransform());
+    Assertions.assertEquals(1, copy.getNumBands());
+    Assertions.assertEquals(6, copy.getDataType());
+    Assertions.assertArrayEquals(new int[]{1500, 1}, copy.getBlockSize());
+    Assertions.assertEquals(-2147483648.0, copy.getNoData());
+    Assertions.assertEquals(header.getCrsWkt(), copy.getCrsWkt());
+    Assertions.assertArrayEquals(new int[]{375, 338}, copy.getOverviewSizes()[1]);
+  }
+
+}
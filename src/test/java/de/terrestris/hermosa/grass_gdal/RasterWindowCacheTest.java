@@ -0,0 +1,89 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferShort;
+
+public class RasterWindowCacheTest {
+
+  private static final int[] WINDOW = {0, 0, 4, 4};
+
+  private static DataBufferShort buffer(int value) {
+    DataBufferShort buffer = new DataBufferShort(2 * 2);
+    for (int i = 0; i < buffer.getSize(); ++i) {
+      buffer.setElem(i, value + i);
+    }
+    return buffer;
+  }
+
+  @Test
+  public void testLevelsAreCachedApart() {
+    RasterWindowCache cache = new RasterWindowCache(1024, false);
+    cache.put(new RasterWindowCache.Key("a", 1, 0, WINDOW, 2, 2, 0), buffer(10), 0, 2);
+    DataBuffer target = new DataBufferShort(2 * 2);
+    Assertions.assertFalse(cache.get(new RasterWindowCache.Key("a", 1, 1, WINDOW, 2, 2, 0), target, 0, 2));
+    Assertions.assertTrue(cache.get(new RasterWindowCache.Key("a", 1, 0, WINDOW, 2, 2, 0), target, 0, 2));
+    Assertions.assertEquals(13, target.getElem(3));
+  }
+
+  @Test
+  public void testVersionsArePrunedWithTheirWindows() {
+    // room for two windows of 2 x 2 shorts
+    RasterWindowCache cache = new RasterWindowCache(16, false);
+    cache.put(new RasterWindowCache.Key("a", 1, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2);
+    cache.put(new RasterWindowCache.Key("b", 1, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2);
+    Assertions.assertEquals(2, cache.getVersionCount());
+    cache.put(new RasterWindowCache.Key("c", 1, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2);
+    Assertions.assertEquals(2, cache.getVersionCount());
+    cache.invalidate("b");
+    Assertions.assertEquals(1, cache.getVersionCount());
+    // misses don't remember versions
+    Assertions.assertFalse(cache.get(new RasterWindowCache.Key("d", 1, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2));
+    Assertions.assertEquals(1, cache.getVersionCount());
+  }
+
+  @Test
+  public void testNewerVersionDropsWindows() {
+    RasterWindowCache cache = new RasterWindowCache(1024, false);
+    cache.put(new RasterWindowCache.Key("a", 1, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2);
+    Assertions.assertFalse(cache.get(new RasterWindowCache.Key("a", 2, 0, WINDOW, 2, 2, 0), buffer(0), 0, 2));
+    Assertions.assertEquals(0, cache.getBytes());
+    Assertions.assertEquals(0, cache.getVersionCount());
+  }
+
+  @Test
+  public void testOffHeapWindowWithLineStride() {
+    RasterWindowCache cache = new RasterWindowCache(1024, true);
+    // a 2 x 2 window in a bank with 3 samples per line
+    DataBufferShort source = new DataBufferShort(2 * 3);
+    for (int i = 0; i < source.getSize(); ++i) {
+      source.setElem(i, i);
+    }
+    RasterWindowCache.Key key = new RasterWindowCache.Key("a", 1, 0, WINDOW, 2, 2, 0);
+    cache.put(key, source, 1, 3);
+    DataBuffer target = new DataBufferShort(2 * 2);
+    Assertions.assertTrue(cache.get(key, target, 0, 2));
+    Assertions.assertEquals(1, target.getElem(0));
+    Assertions.assertEquals(2, target.getElem(1));
+    Assertions.assertEquals(4, target.getElem(2));
+    Assertions.assertEquals(5, target.getElem(3));
+  }
+
+}
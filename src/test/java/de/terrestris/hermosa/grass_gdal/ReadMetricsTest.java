@@ -0,0 +1,52 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+
+public class ReadMetricsTest {
+
+  @Test
+  public void testRecordAndExpose() throws JMException {
+    ReadMetrics metrics = ReadMetrics.forCoverage("/grass/tgis/sqlite.db", "test@PERMANENT");
+    Assertions.assertSame(metrics, ReadMetrics.forCoverage("/grass/tgis/sqlite.db", "test@PERMANENT"));
+    // coverages of the same name in another store are recorded apart
+    Assertions.assertNotSame(metrics, ReadMetrics.forCoverage("/other/tgis/sqlite.db", "test@PERMANENT"));
+    ReadMetrics.record(metrics, ReadMetrics.Stage.READ, System.nanoTime() - 2_000_000);
+    metrics.recordBytes(1024);
+    metrics.recordCache(true);
+    metrics.recordCache(false);
+    metrics.recordCache(false);
+    ReadMetrics.record(null, ReadMetrics.Stage.READ, System.nanoTime());
+
+    MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+    ObjectName name = new ObjectName("de.terrestris.hermosa.grass_gdal:type=ReadMetrics,store="
+      + ObjectName.quote("/grass/tgis/sqlite.db") + ",coverage=" + ObjectName.quote("test@PERMANENT"));
+    Assertions.assertEquals(1L, server.getAttribute(name, "ReadCount"));
+    Assertions.assertTrue((Double) server.getAttribute(name, "ReadMillis") >= 2);
+    Assertions.assertEquals(1024L, server.getAttribute(name, "ReadBytes"));
+    Assertions.assertEquals(1L, server.getAttribute(name, "CacheHits"));
+    Assertions.assertEquals(2L, server.getAttribute(name, "CacheMisses"));
+    Assertions.assertEquals(0L, server.getAttribute(name, "OpenCount"));
+  }
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StrdsCatalogTest {
+
+  private static Instant day(int day) {
+    return Instant.parse(String.format("2020-01-%02dT00:00:00Z", day));
+  }
+
+  @Test
+  public void testRefreshRebuildsOnlyChangedIndexes() {
+    Map<String, List<String>> rasters = new HashMap<>();
+    rasters.put("a@PERMANENT", Arrays.asList("a1", "a2"));
+    rasters.put("b@PERMANENT", Arrays.asList("b1"));
+    Map<String, String> fileNames = new HashMap<>();
+    fileNames.put("a1@PERMANENT", "/grass/PERMANENT/cellhd/a1");
+    fileNames.put("a2@PERMANENT", "/grass/PERMANENT/cellhd/a2");
+    fileNames.put("b1@PERMANENT", "/grass/PERMANENT/cellhd/b1");
+    Map<String, List<Instant>> times = new HashMap<>();
+    times.put("a1@PERMANENT", Arrays.asList(day(1), day(2)));
+    times.put("a2@PERMANENT", Arrays.asList(day(2), day(3)));
+    times.put("b1@PERMANENT", Arrays.asList(day(1), day(1)));
+    StrdsCatalog previous = new StrdsCatalog(rasters, fileNames, times, Collections.emptyMap(),
+      Collections.emptyMap(), null);
+    TimeDomain domain = previous.getTimeDomain("a@PERMANENT");
+    previous.getTimeDomain("b@PERMANENT");
+
+    rasters.put("b@PERMANENT", Arrays.asList("b1", "b2"));
+    fileNames.put("b2@PERMANENT", "/grass/PERMANENT/cellhd/b2");
+    times.put("b2@PERMANENT", Arrays.asList(day(5), day(5)));
+    StrdsCatalog current = new StrdsCatalog(rasters, fileNames, times, Collections.emptyMap(),
+      Collections.emptyMap(), previous);
+
+    Assertions.assertSame(previous.getTemporalIndex("a@PERMANENT"), current.getTemporalIndex("a@PERMANENT"));
+    Assertions.assertNotSame(previous.getTemporalIndex("b@PERMANENT"), current.getTemporalIndex("b@PERMANENT"));
+    Assertions.assertEquals("/grass/PERMANENT/cellhd/b2", current.getTemporalIndex("b@PERMANENT").find(day(6)));
+    Assertions.assertEquals("/grass/PERMANENT/cellhd/a2", current.getTemporalIndex("a@PERMANENT").find(day(3)));
+    Assertions.assertSame(domain, current.getTimeDomain("a@PERMANENT"));
+    Assertions.assertEquals("2020-01-05T00:00:00.000Z", current.getTimeDomain("b@PERMANENT").getMaximum());
+  }
+
+  @Test
+  public void testSemanticLabelIndex() {
+    Map<String, List<String>> rasters = new HashMap<>();
+    rasters.put("s2@PERMANENT", Arrays.asList("red1", "nir1", "red2"));
+    Map<String, String> fileNames = new HashMap<>();
+    fileNames.put("red1@PERMANENT", "/grass/PERMANENT/cellhd/red1");
+    fileNames.put("nir1@PERMANENT", "/grass/PERMANENT/cellhd/nir1");
+    fileNames.put("red2@PERMANENT", "/grass/PERMANENT/cellhd/red2");
+    Map<String, List<Instant>> times = new HashMap<>();
+    times.put("red1@PERMANENT", Arrays.asList(day(1), day(1)));
+    times.put("nir1@PERMANENT", Arrays.asList(day(1), day(1)));
+    times.put("red2@PERMANENT", Arrays.asList(day(2), day(2)));
+    Map<String, String> labels = new HashMap<>();
+    labels.put("red1@PERMANENT", "S2_4");
+    labels.put("nir1@PERMANENT", "S2_8");
+    labels.put("red2@PERMANENT", "S2_4");
+    StrdsCatalog catalog = new StrdsCatalog(rasters, fileNames, times, labels, Collections.emptyMap(),
+      null);
+
+    Assertions.assertEquals(Arrays.asList("S2_4", "S2_8"), catalog.getSemanticLabels("s2@PERMANENT"));
+    Assertions.assertEquals(3, catalog.getTemporalIndex("s2@PERMANENT", null).size());
+    Assertions.assertEquals(2, catalog.getTemporalIndex("s2@PERMANENT", "S2_4").size());
+    Assertions.assertEquals("/grass/PERMANENT/cellhd/nir1", catalog.getTemporalIndex("s2@PERMANENT", "S2_8")
+      .find(day(1)));
+    Assertions.assertEquals(0, catalog.getTemporalIndex("s2@PERMANENT", "S2_2").size());
+    Assertions.assertNull(catalog.getTemporalIndex("unknown@PERMANENT", "S2_4"));
+  }
+
+}
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.geotools.api.data.Query;
+import org.geotools.api.filter.Filter;
+import org.geotools.api.filter.FilterFactory;
+import org.geotools.coverage.grid.GridGeometry2D;
+import org.geotools.data.DataUtilities;
+import org.geotools.data.simple.SimpleFeatureCollection;
+import org.geotools.factory.CommonFactoryFinder;
+import org.geotools.geometry.jts.ReferencedEnvelope;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.locationtech.jts.geom.Envelope;
+
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class StrdsGranuleSourceTest {
+
+  private static Instant day(int day) {
+    return Instant.parse(String.format("2020-01-%02dT00:00:00Z", day));
+  }
+
+  private static StrdsGranuleSource createSource() {
+    Map<String, List<String>> rasters = new HashMap<>();
+    rasters.put("s@PERMANENT", Arrays.asList("west", "east", "unknown"));
+    Map<String, String> fileNames = new HashMap<>();
+    fileNames.put("west@PERMANENT", "/grass/PERMANENT/cellhd/west");
+    fileNames.put("east@PERMANENT", "/grass/PERMANENT/cellhd/east");
+    fileNames.put("unknown@PERMANENT", "/grass/PERMANENT/cellhd/unknown");
+    Map<String, List<Instant>> times = new HashMap<>();
+    times.put("west@PERMANENT", Arrays.asList(day(2), day(3)));
+    times.put("east@PERMANENT", Arrays.asList(day(1), day(2)));
+    times.put("unknown@PERMANENT", Arrays.asList(day(4), day(5)));
+    Map<String, double[]> extents = new HashMap<>();
+    extents.put("west@PERMANENT", new double[]{0, 0, 10, 10});
+    extents.put("east@PERMANENT", new double[]{20, 0, 30, 10});
+    Map<String, String> labels = new HashMap<>();
+    labels.put("west@PERMANENT", "S2_1");
+    labels.put("east@PERMANENT", "S2_2");
+    labels.put("unknown@PERMANENT", "S2_1");
+    StrdsCatalog catalog = new StrdsCatalog(rasters, fileNames, times, labels, extents, null);
+    return catalog.getGranuleSource("s@PERMANENT", null, new Envelope(0, 30, 0, 10));
+  }
+
+  @Test
+  public void testBoundsAreTheUnionOfTheFootprints() {
+    StrdsGranuleSource source = createSource();
+    ReferencedEnvelope bounds = source.getBounds(null);
+    Assertions.assertEquals(0, bounds.getMinX());
+    Assertions.assertEquals(30, bounds.getMaxX());
+    Assertions.assertEquals(3, source.getCount(Query.ALL));
+  }
+
+  @Test
+  public void testGridIsSnappedToTheResolutionAndCached() {
+    StrdsGranuleSource source = createSource();
+    GridGeometry2D grid = source.getGrid(4, 4);
+    Assertions.assertEquals(8, grid.getGridRange().getSpan(0));
+    Assertions.assertEquals(3, grid.getGridRange().getSpan(1));
+    Assertions.assertEquals(32, grid.getEnvelope().getMaximum(0), 0);
+    Assertions.assertSame(grid, source.getGrid(4, 4));
+    Assertions.assertEquals(30, source.getGrid(1, 1).getGridRange().getSpan(0));
+  }
+
+  @Test
+  public void testSpatialQuery() {
+    StrdsGranuleSource source = createSource();
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+    Query query = new Query(source.getSchema().getTypeName(), ff.bbox(StrdsGranuleSource.GEOMETRY, 21, 1, 22, 2,
+      null));
+    // the map without registered extent uses the fallback footprint
+    Assertions.assertEquals(2, source.getCount(query));
+    Assertions.assertEquals(20, source.getBounds(query).getMinX());
+  }
+
+  @Test
+  public void testTimeAndLabelQuery() {
+    StrdsGranuleSource source = createSource();
+    FilterFactory ff = CommonFactoryFinder.getFilterFactory();
+    Filter time = ff.and(ff.lessOrEqual(ff.property(StrdsGranuleSource.START_TIME), ff.literal(Date.from(day(2)))),
+      ff.greaterOrEqual(ff.property(StrdsGranuleSource.END_TIME), ff.literal(Date.from(day(2)))));
+    Assertions.assertEquals(2, source.getCount(new Query(source.getSchema().getTypeName(), time)));
+    Filter label = ff.and(time, ff.equals(ff.property(StrdsGranuleSource.SEMANTIC_LABEL), ff.literal("S2_1")));
+    SimpleFeatureCollection granules = source.getGranules(new Query(source.getSchema().getTypeName(), label));
+    Assertions.assertEquals(1, granules.size());
+    Assertions.assertEquals("west@PERMANENT", DataUtilities.first(granules).getID());
+  }
+
+  @Test
+  public void testGranuleSourceIsCachedPerCatalog() {
+    Map<String, List<String>> rasters = new HashMap<>();
+    rasters.put("s@PERMANENT", Arrays.asList("a"));
+    Map<String, String> fileNames = new HashMap<>();
+    fileNames.put("a@PERMANENT", "/grass/PERMANENT/cellhd/a");
+    Map<String, List<Instant>> times = new HashMap<>();
+    times.put("a@PERMANENT", Arrays.asList(day(1), day(2)));
+    StrdsCatalog catalog = new StrdsCatalog(rasters, fileNames, times, new HashMap<>(), new HashMap<>(), null);
+    Envelope fallback = new Envelope(0, 1, 0, 1);
+    StrdsGranuleSource source = catalog.getGranuleSource("s@PERMANENT", null, fallback);
+    Assertions.assertSame(source, catalog.getGranuleSource("s@PERMANENT", null, fallback));
+    Assertions.assertNull(catalog.getGranuleSource("other@PERMANENT", null, fallback));
+    StrdsCatalog refreshed = new StrdsCatalog(rasters, fileNames, times, new HashMap<>(), new HashMap<>(), catalog);
+    Assertions.assertNotSame(source, refreshed.getGranuleSource("s@PERMANENT", null, fallback));
+  }
+
+}
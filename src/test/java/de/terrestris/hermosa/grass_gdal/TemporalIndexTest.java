@@ -0,0 +1,111 @@
+/*
+ * Copyright 2019-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.Arrays;
+
+public class TemporalIndexTest {
+
+  private static Instant day(int day) {
+    return Instant.parse(String.format("2020-01-%02dT00:00:00Z", day));
+  }
+
+  private static TemporalIndex<String> createIndex() {
+    return TemporalIndex.<String>builder()
+      .add(day(3), day(5), "b")
+      .add(day(1), day(3), "a")
+      .add(day(10), null, "c")
+      .add(day(2), day(20), "long")
+      .build();
+  }
+
+  @Test
+  public void testInstantResolvesToLatestContainingInterval() {
+    TemporalIndex<String> index = createIndex();
+    Assertions.assertEquals("a", index.find(day(1)));
+    Assertions.assertEquals("long", index.find(day(2)));
+    Assertions.assertEquals("b", index.find(day(3)));
+    Assertions.assertEquals("long", index.find(day(7)));
+    Assertions.assertEquals("c", index.find(day(10)));
+  }
+
+  @Test
+  public void testInstantOutsideResolvesToNearestInterval() {
+    TemporalIndex<String> index = TemporalIndex.<String>builder()
+      .add(day(1), day(2), "a")
+      .add(day(10), day(11), "b")
+      .build();
+    Assertions.assertEquals("a", index.find(day(5)));
+    Assertions.assertEquals("b", index.find(day(8)));
+    Assertions.assertEquals("a", index.find(day(6)));
+    Assertions.assertEquals("b", index.find(day(20)));
+    Assertions.assertEquals("a", index.find(Instant.parse("2019-12-01T00:00:00Z")));
+  }
+
+  @Test
+  public void testRangeLookup() {
+    TemporalIndex<String> index = TemporalIndex.<String>builder()
+      .add(day(1), day(2), "a")
+      .add(day(10), day(11), "b")
+      .build();
+    Assertions.assertEquals("a", index.find(day(1), day(15)));
+    Assertions.assertEquals("b", index.find(day(5), day(15)));
+    Assertions.assertEquals("a", index.find(day(5), day(6)));
+  }
+
+  @Test
+  public void testQuery() {
+    TemporalIndex<String> index = createIndex();
+    Assertions.assertEquals(Arrays.asList("a", "long", "b"), index.query(day(3), day(4)));
+    Assertions.assertEquals(Arrays.asList("long", "c"), index.query(day(6), day(12)));
+    Assertions.assertTrue(index.query(day(21), day(22)).isEmpty());
+  }
+
+  @Test
+  public void testLongLeadingInterval() {
+    // an interval spanning the whole series, followed by many short ones
+    TemporalIndex.Builder<String> builder = TemporalIndex.<String>builder()
+      .add(Instant.parse("2000-01-01T00:00:00Z"), Instant.parse("2030-01-01T00:00:00Z"), "long");
+    Instant first = Instant.parse("2001-01-01T00:00:00Z");
+    for (int hour = 0; hour < 100000; ++hour) {
+      builder.add(first.plusSeconds(hour * 3600L), first.plusSeconds(hour * 3600L + 1800), "h" + hour);
+    }
+    TemporalIndex<String> index = builder.build();
+    Assertions.assertEquals("h500", index.find(first.plusSeconds(500 * 3600L + 60)));
+    // between two short intervals only the long one contains the time
+    Assertions.assertEquals("long", index.find(first.plusSeconds(500 * 3600L + 2000)));
+    Assertions.assertEquals("long", index.find(Instant.parse("2029-01-01T00:00:00Z")));
+    Assertions.assertEquals(Arrays.asList("long", "h10", "h11"),
+      index.query(first.plusSeconds(10 * 3600L), first.plusSeconds(11 * 3600L)));
+    Assertions.assertEquals(Arrays.asList("long"),
+      index.query(Instant.parse("2029-01-01T00:00:00Z"), Instant.parse("2029-02-01T00:00:00Z")));
+    Assertions.assertEquals(100001, index.query(Instant.parse("1999-01-01T00:00:00Z"),
+      Instant.parse("2031-01-01T00:00:00Z")).size());
+  }
+
+  @Test
+  public void testEmptyIndex() {
+    TemporalIndex<String> index = TemporalIndex.<String>builder().build();
+    Assertions.assertNull(index.find(day(1)));
+    Assertions.assertNull(index.find(day(1), day(2)));
+    Assertions.assertTrue(index.query(day(1), day(2)).isEmpty());
+  }
+
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright 2023-present terrestris GmbH & Co. KG
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package de.terrestris.hermosa.grass_gdal;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+public class TimeDomainTest {
+
+  private static Instant time(String time) {
+    return Instant.parse(time);
+  }
+
+  @Test
+  public void testRegularInstantsCollapse() {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    for (int day = 1; day <= 9; ++day) {
+      Instant instant = time("2020-01-0" + day + "T00:00:00Z");
+      builder.add(instant, instant, "map" + day);
+    }
+    Instant extra = time("2020-01-20T12:00:00Z");
+    builder.add(extra, extra, "extra");
+    TimeDomain domain = TimeDomain.of(builder.build());
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z/2020-01-09T00:00:00.000Z/P1D,2020-01-20T12:00:00.000Z",
+      domain.getDomain());
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z", domain.getMinimum());
+    Assertions.assertEquals("2020-01-20T12:00:00.000Z", domain.getMaximum());
+  }
+
+  @Test
+  public void testMonthlyInstantsCollapse() {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    for (String month : new String[]{"01", "02", "03", "04"}) {
+      Instant instant = time("2020-" + month + "-15T00:00:00Z");
+      builder.add(instant, instant, month);
+    }
+    Assertions.assertEquals("2020-01-15T00:00:00.000Z/2020-04-15T00:00:00.000Z/P1M",
+      TimeDomain.of(builder.build()).getDomain());
+  }
+
+  @Test
+  public void testIntervalsAndDuplicatesAreListed() {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    builder.add(time("2020-01-01T00:00:00Z"), time("2020-01-02T00:00:00Z"), "a");
+    builder.add(time("2020-01-01T00:00:00Z"), time("2020-01-02T00:00:00Z"), "b");
+    builder.add(time("2020-01-03T00:00:00Z"), time("2020-01-03T00:00:00Z"), "c");
+    builder.add(time("2020-01-04T00:00:00Z"), time("2020-01-04T00:00:00Z"), "d");
+    TimeDomain domain = TimeDomain.of(builder.build());
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z/2020-01-02T00:00:00.000Z,2020-01-03T00:00:00.000Z,"
+      + "2020-01-04T00:00:00.000Z", domain.getDomain());
+    Assertions.assertEquals("2020-01-04T00:00:00.000Z", domain.getMaximum());
+  }
+
+  private static TemporalIndex.Builder<String> days(TemporalIndex.Builder<String> builder, int from, int to) {
+    for (int day = from; day <= to; ++day) {
+      builder.add(time(String.format("2020-01-%02dT00:00:00Z", day)),
+        time(String.format("2020-01-%02dT00:00:00Z", day + 1)), "map" + day);
+    }
+    return builder;
+  }
+
+  @Test
+  public void testRegularIntervalsCollapse() {
+    TimeDomain domain = TimeDomain.of(days(TemporalIndex.builder(), 1, 10).build());
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z/2020-01-10T00:00:00.000Z/P1D", domain.getDomain());
+    Assertions.assertEquals("2020-01-11T00:00:00.000Z", domain.getMaximum());
+  }
+
+  @Test
+  public void testGapSplitsIntervalRuns() {
+    TemporalIndex.Builder<String> builder = days(TemporalIndex.builder(), 1, 3);
+    TimeDomain domain = TimeDomain.of(days(builder, 10, 13).build());
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z/2020-01-03T00:00:00.000Z/P1D,"
+      + "2020-01-10T00:00:00.000Z/2020-01-13T00:00:00.000Z/P1D", domain.getDomain());
+  }
+
+  @Test
+  public void testIrregularIntervalsAreListed() {
+    TemporalIndex.Builder<String> builder = TemporalIndex.builder();
+    // equally spaced starts, but the intervals don't cover the step
+    builder.add(time("2020-01-01T00:00:00Z"), time("2020-01-01T12:00:00Z"), "a");
+    builder.add(time("2020-01-02T00:00:00Z"), time("2020-01-02T12:00:00Z"), "b");
+    builder.add(time("2020-01-03T00:00:00Z"), time("2020-01-03T12:00:00Z"), "c");
+    builder.add(time("2020-01-04T00:00:00Z"), time("2020-01-06T00:00:00Z"), "d");
+    Assertions.assertEquals("2020-01-01T00:00:00.000Z/2020-01-01T12:00:00.000Z,"
+      + "2020-01-02T00:00:00.000Z/2020-01-02T12:00:00.000Z,2020-01-03T00:00:00.000Z/2020-01-03T12:00:00.000Z,"
+      + "2020-01-04T00:00:00.000Z/2020-01-06T00:00:00.000Z", TimeDomain.of(builder.build()).getDomain());
+  }
+
+  @Test
+  public void testEmptyIndex() {
+    Assertions.assertNull(TimeDomain.of(TemporalIndex.<String>builder().build()));
+  }
+
+}